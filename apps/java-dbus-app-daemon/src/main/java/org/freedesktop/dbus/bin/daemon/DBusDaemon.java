@@ -20,12 +20,12 @@ import java.lang.reflect.InvocationTargetException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.log4j.Logger;
 import org.freedesktop.dbus.BusAddress;
@@ -34,12 +34,14 @@ import org.freedesktop.dbus.DBusSignal;
 import org.freedesktop.dbus.DirectConnection;
 import org.freedesktop.dbus.Error;
 import org.freedesktop.dbus.Marshalling;
+import org.freedesktop.dbus.MemoryTransport;
 import org.freedesktop.dbus.Message;
 import org.freedesktop.dbus.MessageReader;
 import org.freedesktop.dbus.MessageWriter;
 import org.freedesktop.dbus.MethodCall;
 import org.freedesktop.dbus.MethodReturn;
 import org.freedesktop.dbus.Transport;
+import org.freedesktop.dbus.bin.daemon.NameRegistry.NameChange;
 import org.freedesktop.dbus.exceptions.DBusException;
 import org.freedesktop.dbus.exceptions.DBusExecutionException;
 import org.freedesktop.dbus.exceptions.FatalException;
@@ -60,13 +62,24 @@ public class DBusDaemon extends Thread {
     static final Logger log = Logger.getLogger(DBusDaemon.class);
 
     public static final int QUEUE_POLL_WAIT = 500;
+    public static final int MAX_BATCH = 256;
+    public static final int QUEUE_CAPACITY = 4096;
+    /** ms a producer waits for space in a full queue before the stage is told it is stalled */
+    public static final int QUEUE_FULL_TIMEOUT = 1000;
+    /** Bounds in ns of the backoff of a producer waiting for space in a full queue */
+    private static final long MIN_FULL_WAIT = 1000;
+    private static final long MAX_FULL_WAIT = 1000000;
 
     static class Connstruct {
 
         public Socket sock;
         public MessageReader min;
         public MessageWriter mout;
-        public String unique;
+        public volatile String unique;
+        public int shard;
+        boolean dirty;
+        volatile boolean closed;
+        final WeakReference<Connstruct> weak = new WeakReference<>(this);
 
 
         public Connstruct ( Socket sock ) throws IOException {
@@ -76,79 +89,161 @@ public class DBusDaemon extends Thread {
         }
 
 
+        public Connstruct ( MessageReader min, MessageWriter mout ) {
+            this.min = min;
+            this.mout = mout;
+        }
+
+
+        /**
+         * Close the underlying socket or in-memory connection, a reader blocked on it will fail.
+         */
+        void close () {
+            this.closed = true;
+            try {
+                if ( null != this.sock )
+                    this.sock.close();
+                else {
+                    this.min.close();
+                    this.mout.close();
+                }
+            }
+            catch ( IOException IOe ) {}
+        }
+
+
         @Override
         public String toString () {
             return null == this.unique ? ":?-?" : this.unique;
         }
     }
 
-    static class MagicMap <A, B> {
-
-        private Map<A, LinkedList<B>> m;
-        private LinkedList<A> q;
-        private String name;
+    /**
+     * A pipeline stage consuming messages from a lock free queue.
+     * 
+     * Producers only wait when the queue is full, parking with an increasing backoff, the consumer
+     * parks while the queue is empty. The consumer drains the queue in batches of up to MAX_BATCH
+     * messages and is notified at the end of each batch. A producer which could not queue a message
+     * for QUEUE_FULL_TIMEOUT ms asks the stage whether to keep waiting, see stalled().
+     * 
+     * Stages only ever queue to later stages (reader, router, server, sender) so waiting for space
+     * cannot deadlock; senders therefore never queue messages themselves.
+     */
+    abstract class Worker extends Thread {
+
+        private final MessageQueue queue = new MessageQueue(QUEUE_CAPACITY);
+        private volatile boolean parked;
+
+
+        Worker ( String name ) {
+            super(name);
+        }
 
 
-        public MagicMap ( String name ) {
-            this.m = new HashMap<>();
-            this.q = new LinkedList<>();
-            this.name = name;
+        void offer ( Message m, WeakReference<Connstruct> wc ) {
+            enqueue(m, wc);
+            if ( this.parked )
+                LockSupport.unpark(this);
         }
 
 
-        public A head () {
-            return this.q.getFirst();
+        void offer ( List<Message> batch, WeakReference<Connstruct> wc ) {
+            for ( Message m : batch )
+                enqueue(m, wc);
+            if ( this.parked )
+                LockSupport.unpark(this);
         }
 
 
-        public void putFirst ( A a, B b ) {
-            if ( log.isDebugEnabled() ) {
-                log.debug("<" + this.name + "> Queueing {" + a + " => " + b + "}");
-            }
-            if ( this.m.containsKey(a) )
-                this.m.get(a).add(b);
-            else {
-                LinkedList<B> l = new LinkedList<>();
-                l.add(b);
-                this.m.put(a, l);
+        private void enqueue ( Message m, WeakReference<Connstruct> wc ) {
+            long wait = MIN_FULL_WAIT;
+            long deadline = System.nanoTime() + QUEUE_FULL_TIMEOUT * 1000000L;
+            while ( !this.queue.offer(m, wc) ) {
+                if ( !DBusDaemon.this._run ) {
+                    log.info("Discarding " + m + " daemon stopped");
+                    return;
+                }
+                LockSupport.unpark(this);
+                if ( System.nanoTime() - deadline >= 0 ) {
+                    if ( !stalled(m) )
+                        return;
+                    wait = MIN_FULL_WAIT;
+                    deadline = System.nanoTime() + QUEUE_FULL_TIMEOUT * 1000000L;
+                }
+                LockSupport.parkNanos(wait);
+                wait = Math.min(2 * wait, MAX_FULL_WAIT);
             }
-            this.q.addFirst(a);
         }
 
 
-        public void putLast ( A a, B b ) {
-            if ( log.isDebugEnabled() ) {
-                log.debug("<" + this.name + "> Queueing {" + a + " => " + b + "}");
-            }
-            if ( this.m.containsKey(a) )
-                this.m.get(a).add(b);
-            else {
-                LinkedList<B> l = new LinkedList<>();
-                l.add(b);
-                this.m.put(a, l);
-            }
-            this.q.addLast(a);
+        /**
+         * Called when a message could not be queued for QUEUE_FULL_TIMEOUT ms.
+         * 
+         * @param m
+         * @return whether to keep waiting, otherwise the message is discarded
+         */
+        boolean stalled ( Message m ) {
+            log.warn(getName() + " is not keeping up, still waiting to queue " + m);
+            return true;
         }
 
 
-        public List<B> remove ( A a ) {
-            if ( log.isDebugEnabled() ) {
-                log.debug("<" + this.name + "> Removing {" + a + "}");
+        abstract void handle ( Message m, WeakReference<Connstruct> wc, Connstruct c );
+
+
+        /**
+         * Called after a batch of messages has been handled.
+         */
+        void endBatch () {}
+
+
+        @Override
+        public void run () {
+            int handled = 0;
+            while ( DBusDaemon.this._run ) {
+                Message m = this.queue.head();
+                if ( null == m || handled >= MAX_BATCH ) {
+                    if ( handled > 0 ) {
+                        endBatch();
+                        handled = 0;
+                    }
+                    if ( null == m ) {
+                        this.parked = true;
+                        if ( this.queue.isEmpty() )
+                            LockSupport.parkNanos(this, QUEUE_POLL_WAIT * 1000000L);
+                        this.parked = false;
+                        continue;
+                    }
+                }
+                WeakReference<Connstruct> wc = this.queue.headConnection();
+                this.queue.remove();
+                dispatch(m, wc);
+                handled++;
             }
-            this.q.remove(a);
-            return this.m.remove(a);
+            if ( handled > 0 )
+                endBatch();
         }
 
 
-        public int size () {
-            return this.q.size();
+        private void dispatch ( Message m, WeakReference<Connstruct> wc ) {
+            Connstruct c = wc.get();
+            if ( null == c ) {
+                log.info("Discarding " + m + " connection reaped");
+                return;
+            }
+            try {
+                handle(m, wc, c);
+            }
+            catch ( RuntimeException Re ) {
+                log.warn("Failed to handle " + m, Re);
+            }
         }
     }
 
-    public class DBusServer extends Thread implements DBus, DBus.Introspectable, DBus.Peer {
+    public class DBusServer extends Worker implements DBus, DBus.Introspectable, DBus.Peer {
 
-        public DBusServer () {
-            setName("Server");
+        public DBusServer ( int shard ) {
+            super("Server-" + shard);
         }
 
         public Connstruct c;
@@ -170,62 +265,31 @@ public class DBusDaemon extends Thread {
                     this.c.unique = ":1." + ( ++DBusDaemon.this.next_unique );
                 }
             }
-            synchronized ( DBusDaemon.this.names ) {
-                DBusDaemon.this.names.put(this.c.unique, this.c);
-            }
+            List<NameChange> changes = new ArrayList<>(1);
+            DBusDaemon.this.names.requestName(this.c.unique, this.c, DBus.DBUS_NAME_FLAG_DO_NOT_QUEUE, changes);
 
             log.info("Client " + this.c.unique + " registered");
 
-            try {
-                send(this.c, new DBusSignal(
-                    "org.freedesktop.DBus",
-                    "/org/freedesktop/DBus",
-                    "org.freedesktop.DBus",
-                    "NameAcquired",
-                    "s",
-                    this.c.unique));
-                DBusSignal s = new DBusSignal(
-                    "org.freedesktop.DBus",
-                    "/org/freedesktop/DBus",
-                    "org.freedesktop.DBus",
-                    "NameOwnerChanged",
-                    "sss",
-                    this.c.unique,
-                    "",
-                    this.c.unique);
-                send(null, s);
-            }
-            catch ( DBusException DBe ) {
-                log.warn(DBe);
-            }
+            sendNameChanges(changes);
             return this.c.unique;
         }
 
 
         @Override
         public String[] ListNames () {
-            String[] ns;
-            synchronized ( DBusDaemon.this.names ) {
-                Set<String> nss = DBusDaemon.this.names.keySet();
-                ns = nss.toArray(new String[0]);
-            }
-            return ns;
+            return DBusDaemon.this.names.listNames();
         }
 
 
         @Override
         public boolean NameHasOwner ( String name ) {
-            boolean rv;
-            synchronized ( DBusDaemon.this.names ) {
-                rv = DBusDaemon.this.names.containsKey(name);
-            }
-            return rv;
+            return DBusDaemon.this.names.hasOwner(name);
         }
 
 
         @Override
         public String GetNameOwner ( String name ) {
-            Connstruct owner = DBusDaemon.this.names.get(name);
+            Connstruct owner = DBusDaemon.this.names.getOwner(name);
             String o;
             if ( null == owner )
                 o = "";
@@ -249,72 +313,22 @@ public class DBusDaemon extends Thread {
 
         @Override
         public UInt32 RequestName ( String name, UInt32 flags ) {
-            boolean exists = false;
-            synchronized ( DBusDaemon.this.names ) {
-                if ( ! ( exists = DBusDaemon.this.names.containsKey(name) ) )
-                    DBusDaemon.this.names.put(name, this.c);
-            }
-
-            int rv;
-            if ( exists ) {
-                rv = DBus.DBUS_REQUEST_NAME_REPLY_EXISTS;
-            }
-            else {
+            List<NameChange> changes = new ArrayList<>(1);
+            int rv = DBusDaemon.this.names.requestName(name, this.c, flags.intValue(), changes);
+            if ( rv == DBus.DBUS_REQUEST_NAME_REPLY_PRIMARY_OWNER )
                 log.info("Client " + this.c.unique + " acquired name " + name);
-                rv = DBus.DBUS_REQUEST_NAME_REPLY_PRIMARY_OWNER;
-                try {
-                    send(this.c, new DBusSignal("org.freedesktop.DBus", "/org/freedesktop/DBus", "org.freedesktop.DBus", "NameAcquired", "s", name));
-                    send(null, new DBusSignal(
-                        "org.freedesktop.DBus",
-                        "/org/freedesktop/DBus",
-                        "org.freedesktop.DBus",
-                        "NameOwnerChanged",
-                        "sss",
-                        name,
-                        "",
-                        this.c.unique));
-                }
-                catch ( DBusException DBe ) {
-                    log.warn(DBe);
-                }
-            }
-
+            sendNameChanges(changes);
             return new UInt32(rv);
         }
 
 
         @Override
         public UInt32 ReleaseName ( String name ) {
-            boolean exists = false;
-            synchronized ( DBusDaemon.this.names ) {
-                exists = DBusDaemon.this.names.containsKey(name) && DBusDaemon.this.names.get(name).equals(this.c);
-                if ( exists )
-                    DBusDaemon.this.names.remove(name);
-            }
-
-            int rv;
-            if ( !exists ) {
-                rv = DBus.DBUS_RELEASE_NAME_REPLY_NON_EXISTANT;
-            }
-            else {
-                log.info("Client " + this.c.unique + " acquired name " + name);
-                rv = DBus.DBUS_RELEASE_NAME_REPLY_RELEASED;
-                try {
-                    send(this.c, new DBusSignal("org.freedesktop.DBus", "/org/freedesktop/DBus", "org.freedesktop.DBus", "NameLost", "s", name));
-                    send(null, new DBusSignal(
-                        "org.freedesktop.DBus",
-                        "/org/freedesktop/DBus",
-                        "org.freedesktop.DBus",
-                        "NameOwnerChanged",
-                        "sss",
-                        name,
-                        this.c.unique,
-                        ""));
-                }
-                catch ( DBusException DBe ) {
-                    log.warn(DBe);
-                }
-            }
+            List<NameChange> changes = new ArrayList<>(1);
+            int rv = DBusDaemon.this.names.releaseName(name, this.c, changes);
+            if ( rv == DBus.DBUS_RELEASE_NAME_REPLY_RELEASED )
+                log.info("Client " + this.c.unique + " released name " + name);
+            sendNameChanges(changes);
             return new UInt32(rv);
         }
 
@@ -342,7 +356,7 @@ public class DBusDaemon extends Thread {
 
         @Override
         public String[] ListQueuedOwners ( String name ) {
-            return new String[0];
+            return DBusDaemon.this.names.listQueuedOwners(name);
         }
 
 
@@ -387,13 +401,13 @@ public class DBusDaemon extends Thread {
                 try {
                     this.c = cstruct;
                     this.m = msg;
-                    rv = meth.invoke(DBusDaemon.this.dbus_server, args);
+                    rv = meth.invoke(this, args);
                     if ( null == rv ) {
-                        send(cstruct, new MethodReturn("org.freedesktop.DBus", (MethodCall) msg, null), true);
+                        send(cstruct, new MethodReturn("org.freedesktop.DBus", (MethodCall) msg, null));
                     }
                     else {
                         String sig = Marshalling.getDBusType(meth.getGenericReturnType())[ 0 ];
-                        send(cstruct, new MethodReturn("org.freedesktop.DBus", (MethodCall) msg, sig, rv), true);
+                        send(cstruct, new MethodReturn("org.freedesktop.DBus", (MethodCall) msg, sig, rv));
                     }
                 }
                 catch ( InvocationTargetException ITe ) {
@@ -464,91 +478,146 @@ public class DBusDaemon extends Thread {
 
 
         @Override
-        public void run () {
-            while ( DBusDaemon.this._run ) {
-                Message msg;
-                List<WeakReference<Connstruct>> wcs;
-                // block on outqueue
-                synchronized ( DBusDaemon.this.localqueue ) {
-                    while ( DBusDaemon.this.localqueue.size() == 0 )
-                        try {
-                            DBusDaemon.this.localqueue.wait();
-                        }
-                        catch ( InterruptedException Ie ) {}
-                    msg = DBusDaemon.this.localqueue.head();
-                    wcs = DBusDaemon.this.localqueue.remove(msg);
+        void handle ( Message msg, WeakReference<Connstruct> wc, Connstruct connstruct ) {
+            if ( log.isTraceEnabled() ) {
+                log.trace("<localqueue> Got message " + msg + " from " + connstruct);
+            }
+            try {
+                handleMessage(connstruct, msg);
+            }
+            catch ( DBusException DBe ) {
+                log.warn(DBe);
+            }
+        }
+    }
+
+    /**
+     * Writes messages to the connections assigned to its shard.
+     * 
+     * Messages are only buffered while a batch is handled, each connection written to is flushed
+     * once at the end of the batch.
+     * 
+     * A connection failing to write is closed, its reader then fails and removes the connection
+     * since that may have to queue messages to the senders.
+     * 
+     * A client which does not read its messages blocks the sender while writing to it. When the
+     * queue of the sender stays full that client is disconnected, which fails the blocked write.
+     * If the sender is not blocked a method call which expects a reply is rejected with
+     * LimitsExceeded, anything else keeps waiting for space.
+     */
+    public class Sender extends Worker {
+
+        private final List<Connstruct> written = new ArrayList<>();
+        /** Connection currently written to */
+        private volatile Connstruct writing;
+
+
+        public Sender ( int shard ) {
+            super("Sender-" + shard);
+        }
+
+
+        @Override
+        void handle ( Message m, WeakReference<Connstruct> wc, Connstruct c ) {
+            if ( log.isTraceEnabled() ) {
+                log.trace("<outqueue> Got message " + m + " for " + c.unique);
+            }
+            if ( c.closed ) {
+                log.info("Discarding " + m + " connection closed");
+                return;
+            }
+            log.info("Sending message " + m + " to " + c.unique);
+            this.writing = c;
+            try {
+                c.mout.bufferMessage(m);
+                if ( !c.dirty ) {
+                    c.dirty = true;
+                    this.written.add(c);
+                }
+            }
+            catch ( IOException IOe ) {
+                log.warn(IOe);
+                c.close();
+            }
+            finally {
+                this.writing = null;
+            }
+        }
+
+
+        @Override
+        void endBatch () {
+            for ( Connstruct c : this.written ) {
+                c.dirty = false;
+                if ( c.closed )
+                    continue;
+                this.writing = c;
+                try {
+                    c.mout.flush();
+                }
+                catch ( IOException IOe ) {
+                    log.warn(IOe);
+                    c.close();
+                }
+                finally {
+                    this.writing = null;
                 }
-                if ( null != wcs ) {
+            }
+            this.written.clear();
+        }
+
+
+        @Override
+        boolean stalled ( Message m ) {
+            Connstruct c = this.writing;
+            if ( null != c ) {
+                log.warn("Disconnecting " + c + ", it is not reading its messages");
+                c.close();
+                return true;
+            }
+            if ( m instanceof MethodCall && 0 == ( m.getFlags() & Message.Flags.NO_REPLY_EXPECTED ) ) {
+                // the caller would only notice when its call times out
+                Connstruct caller = DBusDaemon.this.names.getOwner(m.getSource());
+                if ( null != caller ) {
+                    log.warn("Rejecting " + m + ", queue of " + getName() + " is full");
                     try {
-                        for ( WeakReference<Connstruct> wc : wcs ) {
-                            Connstruct connstruct = wc.get();
-                            if ( null != connstruct ) {
-                                if ( log.isTraceEnabled() ) {
-                                    log.trace("<localqueue> Got message " + msg + " from " + connstruct);
-                                }
-                                handleMessage(connstruct, msg);
-                            }
-                        }
+                        send(caller, new Error(
+                            "org.freedesktop.DBus",
+                            null,
+                            "org.freedesktop.DBus.Error.LimitsExceeded",
+                            m.getSerial(),
+                            "s",
+                            "The queue of the destination is full"));
+                        return false;
                     }
                     catch ( DBusException DBe ) {
                         log.warn(DBe);
                     }
                 }
-                else {
-                    log.info("Discarding " + msg + " connection reaped");
-                }
             }
+            return super.stalled(m);
         }
     }
 
-    public class Sender extends Thread {
+    /**
+     * Routes messages read from the connections assigned to its shard.
+     * 
+     * As each connection is always routed by the same shard messages from one sender keep their order.
+     */
+    public class Router extends Worker {
 
-        public Sender () {
-            setName("Sender");
+        public Router ( int shard ) {
+            super("Router-" + shard);
         }
 
 
         @Override
-        public void run () {
-            while ( DBusDaemon.this._run ) {
-
-                if ( log.isTraceEnabled() ) {
-                    log.trace("Acquiring lock on outqueue and blocking for data");
-                }
-                Message m = null;
-                List<WeakReference<Connstruct>> wcs = null;
-                // block on outqueue
-                synchronized ( DBusDaemon.this.outqueue ) {
-                    while ( DBusDaemon.this.outqueue.size() == 0 )
-                        try {
-                            DBusDaemon.this.outqueue.wait();
-                        }
-                        catch ( InterruptedException Ie ) {}
-
-                    m = DBusDaemon.this.outqueue.head();
-                    wcs = DBusDaemon.this.outqueue.remove(m);
-                }
-                if ( null != wcs ) {
-                    for ( WeakReference<Connstruct> wc : wcs ) {
-                        Connstruct c = wc.get();
-                        if ( null != c ) {
-                            if ( log.isTraceEnabled() ) {
-                                log.trace("<outqueue> Got message " + m + " for " + c.unique);
-                            }
-                            log.info("Sending message " + m + " to " + c.unique);
-                            try {
-                                c.mout.writeMessage(m);
-                            }
-                            catch ( IOException IOe ) {
-                                log.warn(IOe);
-                                removeConnection(c);
-                            }
-                        }
-                    }
-                }
-                else {
-                    log.info("Discarding " + m + " connection reaped");
-                }
+        void handle ( Message m, WeakReference<Connstruct> wc, Connstruct c ) {
+            try {
+                route(m, wc, c);
+            }
+            catch ( DBusException DBe ) {
+                log.warn(DBe);
             }
         }
     }
@@ -562,7 +631,7 @@ public class DBusDaemon extends Thread {
 
         public Reader ( Connstruct conn ) {
             this.conn = conn;
-            this.weakconn = new WeakReference<>(conn);
+            this.weakconn = conn.weak;
             setName("Reader");
         }
 
@@ -572,13 +641,25 @@ public class DBusDaemon extends Thread {
         }
 
 
+        /**
+         * Blocks for the next message, then keeps reading as long as further messages have been
+         * received completely so that all of them are handed to the router at once. The batch is
+         * handed over before any read which could block.
+         */
         @Override
         public void run () {
+            List<Message> batch = new ArrayList<>();
             while ( DBusDaemon.this._run && this._lrun ) {
 
-                Message m = null;
                 try {
-                    m = this.conn.min.readMessage();
+                    do {
+                        Message m = this.conn.min.readMessage();
+                        if ( null == m )
+                            break;
+                        log.info("Read " + m + " from " + this.conn.unique);
+                        batch.add(m);
+                    }
+                    while ( batch.size() < MAX_BATCH && this.conn.min.isMessageAvailable() );
                 }
                 catch ( IOException IOe ) {
                     log.warn(IOe);
@@ -590,12 +671,9 @@ public class DBusDaemon extends Thread {
                         removeConnection(this.conn);
                 }
 
-                if ( null != m ) {
-                    log.info("Read " + m + " from " + this.conn.unique);
-                    synchronized ( DBusDaemon.this.inqueue ) {
-                        DBusDaemon.this.inqueue.putLast(m, this.weakconn);
-                        DBusDaemon.this.inqueue.notifyAll();
-                    }
+                if ( !batch.isEmpty() ) {
+                    DBusDaemon.this.routers[ this.conn.shard ].offer(batch, this.weakconn);
+                    batch.clear();
                 }
             }
             this.conn = null;
@@ -603,32 +681,43 @@ public class DBusDaemon extends Thread {
     }
 
     private Map<Connstruct, Reader> conns = new HashMap<>();
-    HashMap<String, Connstruct> names = new HashMap<>();
-    MagicMap<Message, WeakReference<Connstruct>> outqueue = new MagicMap<>("out");
-    MagicMap<Message, WeakReference<Connstruct>> inqueue = new MagicMap<>("in");
-    MagicMap<Message, WeakReference<Connstruct>> localqueue = new MagicMap<>("local");
+    NameRegistry names = new NameRegistry();
     List<Connstruct> sigrecips = new Vector<>();
-    boolean _run = true;
+    volatile boolean _run = true;
     int next_unique = 0;
+    int next_shard = 0;
     Object unique_lock = new Object();
-    DBusServer dbus_server = new DBusServer();
-    Sender sender = new Sender();
+    final Router[] routers;
+    final DBusServer[] servers;
+    final Sender[] senders;
+    private MemoryTransport listener;
 
 
     public DBusDaemon () {
-        setName("Daemon");
-        synchronized ( this.names ) {
-            this.names.put("org.freedesktop.DBus", null);
-        }
+        this(Runtime.getRuntime().availableProcessors());
     }
 
 
-    void send ( Connstruct c, Message m ) {
-        send(c, m, false);
+    /**
+     * @param threads
+     *            number of routing, bus method and sending threads each
+     */
+    public DBusDaemon ( int threads ) {
+        setName("Daemon");
+        this.names.reserve("org.freedesktop.DBus");
+        int n = Math.max(1, threads);
+        this.routers = new Router[n];
+        this.servers = new DBusServer[n];
+        this.senders = new Sender[n];
+        for ( int i = 0; i < n; i++ ) {
+            this.routers[ i ] = new Router(i);
+            this.servers[ i ] = new DBusServer(i);
+            this.senders[ i ] = new Sender(i);
+        }
     }
 
 
-    void send ( Connstruct c, Message m, boolean head ) {
+    void send ( Connstruct c, Message m ) {
         if ( log.isTraceEnabled() ) {
 
             if ( null == c ) {
@@ -638,26 +727,57 @@ public class DBusDaemon extends Thread {
                 log.trace("Queing message " + m + " for " + c.unique);
             }
         }
-        // send to all connections
+        // send to all connections, queueing may wait so not while holding the lock
         if ( null == c ) {
+            List<Connstruct> all;
             synchronized ( this.conns ) {
-                synchronized ( this.outqueue ) {
-                    for ( Connstruct d : this.conns.keySet() )
-                        if ( head )
-                            this.outqueue.putFirst(m, new WeakReference<>(d));
-                        else
-                            this.outqueue.putLast(m, new WeakReference<>(d));
-                    this.outqueue.notifyAll();
-                }
+                all = new ArrayList<>(this.conns.keySet());
             }
+            for ( Connstruct d : all )
+                this.senders[ d.shard ].offer(m, d.weak);
         }
         else {
-            synchronized ( this.outqueue ) {
-                if ( head )
-                    this.outqueue.putFirst(m, new WeakReference<>(c));
-                else
-                    this.outqueue.putLast(m, new WeakReference<>(c));
-                this.outqueue.notifyAll();
+            this.senders[ c.shard ].offer(m, c.weak);
+        }
+    }
+
+
+    void sendNameChanges ( List<NameChange> changes ) {
+        sendNameChanges(changes, null);
+    }
+
+
+    void sendNameChanges ( List<NameChange> changes, Connstruct gone ) {
+        for ( NameChange change : changes ) {
+            try {
+                if ( null != change.oldOwner && gone != change.oldOwner )
+                    send(change.oldOwner, new DBusSignal(
+                        "org.freedesktop.DBus",
+                        "/org/freedesktop/DBus",
+                        "org.freedesktop.DBus",
+                        "NameLost",
+                        "s",
+                        change.name));
+                if ( null != change.newOwner )
+                    send(change.newOwner, new DBusSignal(
+                        "org.freedesktop.DBus",
+                        "/org/freedesktop/DBus",
+                        "org.freedesktop.DBus",
+                        "NameAcquired",
+                        "s",
+                        change.name));
+                send(null, new DBusSignal(
+                    "org.freedesktop.DBus",
+                    "/org/freedesktop/DBus",
+                    "org.freedesktop.DBus",
+                    "NameOwnerChanged",
+                    "sss",
+                    change.name,
+                    null == change.oldOwner ? "" : change.oldOwner.unique,
+                    null == change.newOwner ? "" : change.newOwner.unique));
+            }
+            catch ( DBusException DBe ) {
+                log.warn(DBe);
             }
         }
     }
@@ -672,94 +792,161 @@ public class DBusDaemon extends Thread {
     }
 
 
+    void route ( Message m, WeakReference<Connstruct> wc, Connstruct c ) throws DBusException {
+        log.info("<inqueue> Got message " + m + " from " + c.unique);
+        // check if they have hello'd
+        if ( null == c.unique
+                && ( ! ( m instanceof MethodCall ) || !"org.freedesktop.DBus".equals(m.getDestination()) || !"Hello".equals(m.getName()) ) ) {
+            send(c, new Error("org.freedesktop.DBus", null, "org.freedesktop.DBus.Error.AccessDenied", m.getSerial(), "s", "You must send a Hello message"));
+            return;
+        }
+
+        try {
+            if ( null != c.unique )
+                m.setSource(c.unique);
+        }
+        catch ( DBusException DBe ) {
+            log.warn(DBe);
+            send(c, new Error("org.freedesktop.DBus", null, "org.freedesktop.DBus.Error.GeneralError", m.getSerial(), "s", "Sending message failed"));
+        }
+
+        if ( "org.freedesktop.DBus".equals(m.getDestination()) ) {
+            this.servers[ c.shard ].offer(m, wc);
+        }
+        else if ( m instanceof DBusSignal ) {
+            List<Connstruct> list = findSignalMatches((DBusSignal) m);
+            for ( Connstruct d : list )
+                send(d, m);
+        }
+        else {
+            Connstruct dest = this.names.getOwner(m.getDestination());
+
+            if ( null == dest ) {
+                send(c, new Error(
+                    "org.freedesktop.DBus",
+                    null,
+                    "org.freedesktop.DBus.Error.ServiceUnknown",
+                    m.getSerial(),
+                    "s",
+                    String.format("The name `%s' does not exist", m.getDestination())));
+            }
+            else
+                send(dest, m);
+        }
+    }
+
+
+    /**
+     * Starts the routing, bus method and sending threads and waits for the daemon to be stopped
+     */
     @Override
     public void run () {
-        while ( this._run ) {
-            try {
-                Message m;
-                List<WeakReference<Connstruct>> wcs;
-                synchronized ( this.inqueue ) {
-                    while ( 0 == this.inqueue.size() )
-                        try {
-                            this.inqueue.wait();
-                        }
-                        catch ( InterruptedException Ie ) {}
-
-                    m = this.inqueue.head();
-                    wcs = this.inqueue.remove(m);
-                }
-                if ( null != wcs ) {
-                    for ( WeakReference<Connstruct> wc : wcs ) {
-                        Connstruct c = wc.get();
-                        if ( null != c ) {
-                            log.info("<inqueue> Got message " + m + " from " + c.unique);
-                            // check if they have hello'd
-                            if ( null == c.unique
-                                    && ( ! ( m instanceof MethodCall ) || !"org.freedesktop.DBus".equals(m.getDestination()) || !"Hello".equals(m
-                                            .getName()) ) ) {
-                                send(c, new Error(
-                                    "org.freedesktop.DBus",
-                                    null,
-                                    "org.freedesktop.DBus.Error.AccessDenied",
-                                    m.getSerial(),
-                                    "s",
-                                    "You must send a Hello message"));
-                            }
-                            else {
-                                try {
-                                    if ( null != c.unique )
-                                        m.setSource(c.unique);
-                                }
-                                catch ( DBusException DBe ) {
-                                    log.warn(DBe);
-                                    send(c, new Error(
-                                        "org.freedesktop.DBus",
-                                        null,
-                                        "org.freedesktop.DBus.Error.GeneralError",
-                                        m.getSerial(),
-                                        "s",
-                                        "Sending message failed"));
-                                }
-
-                                if ( "org.freedesktop.DBus".equals(m.getDestination()) ) {
-                                    synchronized ( this.localqueue ) {
-                                        this.localqueue.putLast(m, wc);
-                                        this.localqueue.notifyAll();
-                                    }
-                                }
-                                else {
-                                    if ( m instanceof DBusSignal ) {
-                                        List<Connstruct> list = findSignalMatches((DBusSignal) m);
-                                        for ( Connstruct d : list )
-                                            send(d, m);
-                                    }
-                                    else {
-                                        Connstruct dest = this.names.get(m.getDestination());
-
-                                        if ( null == dest ) {
-                                            send(
-                                                c,
-                                                new Error(
-                                                    "org.freedesktop.DBus",
-                                                    null,
-                                                    "org.freedesktop.DBus.Error.ServiceUnknown",
-                                                    m.getSerial(),
-                                                    "s",
-                                                    String.format("The name `%s' does not exist", m.getDestination())));
-                                        }
-                                        else
-                                            send(dest, m);
-                                    }
-                                }
-                            }
-                        }
-                    }
+        for ( int i = 0; i < this.routers.length; i++ ) {
+            this.senders[ i ].start();
+            this.servers[ i ].start();
+            this.routers[ i ].start();
+        }
+
+        synchronized ( this ) {
+            while ( this._run ) {
+                try {
+                    this.wait();
                 }
+                catch ( InterruptedException Ie ) {}
             }
-            catch ( DBusException DBe ) {
-                log.warn(DBe);
+        }
+
+        for ( int i = 0; i < this.routers.length; i++ ) {
+            LockSupport.unpark(this.routers[ i ]);
+            LockSupport.unpark(this.servers[ i ]);
+            LockSupport.unpark(this.senders[ i ]);
+        }
+    }
+
+
+    /**
+     * Stop the daemon threads
+     */
+    public void stopRunning () {
+        synchronized ( this ) {
+            this._run = false;
+            this.notifyAll();
+        }
+        if ( null != this.listener )
+            this.listener.close();
+
+        // let the senders flush what they have buffered
+        for ( Sender s : this.senders ) {
+            if ( s == Thread.currentThread() )
+                continue;
+            LockSupport.unpark(s);
+            try {
+                s.join(QUEUE_POLL_WAIT);
             }
+            catch ( InterruptedException Ie ) {}
+        }
+
+        // drop the clients so they notice the daemon is gone
+        List<Connstruct> open;
+        synchronized ( this.conns ) {
+            open = new ArrayList<>(this.conns.keySet());
+        }
+        for ( Connstruct c : open )
+            c.close();
+    }
+
+
+    /**
+     * Start a daemon in this JVM which accepts connections on an in-memory address.
+     * 
+     * Connections to memory:name=<name> from the same JVM, e.g. via DBusConnection.getConnection,
+     * exchange messages with the daemon without any socket I/O or authentication. All threads of the
+     * daemon are daemon threads, call stopRunning() to shut it down.
+     * 
+     * @param name
+     * @param threads
+     *            number of routing, bus method and sending threads each
+     * @return the running daemon
+     * @throws IOException
+     *             if the name is already in use
+     */
+    public static DBusDaemon startEmbedded ( String name, int threads ) throws IOException {
+        final DBusDaemon d = new DBusDaemon(threads);
+        d.listener = MemoryTransport.listen(name);
+        d.setDaemon(true);
+        for ( int i = 0; i < d.routers.length; i++ ) {
+            d.routers[ i ].setDaemon(true);
+            d.servers[ i ].setDaemon(true);
+            d.senders[ i ].setDaemon(true);
         }
+        d.start();
+
+        // accept new connections
+        Thread acceptor = new Thread("Acceptor") {
+
+            @Override
+            public void run () {
+                while ( d._run ) {
+                    MemoryTransport.Endpoint e;
+                    try {
+                        e = d.listener.accept();
+                    }
+                    catch ( IOException IOe ) {
+                        log.info(IOe);
+                        break;
+                    }
+                    d.addConnection(new Connstruct(e.min, e.mout));
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return d;
+    }
+
+
+    public static DBusDaemon startEmbedded ( String name ) throws IOException {
+        return startEmbedded(name, Runtime.getRuntime().availableProcessors());
     }
 
 
@@ -774,41 +961,20 @@ public class DBusDaemon extends Thread {
             }
         }
         if ( exists ) {
-            try {
-                if ( null != c.sock )
-                    c.sock.close();
-            }
-            catch ( IOException IOe ) {}
-            synchronized ( this.names ) {
-                List<String> toRemove = new Vector<>();
-                for ( String name : this.names.keySet() )
-                    if ( this.names.get(name) == c ) {
-                        toRemove.add(name);
-                        try {
-                            send(null, new DBusSignal(
-                                "org.freedesktop.DBus",
-                                "/org/freedesktop/DBus",
-                                "org.freedesktop.DBus",
-                                "NameOwnerChanged",
-                                "sss",
-                                name,
-                                c.unique,
-                                ""));
-                        }
-                        catch ( DBusException DBe ) {
-                            log.warn(DBe);
-                        }
-                    }
-                for ( String name : toRemove )
-                    this.names.remove(name);
-            }
+            c.close();
+            sendNameChanges(this.names.removeConnection(c), c);
         }
     }
 
 
     public void addSock ( Socket s ) throws IOException {
+        addConnection(new Connstruct(s));
+    }
+
+
+    void addConnection ( Connstruct c ) {
         log.info("New Client");
-        Connstruct c = new Connstruct(s);
+        c.shard = this.next_shard++ % this.routers.length;
         Reader r = new Reader(c);
         synchronized ( this.conns ) {
             this.conns.put(c, r);
@@ -819,7 +985,7 @@ public class DBusDaemon extends Thread {
 
     public static void syntax () {
         System.out
-                .println("Syntax: DBusDaemon [--version] [-v] [--help] [-h] [--listen address] [-l address] [--print-address] [-r] [--pidfile file] [-p file] [--addressfile file] [-a file] [--unix] [-u] [--tcp] [-t] ");
+                .println("Syntax: DBusDaemon [--version] [-v] [--help] [-h] [--listen address] [-l address] [--print-address] [-r] [--pidfile file] [-p file] [--addressfile file] [-a file] [--unix] [-u] [--tcp] [-t] [--threads n] [-n n] ");
         System.exit(1);
     }
 
@@ -844,6 +1010,7 @@ public class DBusDaemon extends Thread {
         boolean printaddress = false;
         boolean unix = true;
         boolean tcp = false;
+        int threads = Runtime.getRuntime().availableProcessors();
 
         // parse options
         try {
@@ -868,10 +1035,12 @@ public class DBusDaemon extends Thread {
                     tcp = true;
                     unix = false;
                 }
+                else if ( "--threads".equals(args[ i ]) || "-n".equals(args[ i ]) )
+                    threads = Integer.parseInt(args[ ++i ]);
                 else
                     syntax();
         }
-        catch ( ArrayIndexOutOfBoundsException AIOOBe ) {
+        catch ( ArrayIndexOutOfBoundsException | NumberFormatException e ) {
             syntax();
         }
 
@@ -902,15 +1071,15 @@ public class DBusDaemon extends Thread {
         // start the daemon
         log.info("Binding to " + addr);
         if ( "unix".equals(address.getType()) )
-            doUnix(address);
+            doUnix(address, threads);
         else if ( "tcp".equals(address.getType()) )
-            doTCP(address);
+            doTCP(address, threads);
         else
             throw new Exception("Unknown address type: " + address.getType());
     }
 
 
-    private static void doUnix ( BusAddress address ) throws IOException {
+    private static void doUnix ( BusAddress address, int threads ) throws IOException {
         try ( AFUNIXServerSocket uss = AFUNIXServerSocket.newInstance() ) {
             File sockFile = null;
             if ( null != address.getParameter("abstract") )
@@ -919,10 +1088,8 @@ public class DBusDaemon extends Thread {
                 sockFile = new File(address.getParameter("path"));
             uss.bind(new AFUNIXSocketAddress(sockFile));
 
-            DBusDaemon d = new DBusDaemon();
+            DBusDaemon d = new DBusDaemon(threads);
             d.start();
-            d.sender.start();
-            d.dbus_server.start();
 
             // accept new connections
             while ( d._run ) {
@@ -946,13 +1113,11 @@ public class DBusDaemon extends Thread {
     }
 
 
-    private static void doTCP ( BusAddress address ) throws IOException {
+    private static void doTCP ( BusAddress address, int threads ) throws IOException {
         try ( ServerSocket ss = new ServerSocket(Integer.parseInt(address.getParameter("port")), 10, InetAddress.getByName(address
                 .getParameter("host"))) ) {
-            DBusDaemon d = new DBusDaemon();
+            DBusDaemon d = new DBusDaemon(threads);
             d.start();
-            d.sender.start();
-            d.dbus_server.start();
 
             // accept new connections
             while ( d._run ) {
@@ -960,6 +1125,7 @@ public class DBusDaemon extends Thread {
                 Socket s = ss.accept();
                 boolean authOK = false;
                 try {
+                    Transport.setSocketOptions(s, address);
                     authOK = ( new Transport.SASL() ).auth(
                         Transport.SASL.MODE_SERVER,
                         Transport.SASL.AUTH_EXTERNAL,
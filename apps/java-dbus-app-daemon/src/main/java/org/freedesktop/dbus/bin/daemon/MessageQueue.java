@@ -0,0 +1,118 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus.bin.daemon;
+
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.freedesktop.dbus.Message;
+import org.freedesktop.dbus.bin.daemon.DBusDaemon.Connstruct;
+
+
+/**
+ * Bounded multi producer, single consumer queue of (message, connection) entries.
+ *
+ * Entries are stored in preallocated ring arrays, the slots are reused once the consumer has
+ * removed them so queueing a message does not allocate. Each slot carries a sequence number: a
+ * producer claims a slot by advancing the tail and publishes it by bumping the sequence, the
+ * consumer releases it for the next round by bumping the sequence again. No locks are taken.
+ *
+ * head(), headConnection() and remove() must only be called from the consuming thread.
+ */
+final class MessageQueue {
+
+    private final int mask;
+    private final Message[] messages;
+    private final Object[] conns;
+    private final AtomicLongArray sequence;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+
+    /**
+     * @param capacity
+     *            rounded up to a power of two
+     */
+    MessageQueue ( int capacity ) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.messages = new Message[size];
+        this.conns = new Object[size];
+        this.sequence = new AtomicLongArray(size);
+        for ( int i = 0; i < size; i++ )
+            this.sequence.set(i, i);
+    }
+
+
+    /**
+     * Add an entry, may be called from any thread.
+     *
+     * @param m
+     * @param c
+     * @return false if the queue is full
+     */
+    boolean offer ( Message m, WeakReference<Connstruct> c ) {
+        while ( true ) {
+            long t = this.tail.get();
+            int i = (int) t & this.mask;
+            long seq = this.sequence.get(i);
+            if ( seq == t ) {
+                if ( this.tail.compareAndSet(t, t + 1) ) {
+                    this.messages[ i ] = m;
+                    this.conns[ i ] = c;
+                    this.sequence.set(i, t + 1);
+                    return true;
+                }
+            }
+            else if ( seq < t )
+                return false;
+        }
+    }
+
+
+    /**
+     * @return the message at the head of the queue or null if there is none
+     */
+    Message head () {
+        int i = (int) this.head & this.mask;
+        if ( this.sequence.get(i) != this.head + 1 )
+            return null;
+        return this.messages[ i ];
+    }
+
+
+    /**
+     * @return the connection of the head entry, only valid after head() returned a message
+     */
+    @SuppressWarnings ( "unchecked" )
+    WeakReference<Connstruct> headConnection () {
+        return (WeakReference<Connstruct>) this.conns[ (int) this.head & this.mask ];
+    }
+
+
+    /**
+     * Remove the head entry, only valid after head() returned a message
+     */
+    void remove () {
+        int i = (int) this.head & this.mask;
+        this.messages[ i ] = null;
+        this.conns[ i ] = null;
+        this.sequence.set(i, this.head + this.mask + 1);
+        this.head++;
+    }
+
+
+    boolean isEmpty () {
+        return this.sequence.get((int) this.head & this.mask) != this.head + 1;
+    }
+}
@@ -0,0 +1,302 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus.bin.daemon;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.freedesktop.dbus.DBus;
+import org.freedesktop.dbus.bin.daemon.DBusDaemon.Connstruct;
+
+
+/**
+ * Keeps track of bus name ownership in the daemon.
+ *
+ * Primary owners are kept in a concurrent map so that the routing path can resolve a destination
+ * without taking a lock. Modifications (which are rare compared to lookups) are serialized on the
+ * registry and maintain a queue of owners per name as well as a reverse index from connection to
+ * the names it owns or waits for, so that dropping a connection only touches its own names.
+ */
+class NameRegistry {
+
+    /**
+     * Describes an ownership change of a name, either owner may be null.
+     */
+    static final class NameChange {
+
+        final String name;
+        final Connstruct oldOwner;
+        final Connstruct newOwner;
+
+
+        NameChange ( String name, Connstruct oldOwner, Connstruct newOwner ) {
+            this.name = name;
+            this.oldOwner = oldOwner;
+            this.newOwner = newOwner;
+        }
+    }
+
+    private static final class Owner {
+
+        final Connstruct conn;
+        int flags;
+
+
+        Owner ( Connstruct conn, int flags ) {
+            this.conn = conn;
+            this.flags = flags;
+        }
+    }
+
+    private final ConcurrentMap<String, Connstruct> primary = new ConcurrentHashMap<>();
+    private final Map<String, LinkedList<Owner>> queues = new HashMap<>();
+    private final ConcurrentMap<Connstruct, Set<String>> byConnection = new ConcurrentHashMap<>();
+    private final Set<String> reserved = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+
+    /**
+     * Reserve a name which is owned by the bus itself.
+     *
+     * @param name
+     */
+    void reserve ( String name ) {
+        this.reserved.add(name);
+    }
+
+
+    /**
+     * Lock free lookup of the primary owner
+     *
+     * @param name
+     * @return the primary owner of the name, null if unowned or owned by the bus
+     */
+    Connstruct getOwner ( String name ) {
+        if ( null == name )
+            return null;
+        return this.primary.get(name);
+    }
+
+
+    boolean hasOwner ( String name ) {
+        return this.reserved.contains(name) || this.primary.containsKey(name);
+    }
+
+
+    String[] listNames () {
+        List<String> names = new ArrayList<>(this.reserved);
+        names.addAll(this.primary.keySet());
+        return names.toArray(new String[names.size()]);
+    }
+
+
+    synchronized String[] listQueuedOwners ( String name ) {
+        LinkedList<Owner> q = this.queues.get(name);
+        if ( null == q )
+            return new String[0];
+        String[] rv = new String[q.size()];
+        int i = 0;
+        for ( Owner o : q )
+            rv[ i++ ] = o.conn.unique;
+        return rv;
+    }
+
+
+    /**
+     * Names owned or queued for by this connection
+     *
+     * @param c
+     * @return snapshot of names
+     */
+    Set<String> getNames ( Connstruct c ) {
+        Set<String> names = this.byConnection.get(c);
+        if ( null == names )
+            return Collections.emptySet();
+        synchronized ( names ) {
+            return new HashSet<>(names);
+        }
+    }
+
+
+    /**
+     * Request ownership of a name
+     *
+     * @param name
+     * @param c
+     * @param flags
+     *            DBUS_NAME_FLAG_*
+     * @param changes
+     *            ownership changes caused by this request are appended to this list
+     * @return a DBUS_REQUEST_NAME_REPLY_* code
+     */
+    synchronized int requestName ( String name, Connstruct c, int flags, List<NameChange> changes ) {
+        if ( this.reserved.contains(name) )
+            return DBus.DBUS_REQUEST_NAME_REPLY_EXISTS;
+
+        LinkedList<Owner> q = this.queues.get(name);
+        if ( null == q ) {
+            q = new LinkedList<>();
+            q.add(new Owner(c, flags));
+            this.queues.put(name, q);
+            index(c, name);
+            this.primary.put(name, c);
+            changes.add(new NameChange(name, null, c));
+            return DBus.DBUS_REQUEST_NAME_REPLY_PRIMARY_OWNER;
+        }
+
+        Owner current = q.getFirst();
+        if ( current.conn == c ) {
+            current.flags = flags;
+            return DBus.DBUS_REQUEST_NAME_REPLY_ALREADY_OWNER;
+        }
+
+        Owner queued = find(q, c);
+        if ( 0 != ( flags & DBus.DBUS_NAME_FLAG_REPLACE_EXISTING ) && 0 != ( current.flags & DBus.DBUS_NAME_FLAG_ALLOW_REPLACEMENT ) ) {
+            q.removeFirst();
+            if ( null != queued )
+                q.remove(queued);
+            if ( 0 != ( current.flags & DBus.DBUS_NAME_FLAG_DO_NOT_QUEUE ) )
+                unindex(current.conn, name);
+            else
+                q.addFirst(current);
+            q.addFirst(new Owner(c, flags));
+            index(c, name);
+            this.primary.put(name, c);
+            changes.add(new NameChange(name, current.conn, c));
+            return DBus.DBUS_REQUEST_NAME_REPLY_PRIMARY_OWNER;
+        }
+
+        if ( 0 != ( flags & DBus.DBUS_NAME_FLAG_DO_NOT_QUEUE ) ) {
+            if ( null != queued ) {
+                q.remove(queued);
+                unindex(c, name);
+            }
+            return DBus.DBUS_REQUEST_NAME_REPLY_EXISTS;
+        }
+
+        if ( null != queued )
+            queued.flags = flags;
+        else {
+            q.addLast(new Owner(c, flags));
+            index(c, name);
+        }
+        return DBus.DBUS_REQUEST_NAME_REPLY_IN_QUEUE;
+    }
+
+
+    /**
+     * Release a name or drop out of its queue
+     *
+     * @param name
+     * @param c
+     * @param changes
+     *            ownership changes caused by this request are appended to this list
+     * @return a DBUS_RELEASE_NAME_REPLY_* code
+     */
+    synchronized int releaseName ( String name, Connstruct c, List<NameChange> changes ) {
+        LinkedList<Owner> q = this.queues.get(name);
+        if ( null == q )
+            return DBus.DBUS_RELEASE_NAME_REPLY_NON_EXISTANT;
+        Owner o = find(q, c);
+        if ( null == o )
+            return DBus.DBUS_RELEASE_NAME_REPLY_NOT_OWNER;
+        unindex(c, name);
+        drop(name, q, o, changes);
+        return DBus.DBUS_RELEASE_NAME_REPLY_RELEASED;
+    }
+
+
+    /**
+     * Drop all names owned or queued for by a connection
+     *
+     * @param c
+     * @return the resulting ownership changes
+     */
+    synchronized List<NameChange> removeConnection ( Connstruct c ) {
+        Set<String> names = this.byConnection.remove(c);
+        if ( null == names )
+            return Collections.emptyList();
+        List<NameChange> changes = new ArrayList<>();
+        synchronized ( names ) {
+            for ( String name : names ) {
+                LinkedList<Owner> q = this.queues.get(name);
+                if ( null == q )
+                    continue;
+                Owner o = find(q, c);
+                if ( null != o )
+                    drop(name, q, o, changes);
+            }
+        }
+        return changes;
+    }
+
+
+    private void drop ( String name, LinkedList<Owner> q, Owner o, List<NameChange> changes ) {
+        boolean wasPrimary = q.getFirst() == o;
+        q.remove(o);
+        if ( !wasPrimary )
+            return;
+
+        if ( q.isEmpty() ) {
+            this.queues.remove(name);
+            this.primary.remove(name);
+            changes.add(new NameChange(name, o.conn, null));
+        }
+        else {
+            Connstruct next = q.getFirst().conn;
+            this.primary.put(name, next);
+            changes.add(new NameChange(name, o.conn, next));
+        }
+    }
+
+
+    private static Owner find ( LinkedList<Owner> q, Connstruct c ) {
+        Iterator<Owner> it = q.iterator();
+        while ( it.hasNext() ) {
+            Owner o = it.next();
+            if ( o.conn == c )
+                return o;
+        }
+        return null;
+    }
+
+
+    private void index ( Connstruct c, String name ) {
+        Set<String> names = this.byConnection.get(c);
+        if ( null == names ) {
+            names = new LinkedHashSet<>();
+            this.byConnection.put(c, names);
+        }
+        synchronized ( names ) {
+            names.add(name);
+        }
+    }
+
+
+    private void unindex ( Connstruct c, String name ) {
+        Set<String> names = this.byConnection.get(c);
+        if ( null == names )
+            return;
+        synchronized ( names ) {
+            names.remove(name);
+        }
+    }
+}
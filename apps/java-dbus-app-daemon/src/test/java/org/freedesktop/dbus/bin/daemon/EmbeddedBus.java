@@ -0,0 +1,157 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus.bin.daemon;
+
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+
+/**
+ * An embedded daemon with a server and a client connection, for tests.
+ *
+ * Both are opened with DBusConnection.newConnection, since getConnection hands out one shared connection per
+ * address and that would answer calls to its own objects without going through the daemon.
+ */
+public class EmbeddedBus {
+
+    /**
+     * Something a test waits for
+     */
+    public interface Condition {
+
+        public boolean holds () throws Exception;
+    }
+
+    public interface Marker extends DBusInterface {
+
+        public class Sync extends DBusSignal {
+
+            public Sync ( String path ) throws DBusException {
+                super(path);
+            }
+        }
+    }
+
+    /** How long await waits before giving up in ms */
+    public static final long TIMEOUT = 10000;
+    private static final long POLL = 10;
+
+    private final String name;
+    private final AtomicInteger syncs = new AtomicInteger();
+    private volatile DBusDaemon daemon;
+    final DBusConnection server;
+    final DBusConnection client;
+
+
+    /**
+     * Start the daemon and connect the server and the client
+     *
+     * @param name
+     *            name of the in-memory address
+     * @throws IOException
+     *             if the name is in use
+     * @throws DBusException
+     */
+    public EmbeddedBus ( String name ) throws IOException, DBusException {
+        this.name = name;
+        this.daemon = DBusDaemon.startEmbedded(name);
+        this.server = DBusConnection.newConnection(getAddress());
+        this.client = DBusConnection.newConnection(getAddress());
+    }
+
+
+    public String getAddress () {
+        return "memory:name=" + this.name;
+    }
+
+
+    public DBusDaemon getDaemon () {
+        return this.daemon;
+    }
+
+
+    /**
+     * Start a new daemon on the same address after the previous one stopped
+     *
+     * @throws IOException
+     */
+    public void restart () throws IOException {
+        this.daemon = DBusDaemon.startEmbedded(this.name);
+    }
+
+
+    /**
+     * Wait until the signals the server sent so far have been handed to the handlers of the client.
+     *
+     * The client runs its handlers on several threads, so one of those may still be running.
+     *
+     * @throws Exception
+     *             if the marker signal does not arrive
+     */
+    public void sync () throws Exception {
+        final String path = "/org/freedesktop/dbus/test/sync/s" + this.syncs.incrementAndGet();
+        final CountDownLatch seen = new CountDownLatch(1);
+        DBusSigHandler<Marker.Sync> h = new DBusSigHandler<Marker.Sync>() {
+
+            @Override
+            public void handle ( Marker.Sync s ) {
+                if ( path.equals(s.getPath()) )
+                    seen.countDown();
+            }
+        };
+        this.client.addSigHandler(Marker.Sync.class, h);
+        try {
+            this.server.sendSignal(new Marker.Sync(path));
+            if ( !seen.await(TIMEOUT, TimeUnit.MILLISECONDS) )
+                throw new AssertionError("Marker signal " + path + " did not arrive");
+        }
+        finally {
+            this.client.removeSigHandler(Marker.Sync.class, h);
+        }
+    }
+
+
+    /**
+     * Wait for a condition to hold
+     *
+     * @param c
+     * @return whether it held within TIMEOUT
+     * @throws Exception
+     */
+    public static boolean await ( Condition c ) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while ( !c.holds() ) {
+            if ( System.currentTimeMillis() > deadline )
+                return false;
+            Thread.sleep(POLL);
+        }
+        return true;
+    }
+
+
+    /**
+     * Disconnect both connections and stop the daemon
+     */
+    public void close () {
+        this.client.disconnect();
+        this.server.disconnect();
+        this.daemon.stopRunning();
+    }
+}
@@ -0,0 +1,239 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus.bin.daemon;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.freedesktop.dbus.DBus;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class TestEmbeddedDaemon {
+
+    public interface Echo extends DBusInterface {
+
+        public String echo ( String s );
+
+        public class Ping extends DBusSignal {
+
+            public final String value;
+
+
+            public Ping ( String path, String value ) throws DBusException {
+                super(path, value);
+                this.value = value;
+            }
+        }
+    }
+
+    public interface Relay extends DBusInterface {
+
+        /**
+         * Pass the string on to an echo of the caller
+         */
+        public String relay ( String path, String s );
+    }
+
+    static class EchoImpl implements Echo {
+
+        @Override
+        public boolean isRemote () {
+            return false;
+        }
+
+
+        @Override
+        public String echo ( String s ) {
+            return "echo:" + s;
+        }
+    }
+
+    class RelayImpl implements Relay {
+
+        @Override
+        public boolean isRemote () {
+            return false;
+        }
+
+
+        @Override
+        public String relay ( String path, String s ) {
+            DBusConnection c = TestEmbeddedDaemon.this.server;
+            try {
+                return c.getRemoteObject(DBusConnection.getCallInfo().getSource(), path, Echo.class).echo(s);
+            }
+            catch ( DBusException DBe ) {
+                throw new DBusExecutionException(DBe.getMessage());
+            }
+        }
+    }
+
+    private EmbeddedBus bus;
+    private DBusDaemon daemon;
+    private DBusConnection server;
+    private DBusConnection client;
+
+
+    @Before
+    public void setUp () throws Exception {
+        this.bus = new EmbeddedBus("test-embedded");
+        this.daemon = this.bus.getDaemon();
+        this.server = this.bus.server;
+        this.client = this.bus.client;
+    }
+
+
+    @After
+    public void tearDown () {
+        this.bus.close();
+    }
+
+
+    @Test
+    public void callTest () throws Exception {
+        this.server.requestBusName("org.freedesktop.dbus.test.embedded");
+        this.server.exportObject("/a/b", new EchoImpl());
+
+        DBus bus = this.client.getRemoteObject("org.freedesktop.DBus", "/org/freedesktop/DBus", DBus.class);
+        List<String> names = Arrays.asList(bus.ListNames());
+        assertTrue(names.contains("org.freedesktop.dbus.test.embedded"));
+        assertTrue(names.contains(this.server.getUniqueName()));
+        assertTrue(names.contains(this.client.getUniqueName()));
+        assertEquals(this.server.getUniqueName(), bus.GetNameOwner("org.freedesktop.dbus.test.embedded"));
+
+        Echo e = this.client.getRemoteObject("org.freedesktop.dbus.test.embedded", "/a/b", Echo.class);
+        for ( int i = 0; i < 100; i++ )
+            assertEquals("echo:" + i, e.echo("" + i));
+
+        String intro = this.client.getRemoteObject("org.freedesktop.dbus.test.embedded", "/a", DBus.Introspectable.class).Introspect();
+        assertTrue(intro.contains("<node name=\"b\"/>"));
+    }
+
+
+    @Test
+    public void dynamicProxyTest () throws Exception {
+        this.server.requestBusName("org.freedesktop.dbus.test.embedded");
+        this.server.exportObject("/a/b", new EchoImpl());
+
+        DBusInterface remote = this.client.getRemoteObject("org.freedesktop.dbus.test.embedded", "/a/b");
+        assertTrue(remote instanceof Echo);
+        assertTrue(remote instanceof DBus.Introspectable);
+        assertEquals("echo:x", ( (Echo) remote ).echo("x"));
+        // the proxy in use is handed out again
+        assertSame(remote, this.client.getRemoteObject("org.freedesktop.dbus.test.embedded", "/a/b"));
+    }
+
+
+    @Test
+    public void signalTest () throws Exception {
+        final Set<String> values = Collections.synchronizedSet(new HashSet<String>());
+        final CountDownLatch received = new CountDownLatch(100);
+        this.client.addSigHandler(Echo.Ping.class, new DBusSigHandler<Echo.Ping>() {
+
+            @Override
+            public void handle ( Echo.Ping p ) {
+                if ( values.add(p.value) )
+                    received.countDown();
+            }
+        });
+        for ( int i = 0; i < 100; i++ )
+            this.server.sendSignal(new Echo.Ping("/a/b", "" + i));
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+        for ( int i = 0; i < 100; i++ )
+            assertTrue(values.contains("" + i));
+    }
+
+
+    @Test
+    public void nestedCallTest () throws Exception {
+        this.server.exportObject("/relay", new RelayImpl());
+        this.client.exportObject("/echo", new EchoImpl());
+        final Relay relay = this.client.getRemoteObject(this.server.getUniqueName(), "/relay", Relay.class);
+
+        // more calls than a connection dispatches at a time by default, each waiting for the other connection
+        int calls = 4 * Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+        ExecutorService callers = Executors.newFixedThreadPool(calls);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for ( int i = 0; i < calls; i++ ) {
+                final String s = "" + i;
+                results.add(callers.submit(new Callable<String>() {
+
+                    @Override
+                    public String call () {
+                        return relay.relay("/echo", s);
+                    }
+                }));
+            }
+            // well below the call timeout
+            for ( int i = 0; i < calls; i++ )
+                assertEquals("echo:" + i, results.get(i).get(5, TimeUnit.SECONDS));
+        }
+        finally {
+            callers.shutdown();
+        }
+    }
+
+
+    @Test
+    public void stopTest () throws Exception {
+        this.server.exportObject("/a/b", new EchoImpl());
+        Echo e = this.client.getRemoteObject(this.server.getUniqueName(), "/a/b", Echo.class);
+        assertEquals("echo:x", e.echo("x"));
+
+        this.daemon.stopRunning();
+        try {
+            e.echo("y");
+            fail("Call succeeded after the daemon stopped");
+        }
+        catch ( DBusExecutionException DBEe ) {}
+
+        // the name can be used again once the daemon stopped
+        try {
+            DBusDaemon.startEmbedded("test-embedded").stopRunning();
+        }
+        catch ( IOException IOe ) {
+            fail("Address still in use: " + IOe);
+        }
+    }
+
+
+    @Test ( expected = IOException.class )
+    public void nameInUseTest () throws Exception {
+        DBusDaemon.startEmbedded("test-embedded");
+    }
+}
@@ -0,0 +1,146 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus.bin.daemon;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.Message;
+import org.freedesktop.dbus.bin.daemon.DBusDaemon.Connstruct;
+import org.junit.Test;
+
+
+public class TestMessageQueue {
+
+    private static Message[] messages ( int n ) throws Exception {
+        Message[] m = new Message[n];
+        for ( int i = 0; i < n; i++ )
+            m[ i ] = new DBusSignal(null, "/m" + i, "org.foo", "Foo", null);
+        return m;
+    }
+
+
+    @Test
+    public void capacityTest () throws Exception {
+        Message[] m = messages(8);
+        // rounded up to a power of two
+        MessageQueue q = new MessageQueue(3);
+        assertTrue(q.isEmpty());
+        assertNull(q.head());
+        for ( int i = 0; i < 4; i++ )
+            assertTrue(q.offer(m[ i ], null));
+        assertFalse(q.offer(m[ 4 ], null));
+
+        assertSame(m[ 0 ], q.head());
+        q.remove();
+        // the released slot can be claimed again
+        assertTrue(q.offer(m[ 4 ], null));
+        assertFalse(q.offer(m[ 5 ], null));
+        for ( int i = 1; i < 5; i++ ) {
+            assertSame(m[ i ], q.head());
+            q.remove();
+        }
+        assertTrue(q.isEmpty());
+        assertNull(q.head());
+    }
+
+
+    @Test
+    public void wraparoundTest () throws Exception {
+        Message[] m = messages(7);
+        WeakReference<Connstruct> c = new WeakReference<>(null);
+        MessageQueue q = new MessageQueue(4);
+        int in = 0;
+        int out = 0;
+        // go around the ring many times, with the queue filled to different levels
+        for ( int round = 0; round < 1000; round++ ) {
+            int fill = round % 5;
+            for ( int i = 0; i < fill && in - out < 4; i++ ) {
+                assertTrue(q.offer(m[ in % m.length ], 0 == in % 2 ? c : null));
+                in++;
+            }
+            if ( 4 == in - out )
+                assertFalse(q.offer(m[ 0 ], null));
+            int drain = ( round * 7 ) % 5;
+            for ( int i = 0; i < drain && out < in; i++ ) {
+                assertSame(m[ out % m.length ], q.head());
+                assertSame(0 == out % 2 ? c : null, q.headConnection());
+                q.remove();
+                out++;
+            }
+        }
+        while ( out < in ) {
+            assertSame(m[ out % m.length ], q.head());
+            q.remove();
+            out++;
+        }
+        assertTrue(q.isEmpty());
+    }
+
+
+    @Test
+    public void producersTest () throws Exception {
+        final int producers = 4;
+        final int count = 20000;
+        final Message[][] m = new Message[producers][];
+        Map<Message, Integer> owner = new IdentityHashMap<>();
+        for ( int p = 0; p < producers; p++ ) {
+            m[ p ] = messages(count);
+            for ( Message x : m[ p ] )
+                owner.put(x, p);
+        }
+
+        final MessageQueue q = new MessageQueue(64);
+        Thread[] threads = new Thread[producers];
+        for ( int p = 0; p < producers; p++ ) {
+            final int id = p;
+            threads[ p ] = new Thread() {
+
+                @Override
+                public void run () {
+                    for ( Message x : m[ id ] )
+                        while ( !q.offer(x, null) )
+                            Thread.yield();
+                }
+            };
+            threads[ p ].start();
+        }
+
+        // each producer's messages come out in the order it queued them
+        int[] next = new int[producers];
+        for ( int received = 0; received < producers * count; ) {
+            Message x = q.head();
+            if ( null == x ) {
+                Thread.yield();
+                continue;
+            }
+            int p = owner.get(x);
+            assertSame(m[ p ][ next[ p ] ], x);
+            next[ p ]++;
+            q.remove();
+            received++;
+        }
+        for ( Thread t : threads )
+            t.join();
+        assertTrue(q.isEmpty());
+        for ( int p = 0; p < producers; p++ )
+            assertEquals(count, next[ p ]);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus.bin.daemon;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.freedesktop.dbus.DBus;
+import org.freedesktop.dbus.bin.daemon.DBusDaemon.Connstruct;
+import org.freedesktop.dbus.bin.daemon.NameRegistry.NameChange;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class TestNameRegistry {
+
+    private static final String NAME = "org.freedesktop.dbus.test.owners";
+
+    private NameRegistry names;
+    private Connstruct[] conns = new Connstruct[3];
+    private List<NameChange> changes = new ArrayList<>();
+
+
+    private static Connstruct connection ( String unique ) throws IOException {
+        // the registry only looks at the identity and unique name of a connection
+        Connstruct c = new Connstruct(new Socket() {
+
+            @Override
+            public InputStream getInputStream () {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+
+
+            @Override
+            public OutputStream getOutputStream () {
+                return new ByteArrayOutputStream();
+            }
+        });
+        c.unique = unique;
+        return c;
+    }
+
+
+    @Before
+    public void setUp () throws Exception {
+        this.names = new NameRegistry();
+        this.names.reserve("org.freedesktop.DBus");
+        for ( int i = 0; i < this.conns.length; i++ )
+            this.conns[ i ] = connection(":1." + i);
+    }
+
+
+    private int request ( int i, int flags ) {
+        return this.names.requestName(NAME, this.conns[ i ], flags, this.changes);
+    }
+
+
+    private int release ( int i ) {
+        return this.names.releaseName(NAME, this.conns[ i ], this.changes);
+    }
+
+
+    private void assertOwners ( int... owners ) {
+        String[] expected = new String[owners.length];
+        for ( int i = 0; i < owners.length; i++ )
+            expected[ i ] = this.conns[ owners[ i ] ].unique;
+        assertArrayEquals(expected, this.names.listQueuedOwners(NAME));
+        assertSame(0 < owners.length ? this.conns[ owners[ 0 ] ] : null, this.names.getOwner(NAME));
+        assertEquals(0 < owners.length, this.names.hasOwner(NAME));
+        assertEquals(0 < owners.length, Arrays.asList(this.names.listNames()).contains(NAME));
+    }
+
+
+    private void assertChange ( Integer oldOwner, Integer newOwner ) {
+        assertEquals(1, this.changes.size());
+        NameChange c = this.changes.remove(0);
+        assertEquals(NAME, c.name);
+        assertSame(null == oldOwner ? null : this.conns[ oldOwner ], c.oldOwner);
+        assertSame(null == newOwner ? null : this.conns[ newOwner ], c.newOwner);
+    }
+
+
+    @Test
+    public void queueTest () {
+        assertEquals(DBus.DBUS_REQUEST_NAME_REPLY_PRIMARY_OWNER, request(0, 0));
+        assertChange(null, 0);
+        assertEquals(DBus.DBUS_REQUEST_NAME_REPLY_ALREADY_OWNER, request(0, 0));
+        assertEquals(DBus.DBUS_REQUEST_NAME_REPLY_IN_QUEUE, request(1, 0));
+        assertEquals(DBus.DBUS_REQUEST_NAME_REPLY_IN_QUEUE, request(2, 0));
+        assertTrue(this.changes.isEmpty());
+        assertOwners(0, 1, 2);
+        assertEquals(Collections.singleton(NAME), this.names.getNames(this.conns[ 2 ]));
+
+        // the next in the queue takes over
+        assertEquals(DBus.DBUS_RELEASE_NAME_REPLY_RELEASED, release(0));
+        assertChange(0, 1);
+        assertOwners(1, 2);
+        assertEquals(DBus.DBUS_RELEASE_NAME_REPLY_NOT_OWNER, release(0));
+        assertTrue(this.names.getNames(this.conns[ 0 ]).isEmpty());
+
+        // leaving the queue does not change the owner
+        assertEquals(DBus.DBUS_RELEASE_NAME_REPLY_RELEASED, release(2));
+        assertTrue(this.changes.isEmpty());
+        assertOwners(1);
+
+        assertEquals(DBus.DBUS_RELEASE_NAME_REPLY_RELEASED, release(1));
+        assertChange(1, null);
+        assertOwners();
+        assertEquals(DBus.DBUS_RELEASE_NAME_REPLY_NON_EXISTANT, release(1));
+    }
+
+
+    @Test
+    public void doNotQueueTest () {
+        assertEquals(DBus.DBUS_REQUEST_NAME_REPLY_PRIMARY_OWNER, request(0, 0));
+        assertEquals(DBus.DBUS_REQUEST_NAME_REPLY_EXISTS, request(1, DBus.DBUS_NAME_FLAG_DO_NOT_QUEUE));
+        assertOwners(0);
+
+        // asking again with DO_NOT_QUEUE takes a waiting connection out of the queue
+        assertEquals(DBus.DBUS_REQUEST_NAME_REPLY_IN_QUEUE, request(1, 0));
+        assertEquals(DBus.DBUS_REQUEST_NAME_REPLY_EXISTS, request(1, DBus.DBUS_NAME_FLAG_DO_NOT_QUEUE));
+        assertOwners(0);
+        assertTrue(this.names.getNames(this.conns[ 1 ]).isEmpty());
+    }
+
+
+    @Test
+    public void replaceTest () {
+        // replacement needs the permission of the current owner
+        assertEquals(DBus.DBUS_REQUEST_NAME_REPLY_PRIMARY_OWNER, request(0, 0));
+        assertEquals(DBus.DBUS_REQUEST_NAME_REPLY_IN_QUEUE, request(1, DBus.DBUS_NAME_FLAG_REPLACE_EXISTING));
+        assertOwners(0, 1);
+
+        // the replaced owner goes to the head of the queue
+        assertEquals(DBus.DBUS_REQUEST_NAME_REPLY_ALREADY_OWNER, request(0, DBus.DBUS_NAME_FLAG_ALLOW_REPLACEMENT));
+        this.changes.clear();
+        assertEquals(DBus.DBUS_REQUEST_NAME_REPLY_PRIMARY_OWNER, request(2, DBus.DBUS_NAME_FLAG_REPLACE_EXISTING));
+        assertChange(0, 2);
+        assertOwners(2, 0, 1);
+
+        // a replaced owner which asked not to be queued loses the name
+        assertEquals(DBus.DBUS_REQUEST_NAME_REPLY_ALREADY_OWNER,
+                request(2, DBus.DBUS_NAME_FLAG_ALLOW_REPLACEMENT | DBus.DBUS_NAME_FLAG_DO_NOT_QUEUE));
+        assertEquals(DBus.DBUS_REQUEST_NAME_REPLY_PRIMARY_OWNER, request(1, DBus.DBUS_NAME_FLAG_REPLACE_EXISTING));
+        assertChange(2, 1);
+        assertOwners(1, 0);
+        assertTrue(this.names.getNames(this.conns[ 2 ]).isEmpty());
+    }
+
+
+    @Test
+    public void removeConnectionTest () {
+        assertEquals(DBus.DBUS_REQUEST_NAME_REPLY_PRIMARY_OWNER, request(1, 0));
+        assertEquals(DBus.DBUS_REQUEST_NAME_REPLY_IN_QUEUE, request(2, 0));
+        assertEquals(DBus.DBUS_REQUEST_NAME_REPLY_PRIMARY_OWNER,
+                this.names.requestName("org.freedesktop.dbus.test.other", this.conns[ 1 ], 0, this.changes));
+        this.changes.clear();
+
+        // every name of a connection is dropped, the queue moves on
+        List<NameChange> dropped = this.names.removeConnection(this.conns[ 1 ]);
+        assertEquals(2, dropped.size());
+        assertOwners(2);
+        assertFalse(this.names.hasOwner("org.freedesktop.dbus.test.other"));
+        assertTrue(this.names.getNames(this.conns[ 1 ]).isEmpty());
+        assertTrue(this.names.removeConnection(this.conns[ 1 ]).isEmpty());
+    }
+
+
+    @Test
+    public void reservedTest () {
+        // names owned by the bus can not be taken
+        assertTrue(this.names.hasOwner("org.freedesktop.DBus"));
+        assertNull(this.names.getOwner("org.freedesktop.DBus"));
+        assertEquals(DBus.DBUS_REQUEST_NAME_REPLY_EXISTS,
+                this.names.requestName("org.freedesktop.DBus", this.conns[ 0 ], DBus.DBUS_NAME_FLAG_REPLACE_EXISTING, this.changes));
+        assertTrue(this.changes.isEmpty());
+        assertNull(this.names.getOwner(null));
+    }
+}
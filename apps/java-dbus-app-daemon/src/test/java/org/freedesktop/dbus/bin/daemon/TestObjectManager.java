@@ -0,0 +1,234 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus.bin.daemon;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.freedesktop.dbus.DBus;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusInterfaceName;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.types.Variant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class TestObjectManager {
+
+    public interface Thing extends DBusInterface {
+
+        public int value ();
+    }
+
+    static class ThingImpl implements Thing {
+
+        @Override
+        public boolean isRemote () {
+            return false;
+        }
+
+
+        @Override
+        public int value () {
+            return 7;
+        }
+    }
+
+    /**
+     * The object manager with the object paths as paths rather than proxies
+     */
+    @DBusInterfaceName ( "org.freedesktop.DBus.ObjectManager" )
+    public interface Manager extends DBusInterface {
+
+        public Map<Path, Map<String, Map<String, Variant<?>>>> GetManagedObjects ();
+    }
+
+    private static final String NAME = "org.freedesktop.dbus.test.objectmanager";
+    private static final String THING = Thing.class.getName().replace('$', '.');
+
+    private EmbeddedBus bus;
+    private DBusConnection server;
+    private DBusConnection client;
+    private final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+
+
+    @Before
+    public void setUp () throws Exception {
+        this.bus = new EmbeddedBus("test-objectmanager");
+        this.server = this.bus.server;
+        this.server.requestBusName(NAME);
+        this.client = this.bus.client;
+    }
+
+
+    @After
+    public void tearDown () {
+        this.bus.close();
+    }
+
+
+    /**
+     * The object path arrives as a proxy, whose string form is busname:objectpath:interface
+     */
+    void record ( String what, DBusSignal s, DBusInterface object ) {
+        String remote = object.toString();
+        this.received.add(what + " " + s.getPath() + " " + remote.substring(remote.indexOf('/'), remote.lastIndexOf(':')));
+    }
+
+
+    private List<String> awaitSignals ( final int count ) throws Exception {
+        // unexpected ones were sent before the marker
+        this.bus.sync();
+        assertTrue(EmbeddedBus.await(new EmbeddedBus.Condition() {
+
+            @Override
+            public boolean holds () {
+                return TestObjectManager.this.received.size() >= count;
+            }
+        }));
+        synchronized ( this.received ) {
+            List<String> rv = new ArrayList<>(this.received);
+            this.received.clear();
+            Collections.sort(rv);
+            return rv;
+        }
+    }
+
+
+    @Test
+    public void managedObjectsTest () throws Exception {
+        this.server.exportObject("/om/before", new ThingImpl());
+        this.server.exportObjectManager("/om");
+        this.server.exportObject("/om/a", new ThingImpl());
+        this.server.exportObject("/other", new ThingImpl());
+        this.server.exportObject("/omx", new ThingImpl());
+
+        Manager m = this.client.getRemoteObject(NAME, "/om", Manager.class);
+        Map<Path, Map<String, Map<String, Variant<?>>>> objects = m.GetManagedObjects();
+        // only the objects below the manager, whenever they were exported
+        assertEquals(new TreeSet<>(Arrays.asList(new Path("/om/a"), new Path("/om/before"))), new TreeSet<>(objects.keySet()));
+        Map<String, Map<String, Variant<?>>> interfaces = objects.get(new Path("/om/a"));
+        assertTrue(interfaces.containsKey(THING));
+        assertTrue(interfaces.containsKey("org.freedesktop.DBus.Introspectable"));
+        assertTrue(interfaces.get(THING).isEmpty());
+    }
+
+
+    @Test
+    public void signalsTest () throws Exception {
+        this.client.addSigHandler(DBus.ObjectManager.InterfacesAdded.class, new DBusSigHandler<DBus.ObjectManager.InterfacesAdded>() {
+
+            @Override
+            public void handle ( DBus.ObjectManager.InterfacesAdded s ) {
+                record("added", s, s.object_path);
+            }
+        });
+        this.client.addSigHandler(DBus.ObjectManager.InterfacesRemoved.class, new DBusSigHandler<DBus.ObjectManager.InterfacesRemoved>() {
+
+            @Override
+            public void handle ( DBus.ObjectManager.InterfacesRemoved s ) {
+                record("removed", s, s.object_path);
+            }
+        });
+        this.server.exportObjectManager("/om");
+        this.server.exportObject("/om/a", new ThingImpl());
+        this.server.exportObjects(Collections.singletonMap("/om/b/c", new ThingImpl()));
+        this.server.exportObject("/other", new ThingImpl());
+        assertEquals(Arrays.asList("added /om /om/a", "added /om /om/b/c"), awaitSignals(2));
+
+        this.server.unExportObject("/om/a");
+        this.server.unExportObjects(Arrays.asList("/om/b/c", "/other"));
+        assertEquals(Arrays.asList("removed /om /om/a", "removed /om /om/b/c"), awaitSignals(2));
+
+        // nothing is announced once the manager is gone
+        this.server.unExportObject("/om");
+        this.server.exportObject("/om/late", new ThingImpl());
+        assertEquals(Collections.<String> emptyList(), awaitSignals(0));
+    }
+
+
+    @Test
+    public void bulkTest () throws Exception {
+        this.client.addSigHandler(DBus.ObjectManager.InterfacesAdded.class, new DBusSigHandler<DBus.ObjectManager.InterfacesAdded>() {
+
+            @Override
+            public void handle ( DBus.ObjectManager.InterfacesAdded s ) {
+                record("added", s, s.object_path);
+            }
+        });
+        this.client.addSigHandler(DBus.ObjectManager.InterfacesRemoved.class, new DBusSigHandler<DBus.ObjectManager.InterfacesRemoved>() {
+
+            @Override
+            public void handle ( DBus.ObjectManager.InterfacesRemoved s ) {
+                record("removed", s, s.object_path);
+            }
+        });
+        this.server.exportObjectManager("/om");
+        this.server.exportObject("/om/a", new ThingImpl());
+        assertEquals(Arrays.asList("added /om /om/a"), awaitSignals(1));
+        Manager m = this.client.getRemoteObject(NAME, "/om", Manager.class);
+
+        // one path in use, nothing is exported
+        Map<String, DBusInterface> objects = new LinkedHashMap<>();
+        objects.put("/om/x", new ThingImpl());
+        objects.put("/om/a", new ThingImpl());
+        try {
+            this.server.exportObjects(objects);
+            fail("Exported an object on a path in use");
+        }
+        catch ( DBusException DBe ) {}
+
+        // neither is anything if an object is missing
+        objects.remove("/om/a");
+        objects.put("/om/y", null);
+        try {
+            this.server.exportObjects(objects);
+            fail("Exported a null object");
+        }
+        catch ( DBusException DBe ) {}
+        assertEquals(Collections.<String> emptyList(), awaitSignals(0));
+        assertEquals(Collections.singleton(new Path("/om/a")), m.GetManagedObjects().keySet());
+
+        objects.put("/om/y", new ThingImpl());
+        objects.put("/other", new ThingImpl());
+        this.server.exportObjects(objects);
+        assertEquals(Arrays.asList("added /om /om/x", "added /om /om/y"), awaitSignals(2));
+        assertEquals(new TreeSet<>(Arrays.asList(new Path("/om/a"), new Path("/om/x"), new Path("/om/y"))), new TreeSet<>(m.GetManagedObjects()
+                .keySet()));
+        assertEquals(7, this.client.getRemoteObject(NAME, "/other", Thing.class).value());
+
+        // paths which are not exported are skipped
+        this.server.unExportObjects(Arrays.asList("/om/x", "/om/y", "/other", "/om/none"));
+        assertEquals(Arrays.asList("removed /om /om/x", "removed /om /om/y"), awaitSignals(2));
+        assertEquals(Collections.singleton(new Path("/om/a")), m.GetManagedObjects().keySet());
+        try {
+            this.client.getRemoteObject(NAME, "/other", Thing.class).value();
+            fail("Called an unexported object");
+        }
+        catch ( RuntimeException Re ) {}
+    }
+}
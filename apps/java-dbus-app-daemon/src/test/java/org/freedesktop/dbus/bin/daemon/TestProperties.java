@@ -0,0 +1,234 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus.bin.daemon;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.freedesktop.dbus.DBus;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusProperty;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.types.Variant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class TestProperties {
+
+    public interface Thing extends DBusInterface {
+
+        public int value ();
+    }
+
+    public static class ThingImpl implements Thing {
+
+        final AtomicInteger reads = new AtomicInteger();
+        volatile int count = 3;
+        volatile String name = "n";
+
+
+        @Override
+        public boolean isRemote () {
+            return false;
+        }
+
+
+        @Override
+        public int value () {
+            return 7;
+        }
+
+
+        @DBusProperty
+        public int getCount () {
+            this.reads.incrementAndGet();
+            return this.count;
+        }
+
+
+        @DBusProperty
+        public void setCount ( int count ) {
+            this.count = count;
+        }
+
+
+        @DBusProperty
+        public String getName () {
+            return this.name;
+        }
+    }
+
+    private static final String NAME = "org.freedesktop.dbus.test.properties";
+    private static final String THING = Thing.class.getName().replace('$', '.');
+
+    private EmbeddedBus bus;
+    private DBusConnection server;
+    private DBusConnection client;
+    private ThingImpl thing;
+    private DBus.Properties properties;
+
+
+    @Before
+    public void setUp () throws Exception {
+        this.bus = new EmbeddedBus("test-properties");
+        this.server = this.bus.server;
+        this.server.requestBusName(NAME);
+        this.thing = new ThingImpl();
+        this.server.exportObject("/p", this.thing);
+        this.client = this.bus.client;
+        this.properties = this.client.getRemoteObject(NAME, "/p", DBus.Properties.class);
+    }
+
+
+    @After
+    public void tearDown () {
+        this.bus.close();
+    }
+
+
+    @Test
+    public void getTest () throws Exception {
+        assertEquals(3, (int) this.properties.<Integer> Get(THING, "Count"));
+        assertEquals("n", this.properties.<String> Get(THING, "Name"));
+
+        Map<String, Variant<?>> all = this.properties.GetAll(THING);
+        assertEquals(2, all.size());
+        assertEquals(3, all.get("Count").getValue());
+        assertEquals("n", all.get("Name").getValue());
+
+        try {
+            this.properties.Get(THING, "Nope");
+            fail("Got a property which does not exist");
+        }
+        catch ( DBus.Error.UnknownProperty UPe ) {}
+        try {
+            this.properties.Get("org.freedesktop.dbus.test.Nope", "Count");
+            fail("Got a property of an interface which does not exist");
+        }
+        catch ( DBus.Error.UnknownProperty UPe ) {}
+
+        String intro = this.client.getRemoteObject(NAME, "/p", DBus.Introspectable.class).Introspect();
+        assertTrue(intro, intro.contains("<property name=\"Count\" type=\"i\" access=\"readwrite\""));
+        assertTrue(intro, intro.contains("<property name=\"Name\" type=\"s\" access=\"read\""));
+        assertTrue(intro, intro.contains("<interface name=\"org.freedesktop.DBus.Properties\">"));
+    }
+
+
+    @Test
+    public void cacheTest () throws Exception {
+        // GetAll reads each getter once until a property changes
+        this.properties.GetAll(THING);
+        this.properties.GetAll(THING);
+        assertEquals(1, this.thing.reads.get());
+        // Get always asks the object
+        this.properties.Get(THING, "Count");
+        assertEquals(2, this.thing.reads.get());
+
+        // a change the connection is not told about is only seen by Get
+        this.thing.count = 4;
+        assertEquals(4, (int) this.properties.<Integer> Get(THING, "Count"));
+        assertEquals(3, this.properties.GetAll(THING).get("Count").getValue());
+
+        this.server.propertyChanged(this.thing, "Count");
+        assertEquals(4, this.properties.GetAll(THING).get("Count").getValue());
+    }
+
+
+    @Test
+    public void setTest () throws Exception {
+        final BlockingQueue<DBus.Properties.PropertiesChanged> changes = new LinkedBlockingQueue<>();
+        this.client.addSigHandler(DBus.Properties.PropertiesChanged.class, new DBusSigHandler<DBus.Properties.PropertiesChanged>() {
+
+            @Override
+            public void handle ( DBus.Properties.PropertiesChanged s ) {
+                changes.add(s);
+            }
+        });
+        this.properties.GetAll(THING);
+
+        this.properties.Set(THING, "Count", new Variant<>(5));
+        assertEquals(5, this.thing.count);
+        assertEquals(5, this.properties.GetAll(THING).get("Count").getValue());
+        DBus.Properties.PropertiesChanged s = changes.poll(10, TimeUnit.SECONDS);
+        assertEquals("/p", s.getPath());
+        assertEquals(THING, s.interface_name);
+        assertEquals(5, s.changed_properties.get("Count").getValue());
+
+        try {
+            this.properties.Set(THING, "Name", new Variant<>("x"));
+            fail("Set a read only property");
+        }
+        catch ( DBus.Error.PropertyReadOnly PROe ) {}
+        assertEquals("n", this.thing.name);
+
+        // changes reported by the application are signalled as well
+        this.thing.name = "m";
+        this.server.propertyChanged(this.thing, "Name");
+        s = changes.poll(10, TimeUnit.SECONDS);
+        assertEquals("m", s.changed_properties.get("Name").getValue());
+        assertEquals("m", this.properties.GetAll(THING).get("Name").getValue());
+    }
+
+
+    private static Set<String> poll ( BlockingQueue<DBus.Properties.PropertiesChanged> changes, String property, Object value )
+            throws InterruptedException {
+        Set<String> paths = new HashSet<>();
+        for ( int i = 0; i < 2; i++ ) {
+            DBus.Properties.PropertiesChanged s = changes.poll(10, TimeUnit.SECONDS);
+            assertEquals(value, s.changed_properties.get(property).getValue());
+            paths.add(s.getPath());
+        }
+        return paths;
+    }
+
+
+    @Test
+    public void multiplePathsTest () throws Exception {
+        final BlockingQueue<DBus.Properties.PropertiesChanged> changes = new LinkedBlockingQueue<>();
+        this.client.addSigHandler(DBus.Properties.PropertiesChanged.class, new DBusSigHandler<DBus.Properties.PropertiesChanged>() {
+
+            @Override
+            public void handle ( DBus.Properties.PropertiesChanged s ) {
+                changes.add(s);
+            }
+        });
+        this.server.exportObject("/q", this.thing);
+        DBus.Properties other = this.client.getRemoteObject(NAME, "/q", DBus.Properties.class);
+        this.properties.GetAll(THING);
+        other.GetAll(THING);
+        Set<String> both = new HashSet<>(Arrays.asList("/p", "/q"));
+
+        // a change through one path shows on the other
+        this.properties.Set(THING, "Count", new Variant<>(5));
+        assertEquals(5, other.GetAll(THING).get("Count").getValue());
+        assertEquals(both, poll(changes, "Count", 5));
+
+        this.thing.name = "m";
+        this.server.propertyChanged(this.thing, "Name");
+        assertEquals("m", this.properties.GetAll(THING).get("Name").getValue());
+        assertEquals("m", other.GetAll(THING).get("Name").getValue());
+        assertEquals(both, poll(changes, "Name", "m"));
+    }
+}
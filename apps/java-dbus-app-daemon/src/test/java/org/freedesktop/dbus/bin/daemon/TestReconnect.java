@@ -0,0 +1,172 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus.bin.daemon;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.freedesktop.dbus.DBus;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusInterfaceName;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class TestReconnect {
+
+    /**
+     * The bus itself, which is back as soon as the daemon is, with one method marked idempotent
+     */
+    @DBusInterfaceName ( "org.freedesktop.DBus" )
+    public interface Bus extends DBusInterface {
+
+        @DBus.Method.Idempotent
+        public String[] ListNames ();
+
+
+        public boolean NameHasOwner ( String name );
+    }
+
+    public interface Signals extends DBusInterface {
+
+        public class Ping extends DBusSignal {
+
+            public Ping ( String path ) throws DBusException {
+                super(path);
+            }
+        }
+    }
+
+    private static final String NAME = "org.freedesktop.dbus.test.reconnect";
+
+    private EmbeddedBus bus;
+    private DBusConnection server;
+    private DBusConnection client;
+    private Thread restarter;
+    private volatile Exception restartFailure;
+
+
+    @Before
+    public void setUp () throws Exception {
+        this.bus = new EmbeddedBus("test-reconnect");
+        this.server = this.bus.server;
+        this.server.setAutoReconnect(true);
+        this.client = this.bus.client;
+        this.client.setAutoReconnect(true);
+    }
+
+
+    @After
+    public void tearDown () throws InterruptedException {
+        // stop the daemon the test started last
+        if ( null != this.restarter )
+            this.restarter.join();
+        this.bus.close();
+        if ( null != this.restartFailure )
+            throw new AssertionError("Restarting the daemon failed", this.restartFailure);
+    }
+
+
+    /**
+     * Start the daemon again after a delay, in the background
+     */
+    private void restart ( final long delay ) {
+        this.restarter = new Thread() {
+
+            @Override
+            public void run () {
+                try {
+                    Thread.sleep(delay);
+                    TestReconnect.this.bus.restart();
+                }
+                catch ( Exception e ) {
+                    TestReconnect.this.restartFailure = e;
+                }
+            }
+        };
+        this.restarter.start();
+    }
+
+
+    @Test
+    public void idempotentTest () throws Exception {
+        Bus bus = this.client.getRemoteObject("org.freedesktop.DBus", "/org/freedesktop/DBus", Bus.class);
+        String unique = this.client.getUniqueName();
+        assertTrue(Arrays.asList(bus.ListNames()).contains(unique));
+
+        this.bus.getDaemon().stopRunning();
+        // other calls fail while the bus is gone
+        try {
+            bus.NameHasOwner(NAME);
+            fail("Call succeeded without a bus");
+        }
+        catch ( DBusExecutionException DBEe ) {}
+
+        // an idempotent call waits for the connection to come back and is sent again
+        restart(300);
+        // the unique name comes from the new daemon
+        assertTrue(Arrays.asList(bus.ListNames()).contains(this.client.getUniqueName()));
+        assertFalse(bus.NameHasOwner(NAME));
+    }
+
+
+    @Test
+    public void restoreTest () throws Exception {
+        final CountDownLatch received = new CountDownLatch(1);
+        this.server.requestBusName(NAME);
+        this.server.addSigHandler(Signals.Ping.class, new DBusSigHandler<Signals.Ping>() {
+
+            @Override
+            public void handle ( Signals.Ping p ) {
+                received.countDown();
+            }
+        });
+
+        this.bus.getDaemon().stopRunning();
+        restart(100);
+
+        // the server asks for its name again once it is back
+        DBus bus = this.client.getRemoteObject("org.freedesktop.DBus", "/org/freedesktop/DBus", DBus.class);
+        boolean owned = false;
+        for ( int i = 0; i < 200 && !owned; i++ ) {
+            try {
+                owned = bus.NameHasOwner(NAME) && this.server.getUniqueName().equals(bus.GetNameOwner(NAME));
+            }
+            catch ( DBusExecutionException DBEe ) {
+                // the client is not back yet
+            }
+            if ( !owned )
+                Thread.sleep(50);
+        }
+        assertTrue(owned);
+        assertTrue(Arrays.asList(this.server.getNames()).contains(NAME));
+
+        // and listens for the signals it had handlers for, the match rules follow the name
+        for ( int i = 0; i < 100 && 0 < received.getCount(); i++ ) {
+            this.client.sendSignal(new Signals.Ping("/ping"));
+            received.await(100, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(0, received.getCount());
+    }
+}
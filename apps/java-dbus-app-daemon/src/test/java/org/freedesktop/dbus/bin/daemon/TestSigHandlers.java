@@ -0,0 +1,182 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus.bin.daemon;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusMatchRule;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class TestSigHandlers {
+
+    public interface Signals extends DBusInterface {
+
+        public class Ping extends DBusSignal {
+
+            public Ping ( String path ) throws DBusException {
+                super(path);
+            }
+        }
+    }
+
+    static class Recorder implements DBusSigHandler<Signals.Ping> {
+
+        private final String id;
+        private final List<String> received;
+
+
+        Recorder ( String id, List<String> received ) {
+            this.id = id;
+            this.received = received;
+        }
+
+
+        @Override
+        public void handle ( Signals.Ping p ) {
+            this.received.add(this.id + p.getPath());
+        }
+    }
+
+    private EmbeddedBus bus;
+    private DBusConnection listener;
+    private DBusConnection sender;
+    private final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+
+
+    @Before
+    public void setUp () throws Exception {
+        this.bus = new EmbeddedBus("test-sighandlers");
+        this.listener = this.bus.server;
+        this.sender = this.bus.client;
+    }
+
+
+    @After
+    public void tearDown () {
+        this.bus.close();
+    }
+
+
+    private static DBusMatchRule rule ( String path ) throws DBusException {
+        return new DBusMatchRule(Signals.Ping.class, null, path);
+    }
+
+
+    /**
+     * Send the signals, then a final one on /end which a handler on the listener is waiting for, and check
+     * what the handlers received.
+     * The daemon delivers the signals of one sender in order, but the listener runs the handlers on several
+     * threads, so the others may still be running when /end arrives.
+     */
+    private void assertReceived ( final List<String> expected, String... paths ) throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        DBusSigHandler<Signals.Ping> end = new DBusSigHandler<Signals.Ping>() {
+
+            @Override
+            public void handle ( Signals.Ping p ) {
+                done.countDown();
+            }
+        };
+        this.listener.addSigHandlers(Collections.singletonMap(rule("/end"), Arrays.asList(end)));
+        for ( String path : paths )
+            this.sender.sendSignal(new Signals.Ping(path));
+        this.sender.sendSignal(new Signals.Ping("/end"));
+        assertTrue(done.await(EmbeddedBus.TIMEOUT, TimeUnit.MILLISECONDS));
+        this.listener.removeSigHandlers(Collections.singletonMap(rule("/end"), Arrays.asList(end)));
+        assertTrue(EmbeddedBus.await(new EmbeddedBus.Condition() {
+
+            @Override
+            public boolean holds () {
+                return TestSigHandlers.this.received.size() >= expected.size();
+            }
+        }));
+        List<String> rv;
+        synchronized ( this.received ) {
+            rv = new ArrayList<>(this.received);
+            this.received.clear();
+        }
+        Collections.sort(rv);
+        assertEquals(expected, rv);
+    }
+
+
+    @Test
+    public void batchTest () throws Exception {
+        Recorder a = new Recorder("a", this.received);
+        Recorder b = new Recorder("b", this.received);
+        Map<DBusMatchRule, List<Recorder>> handlers = new LinkedHashMap<>();
+        for ( int i = 0; i < 100; i++ )
+            handlers.put(rule("/p/" + i), Arrays.asList(a));
+        // several handlers for one rule in the same batch
+        handlers.put(rule("/q"), Arrays.asList(a, b));
+        this.listener.addSigHandlers(handlers);
+
+        assertReceived(Arrays.asList("a/p/0", "a/p/99", "a/q", "b/q"), "/p/0", "/p/99", "/p/100", "/q");
+
+        this.listener.removeSigHandlers(handlers);
+        assertReceived(Collections.<String> emptyList(), "/p/0", "/q");
+    }
+
+
+    @Test
+    public void sharedRuleTest () throws Exception {
+        Recorder a = new Recorder("a", this.received);
+        Recorder b = new Recorder("b", this.received);
+        this.listener.addSigHandlers(Collections.singletonMap(rule("/r"), Arrays.asList(a)));
+        this.listener.addSigHandlers(Collections.singletonMap(rule("/r"), Arrays.asList(b)));
+        assertReceived(Arrays.asList("a/r", "b/r"), "/r");
+
+        // the rule stays as long as any handler needs it
+        this.listener.removeSigHandlers(Collections.singletonMap(rule("/r"), Arrays.asList(a)));
+        assertReceived(Arrays.asList("b/r"), "/r");
+        this.listener.removeSigHandlers(Collections.singletonMap(rule("/r"), Arrays.asList(b)));
+        assertReceived(Collections.<String> emptyList(), "/r");
+
+        // and is added again for a new handler
+        this.listener.addSigHandlers(Collections.singletonMap(rule("/r"), Arrays.asList(a)));
+        assertReceived(Arrays.asList("a/r"), "/r");
+    }
+
+
+    @Test
+    public void disconnectedTest () throws Exception {
+        DBusConnection c = DBusConnection.newConnection(this.bus.getAddress());
+        c.disconnect();
+        // fails without waiting for a reply that can never come
+        long start = System.currentTimeMillis();
+        try {
+            c.addSigHandlers(Collections.singletonMap(rule("/s"), Arrays.asList(new Recorder("a", this.received))));
+            fail("Added a match rule without a connection");
+        }
+        catch ( DBusException DBe ) {}
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+}
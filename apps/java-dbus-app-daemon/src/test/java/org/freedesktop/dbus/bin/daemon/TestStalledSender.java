@@ -0,0 +1,144 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus.bin.daemon;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.freedesktop.dbus.DBus;
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.Error;
+import org.freedesktop.dbus.Message;
+import org.freedesktop.dbus.MessageReader;
+import org.freedesktop.dbus.MessageWriter;
+import org.freedesktop.dbus.MethodCall;
+import org.freedesktop.dbus.bin.daemon.DBusDaemon.Connstruct;
+import org.freedesktop.dbus.bin.daemon.NameRegistry.NameChange;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class TestStalledSender {
+
+    private DBusDaemon daemon;
+    private Connstruct caller;
+    private Connstruct callee;
+    private ByteArrayOutputStream callerOut = new ByteArrayOutputStream();
+    private ByteArrayOutputStream calleeOut = new ByteArrayOutputStream();
+
+
+    private Connstruct connection ( int shard, String unique, ByteArrayOutputStream out ) {
+        Connstruct c = new Connstruct(new MessageReader(new ByteArrayInputStream(new byte[0])), new MessageWriter(out));
+        c.shard = shard;
+        c.unique = unique;
+        this.daemon.names.requestName(unique, c, DBus.DBUS_NAME_FLAG_DO_NOT_QUEUE, new ArrayList<NameChange>());
+        return c;
+    }
+
+
+    private static List<Message> read ( ByteArrayOutputStream out ) throws Exception {
+        MessageReader r = new MessageReader(new ByteArrayInputStream(out.toByteArray()));
+        List<Message> rv = new ArrayList<>();
+        try {
+            Message m;
+            while ( null != ( m = r.readMessage() ) )
+                rv.add(m);
+        }
+        catch ( EOFException EOFe ) {
+            // end of what was written so far
+        }
+        return rv;
+    }
+
+
+    @Before
+    public void setUp () throws Exception {
+        // the threads are not started, so the sender of the callee does not drain its queue
+        this.daemon = new DBusDaemon(2);
+        this.caller = connection(1, ":1.1", this.callerOut);
+        this.callee = connection(0, ":1.0", this.calleeOut);
+        DBusSignal filler = new DBusSignal(null, "/", "org.freedesktop.dbus.test", "Filler", null);
+        for ( int i = 0; i < DBusDaemon.QUEUE_CAPACITY; i++ )
+            this.daemon.send(this.callee, filler);
+    }
+
+
+    @After
+    public void tearDown () {
+        this.daemon.stopRunning();
+    }
+
+
+    @Test
+    public void rejectCallTest () throws Exception {
+        this.daemon.senders[ 1 ].start();
+        MethodCall call = new MethodCall(":1.1", ":1.0", "/", "org.freedesktop.dbus.test", "Call", (byte) 0, null);
+
+        // a call the full queue can not take is answered instead of dropped
+        long start = System.currentTimeMillis();
+        this.daemon.route(call, this.caller.weak, this.caller);
+        assertTrue(System.currentTimeMillis() - start >= DBusDaemon.QUEUE_FULL_TIMEOUT);
+
+        List<Message> replies = new ArrayList<>();
+        for ( int i = 0; i < 100 && replies.isEmpty(); i++ ) {
+            Thread.sleep(50);
+            replies = read(this.callerOut);
+        }
+        assertEquals(1, replies.size());
+        Message reply = replies.get(0);
+        assertTrue(reply instanceof Error);
+        assertEquals("org.freedesktop.DBus.Error.LimitsExceeded", reply.getName());
+        assertEquals(call.getSerial(), reply.getReplySerial());
+        assertFalse(this.caller.closed);
+    }
+
+
+    @Test
+    public void waitTest () throws Exception {
+        final Message signal = new DBusSignal(":1.1", "/", "org.freedesktop.dbus.test", "Signal", null);
+        final Message noReply = new MethodCall(":1.1", ":1.0", "/", "org.freedesktop.dbus.test", "Call",
+                Message.Flags.NO_REPLY_EXPECTED, null);
+        Thread producer = new Thread() {
+
+            @Override
+            public void run () {
+                TestStalledSender.this.daemon.send(TestStalledSender.this.callee, signal);
+                TestStalledSender.this.daemon.send(TestStalledSender.this.callee, noReply);
+            }
+        };
+        producer.start();
+
+        // messages nobody waits for keep waiting for space
+        producer.join(2 * DBusDaemon.QUEUE_FULL_TIMEOUT);
+        assertTrue(producer.isAlive());
+        this.daemon.senders[ 0 ].start();
+        producer.join(10000);
+        assertFalse(producer.isAlive());
+
+        for ( int i = 0; i < 100 && read(this.calleeOut).size() < DBusDaemon.QUEUE_CAPACITY + 2; i++ )
+            Thread.sleep(50);
+        List<Message> received = read(this.calleeOut);
+        assertEquals(DBusDaemon.QUEUE_CAPACITY + 2, received.size());
+        assertEquals("Signal", received.get(DBusDaemon.QUEUE_CAPACITY).getName());
+        assertEquals("Call", received.get(DBusDaemon.QUEUE_CAPACITY + 1).getName());
+        assertTrue(read(this.callerOut).isEmpty());
+        assertFalse(this.callee.closed);
+    }
+}
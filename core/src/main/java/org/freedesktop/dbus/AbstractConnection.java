@@ -12,15 +12,30 @@ package org.freedesktop.dbus;
 
 
 import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.lang.reflect.Type;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.Vector;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
@@ -29,6 +44,7 @@ import org.freedesktop.dbus.exceptions.DBusExecutionException;
 import org.freedesktop.dbus.exceptions.FatalDBusException;
 import org.freedesktop.dbus.exceptions.FatalException;
 import org.freedesktop.dbus.exceptions.NotConnected;
+import org.freedesktop.dbus.types.Variant;
 
 
 /**
@@ -40,49 +56,31 @@ public abstract class AbstractConnection {
 
     protected class FallbackContainer {
 
-        private Map<String[], ExportedObject> fallbacks = new HashMap<>();
-
-
-        public synchronized void add ( String path, ExportedObject eo ) {
+        public void add ( String path, ExportedObject eo ) {
             if ( log.isDebugEnabled() ) {
                 log.debug("Adding fallback on " + path + " of " + eo);
             }
-            this.fallbacks.put(path.split("/"), eo);
+            AbstractConnection.this.exportTable.putFallback(path, eo);
         }
 
 
-        public synchronized void remove ( String path ) {
+        public void remove ( String path ) {
             if ( log.isDebugEnabled() ) {
                 log.debug("Removing fallback on " + path);
             }
-            this.fallbacks.remove(path.split("/"));
+            AbstractConnection.this.exportTable.removeFallback(path);
         }
 
 
-        public synchronized ExportedObject get ( String path ) {
-            int best = 0;
-            int i = 0;
-            ExportedObject bestobject = null;
-            String[] pathel = path.split("/");
-            for ( String[] fbpath : this.fallbacks.keySet() ) {
-                if ( log.isTraceEnabled() ) {
-                    log.trace("Trying fallback path " + Arrays.deepToString(fbpath) + " to match " + Arrays.deepToString(pathel));
-                }
-                for ( i = 0; i < pathel.length && i < fbpath.length; i++ )
-                    if ( !pathel[ i ].equals(fbpath[ i ]) )
-                        break;
-                if ( i > 0 && i == fbpath.length && i > best )
-                    bestobject = this.fallbacks.get(fbpath);
-
-                if ( log.isTraceEnabled() ) {
-                    log.trace("Trying fallback path " + "Matches " + i + " bestobject now " + bestobject);
-                }
-            }
-
+        /**
+         * @return the fallback on the longest prefix of the path
+         */
+        public ExportedObject get ( String path ) {
+            ExportedObject eo = AbstractConnection.this.exportTable.getFallback(path);
             if ( log.isDebugEnabled() ) {
-                log.debug("Found fallback for " + path + " of " + bestobject);
+                log.debug("Found fallback for " + path + " of " + eo);
             }
-            return bestobject;
+            return eo;
         }
     }
 
@@ -95,6 +93,8 @@ public abstract class AbstractConnection {
 
         @Override
         public void run () {
+            // a reconnect replaces the transport, this thread only ever reads the one it started with
+            Transport t = AbstractConnection.this.transport;
             try {
                 Message m = null;
                 while ( AbstractConnection.this._run ) {
@@ -102,8 +102,8 @@ public abstract class AbstractConnection {
 
                     // read from the wire
                     try {
-                        // this blocks on outgoing being non-empty or a message being available.
-                        m = readIncoming();
+                        // this blocks until a message is available or the transport is closed.
+                        m = readIncoming(t);
                         if ( m != null ) {
 
                             if ( log.isDebugEnabled() ) {
@@ -128,12 +128,16 @@ public abstract class AbstractConnection {
                     }
                     catch ( NotConnected e ) {
                         log.info("Connection is disconnected", e);
+                        break;
                     }
                     catch ( Exception e ) {
+                        if ( !AbstractConnection.this._run )
+                            break;
                         log.debug("Exception for incoming message:", e);
                         if ( e instanceof FatalException ) {
                             log.info("Fatal exception, disconnecting:", e);
-                            disconnect();
+                            transportFailed(t);
+                            break;
                         }
                     }
 
@@ -148,6 +152,126 @@ public abstract class AbstractConnection {
         }
     }
 
+    private class _objectmanager implements DBus.ObjectManager {
+
+        final String objectpath;
+        /** paths of managed objects start with this */
+        private final String prefix;
+
+
+        public _objectmanager ( String objectpath ) {
+            this.objectpath = objectpath;
+            this.prefix = "/".equals(objectpath) ? "/" : objectpath + '/';
+        }
+
+
+        boolean manages ( String path ) {
+            return null != path && path.length() > this.prefix.length() && path.startsWith(this.prefix);
+        }
+
+
+        @Override
+        public boolean isRemote () {
+            return false;
+        }
+
+
+        @Override
+        public Map<DBusInterface, Map<String, Map<String, Variant<?>>>> GetManagedObjects () {
+            Map<String, ExportedObject> managed = new TreeMap<>();
+            synchronized ( AbstractConnection.this.exportedObjects ) {
+                for ( Map.Entry<String, ExportedObject> e : AbstractConnection.this.exportedObjects.entrySet() )
+                    if ( manages(e.getKey()) )
+                        managed.put(e.getKey(), e.getValue());
+            }
+            Map<DBusInterface, Map<String, Map<String, Variant<?>>>> objects = new LinkedHashMap<>();
+            for ( Map.Entry<String, ExportedObject> e : managed.entrySet() ) {
+                DBusInterface object = e.getValue().object.get();
+                if ( null != object )
+                    objects.put(new PathReference(e.getKey()), getManagedInterfaces(object, e.getValue()));
+            }
+            return objects;
+        }
+    }
+
+    /**
+     * Serves org.freedesktop.DBus.Properties for objects with properties exported with {@link DBusProperty}
+     */
+    private class _propertieshandler implements DBus.Properties {
+
+        private final String objectpath;
+        private final ExportedObject eo;
+
+
+        public _propertieshandler ( String objectpath, ExportedObject eo ) {
+            this.objectpath = objectpath;
+            this.eo = eo;
+        }
+
+
+        @Override
+        public boolean isRemote () {
+            return false;
+        }
+
+
+        private ExportedProperties.Property getProperty ( String interface_name, String property_name ) {
+            ExportedProperties.Property p = this.eo.properties.get(interface_name, property_name);
+            if ( null == p )
+                throw new DBus.Error.UnknownProperty("No property " + property_name + " in interface " + interface_name);
+            return p;
+        }
+
+
+        @SuppressWarnings ( "unchecked" )
+        @Override
+        public <A> A Get ( String interface_name, String property_name ) {
+            ExportedProperties.Property p = getProperty(interface_name, property_name);
+            if ( null == p.getter )
+                throw new DBus.Error.AccessDenied("Property " + property_name + " can not be read");
+            Variant<?> v = this.eo.getProperty(p);
+            if ( null == v )
+                throw new DBusExecutionException("Property " + property_name + " has no value");
+            return (A) v;
+        }
+
+
+        @Override
+        public <A> void Set ( String interface_name, String property_name, A value ) {
+            ExportedProperties.Property p = getProperty(interface_name, property_name);
+            if ( null == p.setter )
+                throw new DBus.Error.PropertyReadOnly("Property " + property_name + " can not be written");
+            Object o = this.eo.object.get();
+            if ( null == o )
+                throw new DBus.Error.UnknownObject(this.objectpath + " is not an object provided by this process.");
+            try {
+                p.setter.invoke(o, Marshalling.deSerializeParameter(value, p.type, AbstractConnection.this));
+            }
+            catch ( InvocationTargetException ITe ) {
+                if ( ITe.getCause() instanceof DBusExecutionException )
+                    throw (DBusExecutionException) ITe.getCause();
+                throw new DBusExecutionException("Failed to set property " + property_name + ": " + ITe.getCause());
+            }
+            catch ( Exception e ) {
+                throw new DBusExecutionException("Failed to set property " + property_name + ": " + e);
+            }
+            // the same object may be exported on more paths
+            for ( Map.Entry<String, ExportedObject> e : getExports(o).entrySet() )
+                propertiesChanged(e.getKey(), e.getValue(), Collections.singletonList(p));
+        }
+
+
+        @Override
+        public Map<String, Variant<?>> GetAll ( String interface_name ) {
+            if ( null != interface_name && !"".equals(interface_name) )
+                return this.eo.getProperties(interface_name);
+            Map<String, Variant<?>> all = new LinkedHashMap<>();
+            for ( String iface : this.eo.properties.getInterfaces() )
+                all.putAll(this.eo.getProperties(iface));
+            return all;
+        }
+    }
+
     private class _globalhandler implements org.freedesktop.dbus.DBus.Peer, org.freedesktop.dbus.DBus.Introspectable {
 
         private String objectpath;
@@ -191,170 +315,146 @@ public abstract class AbstractConnection {
         }
     }
 
-    protected class _workerthread extends Thread {
+    /**
+     * Drains the outgoing queue. At most one runs per connection at a time, claimed by the sending flag, so
+     * it is the only writer to the transport. It keeps draining after disconnect has taken the queue away.
+     */
+    private class _sender implements Runnable {
 
-        private boolean runWorkerThread = true;
+        private final EfficientQueue queue;
 
 
-        /**
-         * 
-         */
-        public _workerthread () {
-            super("Worker");
-        }
-
-
-        public void halt () {
-            this.runWorkerThread = false;
+        _sender ( EfficientQueue queue ) {
+            this.queue = queue;
         }
 
 
         @Override
         public void run () {
-            while ( this.runWorkerThread ) {
-                Runnable r = null;
-                synchronized ( AbstractConnection.this.runnables ) {
-                    while ( AbstractConnection.this.runnables.size() == 0 && this.runWorkerThread )
-                        try {
-                            AbstractConnection.this.runnables.wait();
-                        }
-                        catch ( InterruptedException Ie ) {}
-                    if ( AbstractConnection.this.runnables.size() > 0 )
-                        r = AbstractConnection.this.runnables.removeFirst();
+            Message m;
+            while ( true ) {
+                synchronized ( this.queue ) {
+                    if ( this.queue.isEmpty() ) {
+                        AbstractConnection.this.sending = false;
+                        return;
+                    }
+                    m = this.queue.remove();
                 }
-                if ( null != r )
-                    r.run();
+                if ( log.isDebugEnabled() ) {
+                    log.debug("Got message: " + m);
+                }
+                sendMessage(m);
             }
         }
     }
 
-    private class _sender extends Thread {
+    private class _heartbeat implements Runnable {
 
-        public _sender () {
-            setName("Sender");
-        }
+        private MethodCall ping;
 
 
         @Override
         public void run () {
-            Message m = null;
-
-            log.info("Monitoring outbound queue");
-            // block on the outbound queue and send from it
-            while ( AbstractConnection.this._run ) {
-                if ( null != AbstractConnection.this.outgoing )
-                    synchronized ( AbstractConnection.this.outgoing ) {
-                        log.trace("Blocking");
-                        while ( AbstractConnection.this.outgoing.size() == 0 && AbstractConnection.this._run )
-                            try {
-                                AbstractConnection.this.outgoing.wait();
-                            }
-                            catch ( InterruptedException Ie ) {}
-                        log.trace("Notified");
-                        if ( AbstractConnection.this.outgoing.size() > 0 )
-                            m = AbstractConnection.this.outgoing.remove();
-                        log.debug("Got message: " + m);
-                    }
-                if ( null != m )
-                    sendMessage(m);
-                m = null;
-            }
-
-            log.info("Flushing outbound queue and quitting");
-            // flush the outbound queue before disconnect.
-            if ( null != AbstractConnection.this.outgoing ) {
-                EfficientQueue ogq = AbstractConnection.this.outgoing;
-                synchronized ( ogq ) {
-                    AbstractConnection.this.outgoing = null;
+            if ( null != this.ping && !this.ping.hasReply() ) {
+                log.warn("Peer did not answer ping, closing connection");
+                // fail like a dead socket would, the reader disconnects
+                try {
+                    Transport t = AbstractConnection.this.transport;
+                    if ( null != t )
+                        t.disconnect();
                 }
-                do {
-
-                    if ( !ogq.isEmpty() )
-                        m = ogq.remove();
-                    else
-                        m = null;
-
-                    try {
-                        sendMessage(m);
-                    }
-                    catch ( NotConnected e ) {
-                        log.warn("Failed to send message " + m, e);
-                    }
+                catch ( IOException IOe ) {
+                    log.debug("Failed to close transport", IOe);
                 }
-                while ( null != m );
-
-                // close the underlying streams
+                return;
+            }
+            try {
+                this.ping = createPing();
+                queueOutgoing(this.ping);
+            }
+            catch ( DBusException DBe ) {
+                log.warn("Failed to create ping", DBe);
             }
         }
     }
 
     /**
-     * Timeout in us on checking the BUS for incoming messages and sending outgoing messages
+     * Timeout in ms on checking the BUS for incoming messages and sending outgoing messages
+     * 
+     * @deprecated connections block on reads until a message arrives or they are disconnected
      */
+    @Deprecated
     protected static final int TIMEOUT = 100000;
     /** Initial size of the pending calls map */
     private static final int PENDING_MAP_INITIAL_SIZE = 10;
-    static final String BUSNAME_REGEX = "^[-_a-zA-Z][-_a-zA-Z0-9]*(\\.[-_a-zA-Z][-_a-zA-Z0-9]*)*$";
-    static final String CONNID_REGEX = "^:[0-9]*\\.[0-9]*$";
-    static final String OBJECT_REGEX = "^/([-_a-zA-Z0-9]+(/[-_a-zA-Z0-9]+)*)?$";
-    static final byte THREADCOUNT = 4;
     static final int MAX_ARRAY_LENGTH = 67108864;
     static final int MAX_NAME_LENGTH = 255;
     protected Map<String, ExportedObject> exportedObjects;
+    /** Exported objects and fallbacks by path for dispatching without locks, updated along with exportedObjects */
+    final PathTrie<ExportedObject> exportTable = new PathTrie<>();
+    private final ObjectPathIndex exportedPaths = new ObjectPathIndex();
+    /** Default for {@link #setPropertiesChangedInterval(long)} in ms */
+    static final long DEFAULT_PROPERTIES_CHANGED_INTERVAL = 50;
+    private volatile long propertiesChangedInterval = DEFAULT_PROPERTIES_CHANGED_INTERVAL;
+    /** Names of properties changed since PropertiesChanged was last sent, by path and interface, guarded by itself */
+    private final Map<String, Map<String, Set<String>>> changedProperties = new LinkedHashMap<>();
+    private boolean propertiesChangedScheduled;
+    /** Exported object managers by path, guarded by the lock on exportedObjects */
+    private final Map<String, _objectmanager> objectManagers = new HashMap<>();
     ObjectTree objectTree;
     private _globalhandler _globalhandlerreference;
     protected Map<DBusInterface, RemoteObject> importedObjects;
+    private final ProxyCache proxies = new ProxyCache();
+    final IntrospectionCache introspectionCache = new IntrospectionCache();
     protected Map<SignalTuple, Vector<DBusSigHandler<? extends DBusSignal>>> handledSignals;
     protected EfficientMap pendingCalls;
     protected Map<MethodCall, CallbackHandler<Object>> pendingCallbacks;
     protected Map<MethodCall, DBusAsyncReply<Object>> pendingCallbackReplys;
-    protected LinkedList<Runnable> runnables;
-    protected LinkedList<_workerthread> workers;
+    protected volatile ExecutorService workers;
     protected FallbackContainer fallbackcontainer;
-    protected boolean _run;
+    protected volatile boolean _run;
     EfficientQueue outgoing;
     LinkedList<Error> pendingErrors;
     static final Map<Thread, DBusCallInfo> infomap = new HashMap<>();
     protected _thread thread;
-    protected _sender sender;
-    protected Transport transport;
+    private final _sender sender;
+    private boolean sending;
+    protected volatile Transport transport;
+    private ScheduledFuture<?> heartbeat;
     protected String addr;
     protected boolean weakreferences = false;
     static final Pattern dollar_pattern = Pattern.compile("[$]");
     static final boolean FLOAT_SUPPORT;
-    protected boolean connected = false;
+    static final boolean PIPELINED_AUTH;
+    protected volatile boolean connected = false;
     private ClassLoader userClassLoader;
 
     static {
         FLOAT_SUPPORT = ( null != System.getenv("DBUS_JAVA_FLOATS") );
+        PIPELINED_AUTH = ( null != System.getenv("DBUS_JAVA_PIPELINED_AUTH") );
     }
 
 
     protected AbstractConnection ( String address, ClassLoader cl ) throws DBusException {
         this.userClassLoader = cl;
         this.exportedObjects = new HashMap<>();
-        this.importedObjects = new HashMap<>();
+        this.importedObjects = Collections.synchronizedMap(new WeakHashMap<DBusInterface, RemoteObject>());
         this._globalhandlerreference = new _globalhandler();
         synchronized ( this.exportedObjects ) {
-            this.exportedObjects.put(null, new ExportedObject(this._globalhandlerreference, this.weakreferences));
+            ExportedObject eo = new ExportedObject(this._globalhandlerreference, this.weakreferences);
+            this.exportedObjects.put(null, eo);
+            this.exportTable.put(null, eo);
         }
         this.handledSignals = new HashMap<>();
         this.pendingCalls = new EfficientMap(PENDING_MAP_INITIAL_SIZE);
         this.outgoing = new EfficientQueue(PENDING_MAP_INITIAL_SIZE);
+        this.sender = new _sender(this.outgoing);
         this.pendingCallbacks = new HashMap<>();
         this.pendingCallbackReplys = new HashMap<>();
         this.pendingErrors = new LinkedList<>();
-        this.runnables = new LinkedList<>();
-        this.workers = new LinkedList<>();
+        this.workers = ConnectionRuntime.newDispatcher(ConnectionRuntime.DISPATCH_THREADS);
         this.objectTree = new ObjectTree();
         this.fallbackcontainer = new FallbackContainer();
-        synchronized ( this.workers ) {
-            for ( int i = 0; i < THREADCOUNT; i++ ) {
-                _workerthread t = new _workerthread();
-                t.start();
-                this.workers.add(t);
-            }
-        }
         this._run = true;
         this.addr = address;
     }
@@ -364,59 +464,134 @@ public abstract class AbstractConnection {
         // start listening
         this.thread = new _thread();
         this.thread.start();
-        this.sender = new _sender();
-        this.sender.start();
+
+        try {
+            String interval = getAddress().getParameter("heartbeat");
+            if ( null != interval )
+                setHeartbeat(Long.parseLong(interval));
+        }
+        catch ( ParseException Pe ) {
+            log.debug("Not starting heartbeat", Pe);
+        }
     }
 
 
     /**
      * Change the number of worker threads to receive method calls and handle signals.
-     * Default is 4 threads
+     * The threads come from a pool shared by all connections in this JVM, the count limits how many of them
+     * this connection uses at a time.
      * 
      * @param newcount
      *            The new number of worker Threads to use.
      */
     public void changeThreadCount ( byte newcount ) {
-        synchronized ( this.workers ) {
-            if ( this.workers.size() > newcount ) {
-                int n = this.workers.size() - newcount;
-                for ( int i = 0; i < n; i++ ) {
-                    _workerthread t = this.workers.removeFirst();
-                    t.halt();
-                }
-            }
-            else if ( this.workers.size() < newcount ) {
-                int n = newcount - this.workers.size();
-                for ( int i = 0; i < n; i++ ) {
-                    _workerthread t = new _workerthread();
-                    t.start();
-                    this.workers.add(t);
-                }
-            }
+        ExecutorService old;
+        synchronized ( this ) {
+            old = this.workers;
+            this.workers = ConnectionRuntime.newDispatcher(newcount);
+        }
+        old.shutdown();
+    }
+
+
+    /**
+     * Ping the peer regularly to notice a dead connection without waiting for TCP to time out.
+     * If a ping is not answered before the next one is due the connection is closed.
+     * The interval can also be given as the heartbeat parameter of the address.
+     * 
+     * @param interval
+     *            milliseconds between pings, 0 to stop
+     */
+    public synchronized void setHeartbeat ( long interval ) {
+        if ( null != this.heartbeat ) {
+            this.heartbeat.cancel(false);
+            this.heartbeat = null;
         }
+        if ( interval > 0 && this.connected )
+            this.heartbeat = ConnectionRuntime.getTimer().scheduleWithFixedDelay(new _heartbeat(), interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * @return a Peer.Ping call to the other end of the connection
+     */
+    MethodCall createPing () throws DBusException {
+        return new MethodCall(null, "/", "org.freedesktop.DBus.Peer", "Ping", (byte) 0, null);
     }
 
 
     private void addRunnable ( Runnable r ) {
-        synchronized ( this.runnables ) {
-            this.runnables.add(r);
-            this.runnables.notifyAll();
+        try {
+            this.workers.execute(r);
+        }
+        catch ( RejectedExecutionException REe ) {
+            log.debug("Dropping task after disconnect", REe);
+        }
+    }
+
+
+    /**
+     * @param i
+     * @return the remote object a proxy of this connection refers to, null if it is none
+     */
+    RemoteObject getImportedObject ( DBusInterface i ) {
+        if ( Proxy.isProxyClass(i.getClass()) ) {
+            InvocationHandler h = Proxy.getInvocationHandler(i);
+            if ( h instanceof RemoteInvocationHandler && this == ( (RemoteInvocationHandler) h ).conn )
+                return ( (RemoteInvocationHandler) h ).remote;
         }
+        return this.importedObjects.get(i);
+    }
+
+
+    /**
+     * Get the proxy for a remote object with a single interface, reusing a proxy still in use for the
+     * same bus name, object path, interface and autostart setting.
+     *
+     * @param ro
+     * @return the proxy
+     */
+    DBusInterface getProxy ( RemoteObject ro ) {
+        return getProxy(ro, ro.iface.getClassLoader(), new Class<?>[] {
+            ro.iface
+        });
+    }
+
+
+    /**
+     * Get the proxy implementing several interfaces for a remote object, reusing a proxy still in use for
+     * the same bus name, object path, interfaces and autostart setting.
+     *
+     * @param ro
+     * @param loader
+     *            class loader defining a new proxy
+     * @param ifaces
+     * @return the proxy
+     */
+    DBusInterface getProxy ( RemoteObject ro, ClassLoader loader, Class<?>[] ifaces ) {
+        DBusInterface i = this.proxies.get(ro, ifaces);
+        if ( null != i )
+            return i;
+        i = (DBusInterface) Proxy.newProxyInstance(loader, ifaces, new RemoteInvocationHandler(this, ro));
+        DBusInterface cached = this.proxies.put(ro, ifaces, i);
+        if ( cached == i )
+            this.importedObjects.put(i, ro);
+        return cached;
     }
 
 
     String getExportedObject ( DBusInterface i ) throws DBusException {
+        if ( i instanceof PathReference )
+            return ( (PathReference) i ).path;
         synchronized ( this.exportedObjects ) {
-            for ( String s : this.exportedObjects.keySet() ) {
-                Object o = this.exportedObjects.get(s).object.get();
-                if ( o != null && i.equals(o) )
-                    return s;
-            }
+            String s = this.exportedPaths.get(i);
+            if ( null != s )
+                return s;
         }
 
-        String s = this.importedObjects.get(i).objectpath;
-        if ( null != s )
-            return s;
+        RemoteObject ro = getImportedObject(i);
+        if ( null != ro )
+            return ro.objectpath;
 
         throw new DBusException("Not an object exported or imported by this connection");
     }
@@ -467,14 +642,221 @@ public abstract class AbstractConnection {
     public void exportObject ( String objectpath, DBusInterface object ) throws DBusException {
         if ( null == objectpath || "".equals(objectpath) )
             throw new DBusException("Must Specify an Object Path");
-        if ( !objectpath.matches(OBJECT_REGEX) || objectpath.length() > MAX_NAME_LENGTH )
+        if ( !NameValidator.isObjectPath(objectpath) || objectpath.length() > MAX_NAME_LENGTH )
             throw new DBusException("Invalid object path: " + objectpath);
+        ExportedObject eo;
+        List<_objectmanager> managers;
         synchronized ( this.exportedObjects ) {
             if ( null != this.exportedObjects.get(objectpath) )
                 throw new DBusException("Object already exported");
-            ExportedObject eo = new ExportedObject(object, this.weakreferences);
+            eo = new ExportedObject(object, this.weakreferences);
             this.exportedObjects.put(objectpath, eo);
+            this.exportTable.put(objectpath, eo);
+            this.exportedPaths.add(object, objectpath);
             this.objectTree.add(objectpath, eo, eo.introspectiondata);
+            if ( object instanceof _objectmanager )
+                this.objectManagers.put(objectpath, (_objectmanager) object);
+            managers = getObjectManagers(objectpath);
+        }
+        sendInterfacesAdded(managers, objectpath, object, eo);
+    }
+
+
+    /**
+     * Export an org.freedesktop.DBus.ObjectManager.
+     * It lists all objects exported below its path with their interfaces, and the properties of those implementing
+     * DBus.Properties, in a single reply. It sends InterfacesAdded and InterfacesRemoved signals whenever objects
+     * below its path are exported or unexported. Unexport it with {@link #unExportObject(String)}.
+     * 
+     * @param objectpath
+     *            The path of the object manager, usually the root of the objects the application exports.
+     * @throws DBusException
+     *             If the objectpath is already exporting an object.
+     *             or if objectpath is incorrectly formatted,
+     */
+    public void exportObjectManager ( String objectpath ) throws DBusException {
+        exportObject(objectpath, new _objectmanager(objectpath));
+    }
+
+
+    /**
+     * Export many objects at once.
+     * The introspection tree is updated once for all of them. Either all objects are exported or, if one of the paths is invalid or
+     * already in use, none.
+     * 
+     * @param objects
+     *            The objects to export by object path, see {@link #exportObject(String, DBusInterface)}.
+     * @throws DBusException
+     *             If an objectpath is already exporting an object or is incorrectly formatted, or an object is null.
+     */
+    public void exportObjects ( Map<String, ? extends DBusInterface> objects ) throws DBusException {
+        for ( Map.Entry<String, ? extends DBusInterface> e : objects.entrySet() ) {
+            String objectpath = e.getKey();
+            if ( null == objectpath || "".equals(objectpath) )
+                throw new DBusException("Must Specify an Object Path");
+            if ( !NameValidator.isObjectPath(objectpath) || objectpath.length() > MAX_NAME_LENGTH )
+                throw new DBusException("Invalid object path: " + objectpath);
+            if ( null == e.getValue() )
+                throw new DBusException("No object to export at " + objectpath);
+        }
+        Map<String, ExportedObject> eos = new LinkedHashMap<>(objects.size() * 4 / 3 + 1);
+        for ( Map.Entry<String, ? extends DBusInterface> e : objects.entrySet() )
+            eos.put(e.getKey(), new ExportedObject(e.getValue(), this.weakreferences));
+        Map<String, List<_objectmanager>> managers = new HashMap<>();
+        synchronized ( this.exportedObjects ) {
+            for ( String objectpath : eos.keySet() )
+                if ( null != this.exportedObjects.get(objectpath) )
+                    throw new DBusException("Object already exported: " + objectpath);
+            for ( Map.Entry<String, ExportedObject> e : eos.entrySet() ) {
+                ExportedObject eo = e.getValue();
+                this.exportedObjects.put(e.getKey(), eo);
+                this.exportTable.put(e.getKey(), eo);
+                this.exportedPaths.add(eo.object.get(), e.getKey());
+                if ( objects.get(e.getKey()) instanceof _objectmanager )
+                    this.objectManagers.put(e.getKey(), (_objectmanager) objects.get(e.getKey()));
+            }
+            this.objectTree.addAll(eos);
+            if ( !this.objectManagers.isEmpty() )
+                for ( String objectpath : eos.keySet() )
+                    managers.put(objectpath, getObjectManagers(objectpath));
+        }
+        for ( Map.Entry<String, List<_objectmanager>> e : managers.entrySet() )
+            sendInterfacesAdded(e.getValue(), e.getKey(), objects.get(e.getKey()), eos.get(e.getKey()));
+    }
+
+
+    /**
+     * Set how long changes of properties exported with {@link DBusProperty} are collected before they are sent.
+     * All properties of an object and interface changed in that time are sent in a single PropertiesChanged signal.
+     * 
+     * @param interval
+     *            The time in ms, 0 to send them as soon as possible.
+     */
+    public void setPropertiesChangedInterval ( long interval ) {
+        this.propertiesChangedInterval = Math.max(0, interval);
+    }
+
+
+    /**
+     * Tell the connection that a property of an exported object changed.
+     * Properties exported with {@link DBusProperty} are read once for GetAll and GetManagedObjects until they
+     * change. Changes made through Set are noticed by the connection, but an application changing a property
+     * in any other way has to call this, or GetAll keeps returning the old value while Get returns the new one.
+     * The new value is sent in a PropertiesChanged signal, together with the other properties changed in the
+     * same interval, on every path the object is exported on.
+     * 
+     * @param object
+     *            The exported object.
+     * @param property
+     *            The name of the property.
+     * @throws DBusException
+     *             If the object is not exported or has no property of that name.
+     */
+    public void propertyChanged ( DBusInterface object, String property ) throws DBusException {
+        Map<String, ExportedObject> eos = getExports(object);
+        ExportedObject eo = eos.isEmpty() ? null : eos.values().iterator().next();
+        if ( null == eo || null == eo.properties )
+            throw new DBusException("Not an exported object with properties");
+        List<ExportedProperties.Property> ps = eo.properties.find(property);
+        if ( ps.isEmpty() )
+            throw new DBusException("Unknown property: " + property);
+        for ( Map.Entry<String, ExportedObject> e : eos.entrySet() )
+            propertiesChanged(e.getKey(), e.getValue(), ps);
+    }
+
+
+    /**
+     * @return the exports of an object by object path, empty if it is not exported
+     */
+    private Map<String, ExportedObject> getExports ( Object object ) {
+        Map<String, ExportedObject> eos = new LinkedHashMap<>();
+        synchronized ( this.exportedObjects ) {
+            for ( String objectpath : this.exportedPaths.getAll(object) ) {
+                ExportedObject eo = this.exportedObjects.get(objectpath);
+                if ( null != eo )
+                    eos.put(objectpath, eo);
+            }
+        }
+        return eos;
+    }
+
+
+    private void propertiesChanged ( String objectpath, ExportedObject eo, Collection<ExportedProperties.Property> ps ) {
+        for ( ExportedProperties.Property p : ps )
+            eo.invalidateProperties(p.iface);
+        synchronized ( this.changedProperties ) {
+            Map<String, Set<String>> ifaces = this.changedProperties.get(objectpath);
+            if ( null == ifaces ) {
+                ifaces = new LinkedHashMap<>();
+                this.changedProperties.put(objectpath, ifaces);
+            }
+            for ( ExportedProperties.Property p : ps ) {
+                Set<String> names = ifaces.get(p.iface);
+                if ( null == names ) {
+                    names = new LinkedHashSet<>();
+                    ifaces.put(p.iface, names);
+                }
+                names.add(p.name);
+            }
+            if ( this.propertiesChangedScheduled )
+                return;
+            this.propertiesChangedScheduled = true;
+        }
+        ConnectionRuntime.getTimer().schedule(new Runnable() {
+
+            @Override
+            public void run () {
+                addRunnable(new Runnable() {
+
+                    @Override
+                    public void run () {
+                        sendPropertiesChanged();
+                    }
+                });
+            }
+        }, this.propertiesChangedInterval, TimeUnit.MILLISECONDS);
+    }
+
+
+    private void sendPropertiesChanged () {
+        Map<String, Map<String, Set<String>>> changed;
+        synchronized ( this.changedProperties ) {
+            changed = new LinkedHashMap<>(this.changedProperties);
+            this.changedProperties.clear();
+            this.propertiesChangedScheduled = false;
+        }
+        for ( Map.Entry<String, Map<String, Set<String>>> e : changed.entrySet() ) {
+            ExportedObject eo = this.exportTable.lookup(e.getKey());
+            if ( null == eo || null == eo.properties || null == eo.object.get() )
+                continue;
+            for ( Map.Entry<String, Set<String>> i : e.getValue().entrySet() ) {
+                Map<String, Variant<?>> values = new LinkedHashMap<>();
+                List<String> invalidated = new ArrayList<>();
+                for ( String name : i.getValue() ) {
+                    ExportedProperties.Property p = eo.properties.get(i.getKey(), name);
+                    if ( null == p )
+                        continue;
+                    Variant<?> v = null;
+                    if ( null != p.getter ) {
+                        try {
+                            v = eo.getProperty(p);
+                        }
+                        catch ( DBusExecutionException DBEe ) {
+                            log.debug("Failed to get property " + name, DBEe);
+                        }
+                    }
+                    if ( null == v )
+                        invalidated.add(name);
+                    else
+                        values.put(name, v);
+                }
+                try {
+                    sendSignal(new DBus.Properties.PropertiesChanged(e.getKey(), i.getKey(), values, invalidated));
+                }
+                catch ( DBusException DBe ) {
+                    log.warn("Failed to send PropertiesChanged for " + e.getKey(), DBe);
+                }
+            }
         }
     }
 
@@ -495,7 +877,7 @@ public abstract class AbstractConnection {
     public void addFallback ( String objectprefix, DBusInterface object ) throws DBusException {
         if ( null == objectprefix || "".equals(objectprefix) )
             throw new DBusException("Must Specify an Object Path");
-        if ( !objectprefix.matches(OBJECT_REGEX) || objectprefix.length() > MAX_NAME_LENGTH )
+        if ( !NameValidator.isObjectPath(objectprefix) || objectprefix.length() > MAX_NAME_LENGTH )
             throw new DBusException("Invalid object path: " + objectprefix);
         ExportedObject eo = new ExportedObject(object, this.weakreferences);
         this.fallbackcontainer.add(objectprefix, eo);
@@ -520,9 +902,112 @@ public abstract class AbstractConnection {
      *            The objectpath to stop exporting.
      */
     public void unExportObject ( String objectpath ) {
+        ExportedObject eo;
+        List<_objectmanager> managers;
         synchronized ( this.exportedObjects ) {
-            this.exportedObjects.remove(objectpath);
+            eo = this.exportedObjects.remove(objectpath);
+            this.exportTable.remove(objectpath);
+            if ( null != eo )
+                this.exportedPaths.remove(eo.object.get(), objectpath);
             this.objectTree.remove(objectpath);
+            this.objectManagers.remove(objectpath);
+            managers = getObjectManagers(objectpath);
+        }
+        if ( null != eo )
+            sendInterfacesRemoved(managers, objectpath, eo);
+    }
+
+
+    /**
+     * Stop exporting several objects at once.
+     * 
+     * @param objectpaths
+     *            The objectpaths to stop exporting.
+     */
+    public void unExportObjects ( Collection<String> objectpaths ) {
+        Map<String, ExportedObject> removed = new LinkedHashMap<>();
+        Map<String, List<_objectmanager>> managers = new HashMap<>();
+        synchronized ( this.exportedObjects ) {
+            for ( String objectpath : objectpaths ) {
+                ExportedObject eo = this.exportedObjects.remove(objectpath);
+                this.exportTable.remove(objectpath);
+                if ( null != eo ) {
+                    this.exportedPaths.remove(eo.object.get(), objectpath);
+                    removed.put(objectpath, eo);
+                }
+                this.objectManagers.remove(objectpath);
+            }
+            this.objectTree.removeAll(objectpaths);
+            if ( !this.objectManagers.isEmpty() )
+                for ( String objectpath : removed.keySet() )
+                    managers.put(objectpath, getObjectManagers(objectpath));
+        }
+        for ( Map.Entry<String, List<_objectmanager>> e : managers.entrySet() )
+            sendInterfacesRemoved(e.getValue(), e.getKey(), removed.get(e.getKey()));
+    }
+
+
+    /**
+     * @return the object managers whose objects include the path, the lock on exportedObjects must be held
+     */
+    private List<_objectmanager> getObjectManagers ( String objectpath ) {
+        if ( this.objectManagers.isEmpty() )
+            return Collections.emptyList();
+        List<_objectmanager> managers = new ArrayList<>(1);
+        for ( _objectmanager om : this.objectManagers.values() )
+            if ( om.manages(objectpath) )
+                managers.add(om);
+        return managers;
+    }
+
+
+    /**
+     * @return the interfaces of an exported object with their properties, as listed by object managers
+     */
+    private static Map<String, Map<String, Variant<?>>> getManagedInterfaces ( DBusInterface object, ExportedObject eo ) {
+        Map<String, Map<String, Variant<?>>> ifaces = new LinkedHashMap<>();
+        for ( String iface : eo.interfaces ) {
+            Map<String, Variant<?>> props = null;
+            if ( ( null != eo.properties || object instanceof DBus.Properties ) && !iface.startsWith("org.freedesktop.DBus.") ) {
+                try {
+                    if ( null != eo.properties )
+                        props = eo.getProperties(iface);
+                    else
+                        props = ( (DBus.Properties) object ).GetAll(iface);
+                }
+                catch ( RuntimeException e ) {
+                    log.debug("Failed to get properties of " + iface, e);
+                }
+            }
+            ifaces.put(iface, null == props ? Collections.<String, Variant<?>> emptyMap() : props);
+        }
+        return ifaces;
+    }
+
+
+    private void sendInterfacesAdded ( List<_objectmanager> managers, String objectpath, DBusInterface object, ExportedObject eo ) {
+        if ( managers.isEmpty() || null == object )
+            return;
+        Map<String, Map<String, Variant<?>>> ifaces = getManagedInterfaces(object, eo);
+        for ( _objectmanager om : managers ) {
+            try {
+                sendSignal(new DBus.ObjectManager.InterfacesAdded(om.objectpath, new PathReference(objectpath), ifaces));
+            }
+            catch ( DBusException DBe ) {
+                log.warn("Failed to send InterfacesAdded for " + objectpath, DBe);
+            }
+        }
+    }
+
+
+    private void sendInterfacesRemoved ( List<_objectmanager> managers, String objectpath, ExportedObject eo ) {
+        for ( _objectmanager om : managers ) {
+            try {
+                sendSignal(new DBus.ObjectManager.InterfacesRemoved(om.objectpath, new PathReference(objectpath), eo.interfaces));
+            }
+            catch ( DBusException DBe ) {
+                log.warn("Failed to send InterfacesRemoved for " + objectpath, DBe);
+            }
         }
     }
 
@@ -560,14 +1045,24 @@ public abstract class AbstractConnection {
     }
 
 
-    void queueOutgoing ( Message m ) {
-        synchronized ( this.outgoing ) {
-            if ( null == this.outgoing )
-                return;
-            this.outgoing.add(m);
-            log.debug("Notifying outgoing thread");
-            this.outgoing.notifyAll();
+    /**
+     * @return false if the connection is closed and the message was dropped
+     */
+    boolean queueOutgoing ( Message m ) {
+        EfficientQueue q = this.outgoing;
+        if ( null == q )
+            return false;
+        synchronized ( q ) {
+            if ( q != this.outgoing )
+                return false;
+            q.add(m);
+            if ( this.sending )
+                return true;
+            this.sending = true;
         }
+        log.debug("Scheduling outgoing queue");
+        ConnectionRuntime.getSender().execute(this.sender);
+        return true;
     }
 
 
@@ -605,8 +1100,8 @@ public abstract class AbstractConnection {
     public <T extends DBusSignal> void removeSigHandler ( Class<T> type, DBusInterface object, DBusSigHandler<T> handler ) throws DBusException {
         if ( !DBusSignal.class.isAssignableFrom(type) )
             throw new ClassCastException("Not A DBus Signal");
-        String objectpath = this.importedObjects.get(object).objectpath;
-        if ( !objectpath.matches(OBJECT_REGEX) || objectpath.length() > MAX_NAME_LENGTH )
+        String objectpath = getImportedObject(object).objectpath;
+        if ( !NameValidator.isObjectPath(objectpath) || objectpath.length() > MAX_NAME_LENGTH )
             throw new DBusException("Invalid object path: " + objectpath);
         removeSigHandler(new DBusMatchRule(type, null, objectpath), handler);
     }
@@ -653,8 +1148,8 @@ public abstract class AbstractConnection {
     public <T extends DBusSignal> void addSigHandler ( Class<T> type, DBusInterface object, DBusSigHandler<T> handler ) throws DBusException {
         if ( !DBusSignal.class.isAssignableFrom(type) )
             throw new ClassCastException("Not A DBus Signal");
-        String objectpath = this.importedObjects.get(object).objectpath;
-        if ( !objectpath.matches(OBJECT_REGEX) || objectpath.length() > MAX_NAME_LENGTH )
+        String objectpath = getImportedObject(object).objectpath;
+        if ( !NameValidator.isObjectPath(objectpath) || objectpath.length() > MAX_NAME_LENGTH )
             throw new DBusException("Invalid object path: " + objectpath);
         addSigHandler(new DBusMatchRule(type, null, objectpath), (DBusSigHandler<? extends DBusSignal>) handler);
     }
@@ -695,18 +1190,23 @@ public abstract class AbstractConnection {
 
         log.info("Disconnecting Abstract Connection");
 
-        // run all pending tasks.
-        while ( this.runnables.size() > 0 )
-            synchronized ( this.runnables ) {
-                this.runnables.notifyAll();
-            }
-
         // stop the main thread
         this._run = false;
 
-        // unblock the sending thread.
-        synchronized ( this.outgoing ) {
-            this.outgoing.notifyAll();
+        // flush the outbound queue before disconnect, anything left fails as disconnected.
+        // A running sender flushes it itself, so that only one thread ever writes to the transport.
+        EfficientQueue ogq = this.outgoing;
+        if ( null != ogq ) {
+            boolean flush;
+            synchronized ( ogq ) {
+                this.outgoing = null;
+                flush = !this.sending;
+                this.sending = true;
+            }
+            if ( flush ) {
+                log.info("Flushing outbound queue");
+                this.sender.run();
+            }
         }
 
         // disconnect from the trasport layer
@@ -720,15 +1220,11 @@ public abstract class AbstractConnection {
             log.error("Error in disconnect", IOe);
         }
 
-        // stop all the workers
-        synchronized ( this.workers ) {
-            for ( _workerthread t : this.workers )
-                t.halt();
-        }
+        setHeartbeat(0);
 
-        // make sure none are blocking on the runnables queue still
-        synchronized ( this.runnables ) {
-            this.runnables.notifyAll();
+        // stop dispatching once all pending tasks have run
+        synchronized ( this ) {
+            this.workers.shutdown();
         }
     }
 
@@ -775,7 +1271,7 @@ public abstract class AbstractConnection {
         Class<?>[] types = new Class[parameters.length];
         for ( int i = 0; i < parameters.length; i++ )
             types[ i ] = parameters[ i ].getClass();
-        RemoteObject ro = this.importedObjects.get(object);
+        RemoteObject ro = getImportedObject(object);
 
         try {
             Method me;
@@ -815,7 +1311,7 @@ public abstract class AbstractConnection {
         Class<?>[] types = new Class[parameters.length];
         for ( int i = 0; i < parameters.length; i++ )
             types[ i ] = parameters[ i ].getClass();
-        RemoteObject ro = this.importedObjects.get(object);
+        RemoteObject ro = getImportedObject(object);
 
         try {
             Method me;
@@ -851,9 +1347,7 @@ public abstract class AbstractConnection {
 
         if ( null == m.getInterface() || m.getInterface().equals("org.freedesktop.DBus.Peer")
                 || m.getInterface().equals("org.freedesktop.DBus.Introspectable") ) {
-            synchronized ( this.exportedObjects ) {
-                eo = this.exportedObjects.get(null);
-            }
+            eo = this.exportTable.get(null);
             if ( null != eo && null == eo.object.get() ) {
                 unExportObject(null);
                 eo = null;
@@ -869,17 +1363,16 @@ public abstract class AbstractConnection {
         if ( null == o ) {
             // now check for specific exported functions
 
-            synchronized ( this.exportedObjects ) {
-                eo = this.exportedObjects.get(m.getPath());
-            }
+            // the exported object, or the fallback if there is none
+            eo = this.exportTable.lookup(m.getPath());
             if ( null != eo && null == eo.object.get() ) {
-                log.info("Unexporting " + m.getPath() + " implicitly");
-                unExportObject(m.getPath());
-                eo = null;
-            }
-
-            if ( null == eo ) {
+                if ( eo == this.exportTable.get(m.getPath()) ) {
+                    log.info("Unexporting " + m.getPath() + " implicitly");
+                    unExportObject(m.getPath());
+                }
                 eo = this.fallbackcontainer.get(m.getPath());
+                if ( null != eo && null == eo.object.get() )
+                    eo = null;
             }
 
             if ( null == eo ) {
@@ -911,6 +1404,8 @@ public abstract class AbstractConnection {
                 return;
             }
             o = eo.object.get();
+            if ( null != eo.properties && DBus.Properties.class.equals(meth.getDeclaringClass()) )
+                o = new _propertieshandler(m.getPath(), eo);
         }
 
         // now execute it
@@ -1226,6 +1721,7 @@ public abstract class AbstractConnection {
 
 
     protected void sendMessage ( Message m ) {
+        Transport t = this.transport;
         try {
             if ( !this.connected )
                 throw new NotConnected("Disconnected");
@@ -1249,7 +1745,7 @@ public abstract class AbstractConnection {
                         }
             }
 
-            this.transport.mout.writeMessage(m);
+            t.mout.writeMessage(m);
 
         }
         catch ( Exception e ) {
@@ -1285,7 +1781,7 @@ public abstract class AbstractConnection {
                 }
             else if ( m instanceof MethodReturn )
                 try {
-                    this.transport.mout.writeMessage(new Error(m, e));
+                    t.mout.writeMessage(new Error(m, e));
                 }
                 catch ( IOException IOe ) {
                     log.warn("Failed to write return message", IOe);
@@ -1294,17 +1790,40 @@ public abstract class AbstractConnection {
                     log.warn("Failed to write return message", e);
                 }
             if ( e instanceof IOException )
-                disconnect();
+                transportFailed(t);
         }
     }
 
 
-    Message readIncoming () throws DBusException {
+    /**
+     * Called when reading from or writing to a transport failed.
+     * 
+     * @param t
+     *            the transport which failed
+     */
+    void transportFailed ( Transport t ) {
+        disconnect();
+    }
+
+
+    /**
+     * Wait for the connection to come back after the transport failed.
+     * 
+     * @param timeout
+     *            milliseconds to wait at most
+     * @return whether the connection is usable again
+     */
+    boolean awaitReconnect ( long timeout ) {
+        return false;
+    }
+
+
+    Message readIncoming ( Transport t ) throws DBusException {
         if ( !this.connected )
             throw new NotConnected("No transport present");
         Message m = null;
         try {
-            m = this.transport.min.readMessage();
+            m = t.min.readMessage();
         }
         catch ( IOException IOe ) {
             throw new FatalDBusException(IOe.getMessage(), IOe);
@@ -0,0 +1,251 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus;
+
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Threads shared by all connections in the JVM.
+ *
+ * Method calls, signal handlers and callbacks of every connection run on one dispatch pool, and the
+ * outgoing queues of all connections are written by one sender pool. Both pools start a thread whenever
+ * none is free, so a handler blocking on a call to another connection in this JVM, or a write to a peer
+ * which stopped reading, only holds up its own connection. Threads expire when idle, so an idle process
+ * holds no threads beyond each connection's reader.
+ *
+ * Each connection runs at most a fixed number of tasks on the dispatch pool at a time and queues the rest,
+ * see newDispatcher. The limit defaults to a multiple of the number of processors and can be set by the
+ * DBUS_JAVA_DISPATCH_THREADS environment variable. Each connection has at most one task in the sender
+ * pool, so its messages are sent in order.
+ */
+final class ConnectionRuntime {
+
+    /** Seconds after which an idle pool thread exits */
+    static final long IDLE_TIMEOUT = 60;
+
+    private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+    /** Tasks a connection runs on the dispatch pool at a time by default */
+    static final int DISPATCH_THREADS = getThreads("DBUS_JAVA_DISPATCH_THREADS", Math.max(4, 2 * PROCESSORS));
+    private static final ExecutorService dispatcher = newSharedPool("DBus Worker");
+    private static final ExecutorService sender = newSharedPool("DBus Sender");
+    private static final ExecutorService reconnector = newSharedPool("DBus Reconnect");
+    private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new Factory("DBus Timer"));
+
+    static {
+        timer.setKeepAliveTime(IDLE_TIMEOUT, TimeUnit.SECONDS);
+        timer.allowCoreThreadTimeOut(true);
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    private static class Factory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+
+        Factory ( String name ) {
+            this.name = name;
+        }
+
+
+        @Override
+        public Thread newThread ( Runnable r ) {
+            Thread t = new Thread(r, this.name + "-" + this.count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+
+    /**
+     * Runs at most a fixed number of tasks at a time on the shared dispatch pool and queues the rest in order.
+     * A pool thread which finished a task takes the next queued one of the same connection.
+     */
+    private static class LimitedDispatcher extends AbstractExecutorService {
+
+        private final int threads;
+        private final LinkedList<Runnable> queue = new LinkedList<>();
+        private int running;
+        private boolean shutdown;
+
+
+        LimitedDispatcher ( int threads ) {
+            this.threads = threads;
+        }
+
+
+        @Override
+        public void execute ( final Runnable r ) {
+            synchronized ( this ) {
+                if ( this.shutdown )
+                    throw new RejectedExecutionException("Dispatcher has been shut down");
+                if ( this.running >= this.threads ) {
+                    this.queue.add(r);
+                    return;
+                }
+                this.running++;
+            }
+            try {
+                dispatcher.execute(new Runnable() {
+
+                    @Override
+                    public void run () {
+                        drain(r);
+                    }
+                });
+            }
+            catch ( RejectedExecutionException REe ) {
+                finished();
+                throw REe;
+            }
+        }
+
+
+        void drain ( Runnable r ) {
+            while ( null != r ) {
+                try {
+                    r.run();
+                }
+                catch ( RuntimeException RTe ) {
+                    AbstractConnection.log.warn("Task failed", RTe);
+                }
+                synchronized ( this ) {
+                    r = this.queue.poll();
+                    if ( null == r )
+                        finished();
+                }
+            }
+        }
+
+
+        private synchronized void finished () {
+            this.running--;
+            if ( 0 == this.running )
+                this.notifyAll();
+        }
+
+
+        @Override
+        public synchronized void shutdown () {
+            this.shutdown = true;
+        }
+
+
+        @Override
+        public List<Runnable> shutdownNow () {
+            synchronized ( this ) {
+                this.shutdown = true;
+                List<Runnable> rv = new ArrayList<>(this.queue);
+                this.queue.clear();
+                return rv;
+            }
+        }
+
+
+        @Override
+        public synchronized boolean isShutdown () {
+            return this.shutdown;
+        }
+
+
+        @Override
+        public synchronized boolean isTerminated () {
+            return this.shutdown && 0 == this.running;
+        }
+
+
+        @Override
+        public synchronized boolean awaitTermination ( long timeout, TimeUnit unit ) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while ( !isTerminated() ) {
+                long left = deadline - System.nanoTime();
+                if ( left <= 0 )
+                    return false;
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+            return true;
+        }
+    }
+
+
+    private ConnectionRuntime () {}
+
+
+    private static int getThreads ( String variable, int defaultThreads ) {
+        String s = System.getenv(variable);
+        if ( null != s ) {
+            try {
+                int threads = Integer.parseInt(s.trim());
+                if ( threads > 0 )
+                    return threads;
+            }
+            catch ( NumberFormatException NFe ) {}
+            AbstractConnection.log.warn("Ignoring invalid " + variable + " " + s);
+        }
+        return defaultThreads;
+    }
+
+
+    private static ExecutorService newSharedPool ( String name ) {
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, IDLE_TIMEOUT, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new Factory(name));
+    }
+
+
+    /**
+     * @return the pool connecting lost connections again, apart from the dispatch pool since reconnecting
+     *         blocks on the bus
+     */
+    static ExecutorService getReconnector () {
+        return reconnector;
+    }
+
+
+    /**
+     * @return the pool draining outgoing message queues
+     */
+    static ExecutorService getSender () {
+        return sender;
+    }
+
+
+    /**
+     * @return the timer for periodic connection tasks
+     */
+    static ScheduledExecutorService getTimer () {
+        return timer;
+    }
+
+
+    /**
+     * Create the dispatcher of a single connection, it must be shut down by the connection.
+     *
+     * @param threads
+     *            number of tasks of the connection running at a time
+     * @return an executor running its tasks on the shared dispatch pool
+     */
+    static ExecutorService newDispatcher ( int threads ) {
+        return new LimitedDispatcher(Math.max(1, threads));
+    }
+}
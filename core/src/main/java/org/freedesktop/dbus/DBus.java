@@ -102,6 +102,25 @@ public interface DBus extends DBusInterface {
          * @return The properties mapped to their values.
          */
         public Map<String, Variant<?>> GetAll ( String interface_name );
+
+        /**
+         * Signal generated when properties of an object change.
+         */
+        public static class PropertiesChanged extends DBusSignal {
+
+            public final String interface_name;
+            public final Map<String, Variant<?>> changed_properties;
+            public final List<String> invalidated_properties;
+
+
+            public PropertiesChanged ( String path, String interface_name, Map<String, Variant<?>> changed_properties,
+                    List<String> invalidated_properties ) throws DBusException {
+                super(path, interface_name, changed_properties, invalidated_properties);
+                this.interface_name = interface_name;
+                this.changed_properties = changed_properties;
+                this.invalidated_properties = invalidated_properties;
+            }
+        }
     }
 
     /**
@@ -407,6 +426,28 @@ public interface DBus extends DBusInterface {
                 super(message);
             }
         }
+
+        /**
+         * Thrown if the property asked for does not exist
+         */
+        @SuppressWarnings ( "serial" )
+        public class UnknownProperty extends DBusExecutionException {
+
+            public UnknownProperty ( String message ) {
+                super(message);
+            }
+        }
+
+        /**
+         * Thrown if a property which can not be written was set
+         */
+        @SuppressWarnings ( "serial" )
+        public class PropertyReadOnly extends DBusExecutionException {
+
+            public PropertyReadOnly ( String message ) {
+                super(message);
+            }
+        }
     }
 
     /**
@@ -436,6 +477,14 @@ public interface DBus extends DBusInterface {
         @Retention ( RetentionPolicy.RUNTIME )
         public @interface NoReply {}
 
+        /**
+         * Calls to methods annotated with this are sent again if the connection was lost before the reply
+         * arrived and the connection reconnects automatically. Used by dbus-java only.
+         */
+        @Target ( ElementType.METHOD )
+        @Retention ( RetentionPolicy.RUNTIME )
+        public @interface Idempotent {}
+
         /**
          * Give an error that the method can return
          */
@@ -15,9 +15,9 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.lang.reflect.Proxy;
 import java.text.ParseException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -25,6 +25,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.freedesktop.dbus.exceptions.DBusException;
@@ -207,19 +209,7 @@ public class DBusConnection extends AbstractConnection implements AutoCloseable
             if ( s instanceof org.freedesktop.dbus.DBus.Local.Disconnected ) {
                 log.info("Handling Disconnected signal from bus");
                 try {
-                    Error err = new Error("org.freedesktop.DBus.Local", "org.freedesktop.DBus.Local.Disconnected", 0, "s", new Object[] {
-                        "Disconnected"
-                    });
-                    if ( null != DBusConnection.this.pendingCalls )
-                        synchronized ( DBusConnection.this.pendingCalls ) {
-                            long[] set = DBusConnection.this.pendingCalls.getKeys();
-                            for ( long l : set )
-                                if ( -1 != l ) {
-                                    MethodCall m = DBusConnection.this.pendingCalls.remove(l);
-                                    if ( null != m )
-                                        m.setReply(err);
-                                }
-                        }
+                    Error err = failPendingCalls();
                     synchronized ( DBusConnection.this.pendingErrors ) {
                         DBusConnection.this.pendingErrors.add(err);
                     }
@@ -251,6 +241,14 @@ public class DBusConnection extends AbstractConnection implements AutoCloseable
     private int _refcount = 0;
     private Object _reflock = new Object();
     private DBus _dbus;
+    /** Delay before the first reconnect attempt in ms, it doubles up to RECONNECT_MAX_DELAY */
+    static final long RECONNECT_INITIAL_DELAY = 100;
+    static final long RECONNECT_MAX_DELAY = 30000;
+    private volatile boolean autoReconnect;
+    private final Object reconnectLock = new Object();
+    private boolean reconnecting;
+    private long reconnectDelay;
+    private final Map<SignalTuple, String> matchRules = new HashMap<>();
 
 
     /**
@@ -284,6 +282,20 @@ public class DBusConnection extends AbstractConnection implements AutoCloseable
     }
 
 
+    /**
+     * Open a new connection to the BUS which is not shared. Unlike getConnection each call connects again and
+     * gets its own unique name, so a process can talk to objects it exported through another connection.
+     * 
+     * @param address
+     *            The address of the bus to connect to
+     * @throws DBusException
+     *             If there is a problem connecting to the Bus.
+     */
+    public static DBusConnection newConnection ( String address ) throws DBusException {
+        return new DBusConnection(address, null);
+    }
+
+
     /**
      * Connect to the BUS. If a connection already exists to the specified Bus, a reference to it is returned.
      * 
@@ -387,10 +399,17 @@ public class DBusConnection extends AbstractConnection implements AutoCloseable
             this._refcount = 1;
         }
 
+        MethodCall hello;
         try {
-            this.transport = new Transport(this.addr, AbstractConnection.TIMEOUT);
+            Transport t = new Transport();
+            hello = connectTransport(t);
+            this.transport = t;
             this.connected = true;
         }
+        catch ( DBusException DBe ) {
+            disconnect();
+            throw DBe;
+        }
         catch ( IOException IOe ) {
             disconnect();
             throw new DBusException("Failed to connect to bus " + IOe.getMessage(), IOe);
@@ -410,8 +429,48 @@ public class DBusConnection extends AbstractConnection implements AutoCloseable
 
         // register ourselves
         this._dbus = getRemoteObject("org.freedesktop.DBus", "/org/freedesktop/DBus", DBus.class);
+        this.busnames.add(awaitHello(hello));
+    }
+
+
+    /**
+     * Connect and authenticate a new transport. Hello goes out right behind the auth, its reply is picked up
+     * once we are listening.
+     * 
+     * @return the pending Hello call
+     */
+    private MethodCall connectTransport ( Transport t ) throws IOException, ParseException, DBusException {
+        MethodCall hello = new MethodCall("org.freedesktop.DBus", "/org/freedesktop/DBus", "org.freedesktop.DBus", "Hello", (byte) 0, null);
+        EfficientMap pc = this.pendingCalls;
+        if ( null == pc )
+            throw new NotConnected("Disconnected");
+        synchronized ( pc ) {
+            pc.put(hello.getSerial(), hello);
+        }
+        try {
+            t.connect(new BusAddress(this.addr), 0, PIPELINED_AUTH, hello);
+        }
+        catch ( IOException IOe ) {
+            synchronized ( pc ) {
+                pc.remove(hello.getSerial());
+            }
+            throw IOe;
+        }
+        return hello;
+    }
+
+
+    /**
+     * @return the unique name assigned to us
+     */
+    private String awaitHello ( MethodCall hello ) throws DBusException {
+        Message reply = hello.getReply();
+        if ( null == reply )
+            throw new DBusException("No reply within specified time");
         try {
-            this.busnames.add(this._dbus.Hello());
+            if ( reply instanceof Error )
+                ( (Error) reply ).throwException(this);
+            return (String) reply.getParameters()[ 0 ];
         }
         catch ( DBusExecutionException DBEe ) {
             throw new DBusException(DBEe.getMessage(), DBEe);
@@ -419,58 +478,245 @@ public class DBusConnection extends AbstractConnection implements AutoCloseable
     }
 
 
-    DBusInterface dynamicProxy ( String source, String path ) throws DBusException {
-        log.info("Introspecting " + path + " on " + source + " for dynamic proxy creation");
+    /**
+     * Reconnect automatically when the connection to the bus is lost.
+     * Calls waiting for a reply fail with a Disconnected error, then the connection is established again with
+     * exponential backoff. Once it is back the bus names are requested again and the match rules of the
+     * signal handlers are added again, exported objects stay exported throughout. Calls to methods annotated
+     * with DBus.Method.Idempotent wait for the reconnect and are sent again.
+     * Note that the unique name of the connection changes.
+     * 
+     * @param reconnect
+     */
+    public void setAutoReconnect ( boolean reconnect ) {
+        this.autoReconnect = reconnect;
+    }
+
+
+    @Override
+    void transportFailed ( Transport t ) {
+        if ( !this.autoReconnect || !this._run ) {
+            super.transportFailed(t);
+            return;
+        }
+
+        boolean start;
+        synchronized ( this.reconnectLock ) {
+            if ( t != this.transport )
+                return;
+            this.connected = false;
+            start = !this.reconnecting;
+            this.reconnecting = true;
+        }
         try {
-            DBus.Introspectable intro = getRemoteObject(source, path, DBus.Introspectable.class);
-            String data = intro.Introspect();
-            if ( log.isTraceEnabled() ) {
-                log.trace("Got introspection data: " + data);
-            }
-            String[] tags = data.split("[<>]");
-            Vector<String> ifaces = new Vector<>();
-            for ( String tag : tags ) {
-                if ( tag.startsWith("interface") ) {
-                    String ifName = tag.replaceAll("^interface *name *= *['\"]([^'\"]*)['\"].*$", "$1");
-                    if ( ifName.startsWith("org.freedesktop.DBus") ) {
-                        ifName = ifName.replace("org.freedesktop.DBus", "org.freedesktop.dbus.DBus");
-                    }
-                    ifaces.add(ifName);
+            t.disconnect();
+        }
+        catch ( IOException IOe ) {
+            log.debug("Failed to close transport", IOe);
+        }
+        try {
+            failPendingCalls();
+        }
+        catch ( DBusException DBe ) {
+            log.debug("Failed to fail pending calls", DBe);
+        }
+        if ( start ) {
+            log.warn("Lost connection to " + this.addr + ", reconnecting");
+            this.reconnectDelay = RECONNECT_INITIAL_DELAY;
+            scheduleReconnect();
+        }
+    }
+
+
+    @Override
+    boolean awaitReconnect ( long timeout ) {
+        long end = System.currentTimeMillis() + timeout;
+        synchronized ( this.reconnectLock ) {
+            long wait;
+            while ( this.reconnecting && this._run && ( wait = end - System.currentTimeMillis() ) > 0 ) {
+                try {
+                    this.reconnectLock.wait(wait);
+                }
+                catch ( InterruptedException Ie ) {
+                    return false;
                 }
             }
-            Vector<Class<? extends Object>> ifcs = new Vector<>();
-            for ( String iface : ifaces ) {
+            return !this.reconnecting && this._run && this.connected;
+        }
+    }
+
+
+    private void scheduleReconnect () {
+        // spread out the clients of a restarted bus
+        long delay = this.reconnectDelay / 2 + ThreadLocalRandom.current().nextLong(this.reconnectDelay / 2 + 1);
+        this.reconnectDelay = Math.min(this.reconnectDelay * 2, RECONNECT_MAX_DELAY);
+        ConnectionRuntime.getTimer().schedule(new Runnable() {
+
+            @Override
+            public void run () {
+                ConnectionRuntime.getReconnector().execute(new _reconnect());
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+
+    private class _reconnect implements Runnable {
+
+        @Override
+        public void run () {
+            if ( !DBusConnection.this._run )
+                return;
+
+            Transport t = new Transport();
+            MethodCall hello;
+            try {
+                hello = connectTransport(t);
+            }
+            catch ( IOException | ParseException | DBusException e ) {
                 if ( log.isDebugEnabled() ) {
-                    log.debug("Trying interface " + iface);
+                    log.debug("Reconnecting to " + DBusConnection.this.addr + " failed", e);
                 }
-                int j = 0;
-                while ( j >= 0 ) {
+                scheduleReconnect();
+                return;
+            }
+
+            synchronized ( DBusConnection.this.reconnectLock ) {
+                if ( !DBusConnection.this._run ) {
                     try {
-                        Class<?> ifclass = this.loadClass(iface);
-                        if ( !ifcs.contains(ifclass) )
-                            ifcs.add(ifclass);
-                        break;
+                        t.disconnect();
+                    }
+                    catch ( IOException IOe ) {
+                        log.debug("Failed to close transport", IOe);
                     }
-                    catch ( Exception e ) {}
-                    j = iface.lastIndexOf(".");
-                    char[] cs = iface.toCharArray();
-                    if ( j >= 0 ) {
-                        cs[ j ] = '$';
-                        iface = String.valueOf(cs);
+                    return;
+                }
+                DBusConnection.this.transport = t;
+                DBusConnection.this.connected = true;
+            }
+            listen();
+
+            try {
+                restore(awaitHello(hello));
+            }
+            catch ( DBusException DBe ) {
+                log.warn("Failed to register with the bus after reconnecting", DBe);
+                transportFailed(t);
+            }
+
+            boolean done = false;
+            synchronized ( DBusConnection.this.reconnectLock ) {
+                if ( DBusConnection.this.connected && t == DBusConnection.this.transport ) {
+                    DBusConnection.this.reconnecting = false;
+                    DBusConnection.this.reconnectLock.notifyAll();
+                    done = true;
+                }
+            }
+            if ( done )
+                log.info("Reconnected to " + DBusConnection.this.addr + " as " + getUniqueName());
+            else if ( DBusConnection.this._run )
+                scheduleReconnect();
+        }
+    }
+
+
+    /**
+     * Take our bus names and match rules over to a new connection to the bus
+     */
+    private void restore ( String unique ) {
+        // owners may have changed while we were away
+        this.introspectionCache.clear();
+        List<String> names = new Vector<>();
+        synchronized ( this.busnames ) {
+            for ( String name : this.busnames )
+                if ( !name.startsWith(":") && !names.contains(name) )
+                    names.add(name);
+            this.busnames.clear();
+            this.busnames.add(unique);
+        }
+        for ( String name : names ) {
+            try {
+                requestBusName(name);
+            }
+            catch ( DBusException DBe ) {
+                log.warn("Failed to request " + name + " again after reconnecting", DBe);
+            }
+        }
+
+        List<String> rules;
+        synchronized ( this.handledSignals ) {
+            rules = new Vector<>(this.matchRules.values());
+        }
+        try {
+            for ( Map.Entry<String, DBusExecutionException> e : callMatch("AddMatch", rules).entrySet() )
+                log.warn("Failed to add match rule " + e.getKey() + " again after reconnecting", e.getValue());
+        }
+        catch ( DBusException DBe ) {
+            log.warn("Failed to add match rules again after reconnecting", DBe);
+        }
+    }
+
+
+    /**
+     * Give every call still waiting for a reply a Disconnected error.
+     * 
+     * @return the error
+     */
+    private Error failPendingCalls () throws DBusException {
+        Error err = new Error("org.freedesktop.DBus.Local", "org.freedesktop.DBus.Local.Disconnected", 0, "s", new Object[] {
+            "Disconnected"
+        });
+        EfficientMap pc = this.pendingCalls;
+        if ( null != pc )
+            synchronized ( pc ) {
+                long[] set = pc.getKeys();
+                for ( long l : set )
+                    if ( -1 != l ) {
+                        MethodCall m = pc.remove(l);
+                        if ( null != m )
+                            m.setReply(err);
                     }
+            }
+        return err;
+    }
+
+
+    @Override
+    MethodCall createPing () throws DBusException {
+        return new MethodCall("org.freedesktop.DBus", "/org/freedesktop/DBus", "org.freedesktop.DBus.Peer", "Ping", (byte) 0, null);
+    }
+
+
+    DBusInterface dynamicProxy ( String source, String path ) throws DBusException {
+        try {
+            List<String> ifaces = this.introspectionCache.get(source, path);
+            if ( null == ifaces ) {
+                int generation = this.introspectionCache.generation();
+                log.info("Introspecting " + path + " on " + source + " for dynamic proxy creation");
+                DBus.Introspectable intro = getRemoteObject(source, path, DBus.Introspectable.class);
+                String data = intro.Introspect();
+                if ( log.isTraceEnabled() ) {
+                    log.trace("Got introspection data: " + data);
+                }
+                ifaces = IntrospectionCache.parseInterfaces(data);
+                this.introspectionCache.put(source, path, ifaces, generation);
+            }
+            Vector<Class<? extends Object>> ifcs = new Vector<>();
+            for ( String iface : ifaces ) {
+                if ( iface.startsWith("org.freedesktop.DBus") ) {
+                    iface = iface.replace("org.freedesktop.DBus", "org.freedesktop.dbus.DBus");
+                }
+                if ( log.isDebugEnabled() ) {
+                    log.debug("Trying interface " + iface);
                 }
+                Class<?> ifclass = this.introspectionCache.resolve(this, iface);
+                if ( null != ifclass && !ifcs.contains(ifclass) )
+                    ifcs.add(ifclass);
             }
 
             if ( ifcs.size() == 0 )
                 throw new DBusException(String.format("Could not find an interface to cast to have [%s]", ifaces));
 
-            RemoteObject ro = new RemoteObject(source, path, null, false);
-            DBusInterface newi = (DBusInterface) Proxy.newProxyInstance(
-                this.getUserClassLoader(),
-                ifcs.toArray(new Class[0]),
-                new RemoteInvocationHandler(this, ro));
-            this.importedObjects.put(newi, ro);
-            return newi;
+            return getProxy(new RemoteObject(source, path, null, false), getUserClassLoader(), ifcs.toArray(new Class<?>[0]));
         }
         catch ( DBusExecutionException e ) {
             throw e;
@@ -483,10 +729,7 @@ public class DBusConnection extends AbstractConnection implements AutoCloseable
 
     @Override
     DBusInterface getExportedObject ( String source, String path ) throws DBusException {
-        ExportedObject o = null;
-        synchronized ( this.exportedObjects ) {
-            o = this.exportedObjects.get(path);
-        }
+        ExportedObject o = this.exportTable.get(path);
         if ( null != o && null == o.object.get() ) {
             unExportObject(path);
             o = null;
@@ -509,7 +752,7 @@ public class DBusConnection extends AbstractConnection implements AutoCloseable
      *             If the busname is incorrectly formatted.
      */
     public void releaseBusName ( String busname ) throws DBusException {
-        if ( !busname.matches(BUSNAME_REGEX) || busname.length() > MAX_NAME_LENGTH )
+        if ( !NameValidator.isBusName(busname) || busname.length() > MAX_NAME_LENGTH )
             throw new DBusException("Invalid bus name");
         synchronized ( this.busnames ) {
             try {
@@ -535,7 +778,7 @@ public class DBusConnection extends AbstractConnection implements AutoCloseable
      *             or if busname is incorrectly formatted.
      */
     public void requestBusName ( String busname ) throws DBusException {
-        if ( !busname.matches(BUSNAME_REGEX) || busname.length() > MAX_NAME_LENGTH )
+        if ( !NameValidator.isBusName(busname) || busname.length() > MAX_NAME_LENGTH )
             throw new DBusException("Invalid bus name");
         synchronized ( this.busnames ) {
             UInt32 rv;
@@ -614,7 +857,7 @@ public class DBusConnection extends AbstractConnection implements AutoCloseable
         if ( null == busname )
             throw new DBusException("Invalid bus name: null");
 
-        if ( ( !busname.matches(BUSNAME_REGEX) && !busname.matches(CONNID_REGEX) ) || busname.length() > MAX_NAME_LENGTH )
+        if ( ( !NameValidator.isBusName(busname) && !NameValidator.isConnectionId(busname) ) || busname.length() > MAX_NAME_LENGTH )
             throw new DBusException("Invalid bus name: " + busname);
 
         String unique = this._dbus.GetNameOwner(busname);
@@ -655,10 +898,10 @@ public class DBusConnection extends AbstractConnection implements AutoCloseable
         if ( null == objectpath )
             throw new DBusException("Invalid object path: null");
 
-        if ( ( !busname.matches(BUSNAME_REGEX) && !busname.matches(CONNID_REGEX) ) || busname.length() > MAX_NAME_LENGTH )
+        if ( ( !NameValidator.isBusName(busname) && !NameValidator.isConnectionId(busname) ) || busname.length() > MAX_NAME_LENGTH )
             throw new DBusException("Invalid bus name: " + busname);
 
-        if ( !objectpath.matches(OBJECT_REGEX) || objectpath.length() > MAX_NAME_LENGTH )
+        if ( !NameValidator.isObjectPath(objectpath) || objectpath.length() > MAX_NAME_LENGTH )
             throw new DBusException("Invalid object path: " + objectpath);
 
         return dynamicProxy(busname, objectpath);
@@ -698,7 +941,7 @@ public class DBusConnection extends AbstractConnection implements AutoCloseable
         if ( null == busname )
             throw new DBusException("Invalid bus name: null");
 
-        if ( ( !busname.matches(BUSNAME_REGEX) && !busname.matches(CONNID_REGEX) ) || busname.length() > MAX_NAME_LENGTH )
+        if ( ( !NameValidator.isBusName(busname) && !NameValidator.isConnectionId(busname) ) || busname.length() > MAX_NAME_LENGTH )
             throw new DBusException("Invalid bus name: " + busname);
 
         String unique = this._dbus.GetNameOwner(busname);
@@ -772,10 +1015,10 @@ public class DBusConnection extends AbstractConnection implements AutoCloseable
         if ( null == type )
             throw new ClassCastException("Not A DBus Interface");
 
-        if ( ( !busname.matches(BUSNAME_REGEX) && !busname.matches(CONNID_REGEX) ) || busname.length() > MAX_NAME_LENGTH )
+        if ( ( !NameValidator.isBusName(busname) && !NameValidator.isConnectionId(busname) ) || busname.length() > MAX_NAME_LENGTH )
             throw new DBusException("Invalid bus name: " + busname);
 
-        if ( !objectpath.matches(OBJECT_REGEX) || objectpath.length() > MAX_NAME_LENGTH )
+        if ( !NameValidator.isObjectPath(objectpath) || objectpath.length() > MAX_NAME_LENGTH )
             throw new DBusException("Invalid object path: " + objectpath);
 
         if ( !DBusInterface.class.isAssignableFrom(type) )
@@ -786,12 +1029,8 @@ public class DBusConnection extends AbstractConnection implements AutoCloseable
         if ( type.getName().equals(type.getSimpleName()) )
             throw new DBusException("DBusInterfaces cannot be declared outside a package");
 
-        RemoteObject ro = new RemoteObject(busname, objectpath, type, autostart);
         @SuppressWarnings ( "unchecked" )
-        I i = (I) Proxy.newProxyInstance(type.getClassLoader(), new Class[] {
-            type
-        }, new RemoteInvocationHandler(this, ro));
-        this.importedObjects.put(i, ro);
+        I i = (I) getProxy(new RemoteObject(busname, objectpath, type, autostart));
         return i;
     }
 
@@ -812,9 +1051,9 @@ public class DBusConnection extends AbstractConnection implements AutoCloseable
     public <T extends DBusSignal> void removeSigHandler ( Class<T> type, String source, DBusSigHandler<T> handler ) throws DBusException {
         if ( !DBusSignal.class.isAssignableFrom(type) )
             throw new ClassCastException("Not A DBus Signal");
-        if ( source.matches(BUSNAME_REGEX) )
+        if ( NameValidator.isBusName(source) )
             throw new DBusException("Cannot watch for signals based on well known bus name as source, only unique names.");
-        if ( !source.matches(CONNID_REGEX) || source.length() > MAX_NAME_LENGTH )
+        if ( !NameValidator.isConnectionId(source) || source.length() > MAX_NAME_LENGTH )
             throw new DBusException("Invalid bus name: " + source);
         removeSigHandler(new DBusMatchRule(type, source, null), handler);
     }
@@ -839,12 +1078,12 @@ public class DBusConnection extends AbstractConnection implements AutoCloseable
             throws DBusException {
         if ( !DBusSignal.class.isAssignableFrom(type) )
             throw new ClassCastException("Not A DBus Signal");
-        if ( source.matches(BUSNAME_REGEX) )
+        if ( NameValidator.isBusName(source) )
             throw new DBusException("Cannot watch for signals based on well known bus name as source, only unique names.");
-        if ( !source.matches(CONNID_REGEX) || source.length() > MAX_NAME_LENGTH )
+        if ( !NameValidator.isConnectionId(source) || source.length() > MAX_NAME_LENGTH )
             throw new DBusException("Invalid bus name: " + source);
-        String objectpath = this.importedObjects.get(object).objectpath;
-        if ( !objectpath.matches(OBJECT_REGEX) || objectpath.length() > MAX_NAME_LENGTH )
+        String objectpath = getImportedObject(object).objectpath;
+        if ( !NameValidator.isObjectPath(objectpath) || objectpath.length() > MAX_NAME_LENGTH )
             throw new DBusException("Invalid object path: " + objectpath);
         removeSigHandler(new DBusMatchRule(type, source, objectpath), handler);
     }
@@ -852,26 +1091,49 @@ public class DBusConnection extends AbstractConnection implements AutoCloseable
 
     @Override
     protected <T extends DBusSignal> void removeSigHandler ( DBusMatchRule rule, DBusSigHandler<T> handler ) throws DBusException {
+        removeSigHandlers(Collections.singletonMap(rule, Collections.<DBusSigHandler<? extends DBusSignal>> singleton(handler)));
+    }
 
-        SignalTuple key = new SignalTuple(rule.getInterface(), rule.getMember(), rule.getObject(), rule.getSource());
+
+    /**
+     * Remove several signal handlers at once.
+     * The handlers are all removed before any match rule is dropped, and the RemoveMatch calls for rules
+     * without handlers left are sent to the bus without waiting for each other's reply.
+     * 
+     * @param handlers
+     *            The handlers to remove, by the rule they were added with.
+     * @throws DBusException
+     *             If removing a match rule from the bus failed.
+     */
+    public void removeSigHandlers ( Map<DBusMatchRule, ? extends Collection<? extends DBusSigHandler<? extends DBusSignal>>> handlers )
+            throws DBusException {
+        Map<SignalTuple, String> dropped = new HashMap<>();
         synchronized ( this.handledSignals ) {
-            Vector<DBusSigHandler<? extends DBusSignal>> v = this.handledSignals.get(key);
-            if ( null != v ) {
-                v.remove(handler);
-                if ( 0 == v.size() ) {
-                    this.handledSignals.remove(key);
-                    try {
-                        this._dbus.RemoveMatch(rule.toString());
-                    }
-                    catch ( NotConnected NC ) {
-                        log.warn("Not connected", NC);
-                    }
-                    catch ( DBusExecutionException DBEe ) {
-                        throw new DBusException(DBEe.getMessage(), DBEe);
+            for ( Map.Entry<DBusMatchRule, ? extends Collection<? extends DBusSigHandler<? extends DBusSignal>>> e : handlers.entrySet() ) {
+                DBusMatchRule rule = e.getKey();
+                SignalTuple key = new SignalTuple(rule.getInterface(), rule.getMember(), rule.getObject(), rule.getSource());
+                Vector<DBusSigHandler<? extends DBusSignal>> v = this.handledSignals.get(key);
+                if ( null != v ) {
+                    for ( DBusSigHandler<? extends DBusSignal> h : e.getValue() )
+                        v.remove(h);
+                    if ( 0 == v.size() ) {
+                        this.handledSignals.remove(key);
+                        this.matchRules.remove(key);
+                        dropped.put(key, rule.toString());
                     }
                 }
             }
         }
+
+        if ( !dropped.isEmpty() ) {
+            Map<String, DBusExecutionException> failed = callMatch("RemoveMatch", dropped.values());
+            for ( Map.Entry<String, DBusExecutionException> e : failed.entrySet() ) {
+                if ( e.getValue() instanceof NotConnected )
+                    log.warn("Not connected", e.getValue());
+                else
+                    throw new DBusException(e.getValue().getMessage(), e.getValue());
+            }
+        }
     }
 
 
@@ -894,9 +1156,9 @@ public class DBusConnection extends AbstractConnection implements AutoCloseable
     public <T extends DBusSignal> void addSigHandler ( Class<T> type, String source, DBusSigHandler<T> handler ) throws DBusException {
         if ( !DBusSignal.class.isAssignableFrom(type) )
             throw new ClassCastException("Not A DBus Signal");
-        if ( source.matches(BUSNAME_REGEX) )
+        if ( NameValidator.isBusName(source) )
             throw new DBusException("Cannot watch for signals based on well known bus name as source, only unique names.");
-        if ( !source.matches(CONNID_REGEX) || source.length() > MAX_NAME_LENGTH )
+        if ( !NameValidator.isConnectionId(source) || source.length() > MAX_NAME_LENGTH )
             throw new DBusException("Invalid bus name: " + source);
         addSigHandler(new DBusMatchRule(type, source, null), (DBusSigHandler<? extends DBusSignal>) handler);
     }
@@ -925,12 +1187,12 @@ public class DBusConnection extends AbstractConnection implements AutoCloseable
             throws DBusException {
         if ( !DBusSignal.class.isAssignableFrom(type) )
             throw new ClassCastException("Not A DBus Signal");
-        if ( source.matches(BUSNAME_REGEX) )
+        if ( NameValidator.isBusName(source) )
             throw new DBusException("Cannot watch for signals based on well known bus name as source, only unique names.");
-        if ( !source.matches(CONNID_REGEX) || source.length() > MAX_NAME_LENGTH )
+        if ( !NameValidator.isConnectionId(source) || source.length() > MAX_NAME_LENGTH )
             throw new DBusException("Invalid bus name: " + source);
-        String objectpath = this.importedObjects.get(object).objectpath;
-        if ( !objectpath.matches(OBJECT_REGEX) || objectpath.length() > MAX_NAME_LENGTH )
+        String objectpath = getImportedObject(object).objectpath;
+        if ( !NameValidator.isObjectPath(objectpath) || objectpath.length() > MAX_NAME_LENGTH )
             throw new DBusException("Invalid object path: " + objectpath);
         addSigHandler(new DBusMatchRule(type, source, objectpath), (DBusSigHandler<? extends DBusSignal>) handler);
     }
@@ -938,23 +1200,138 @@ public class DBusConnection extends AbstractConnection implements AutoCloseable
 
     @Override
     protected <T extends DBusSignal> void addSigHandler ( DBusMatchRule rule, DBusSigHandler<T> handler ) throws DBusException {
-        try {
-            this._dbus.AddMatch(rule.toString());
-        }
-        catch ( DBusExecutionException DBEe ) {
-            throw new DBusException(DBEe.getMessage(), DBEe);
+        addSigHandlers(Collections.singletonMap(rule, Collections.<DBusSigHandler<? extends DBusSignal>> singleton(handler)));
+    }
+
+
+    /**
+     * Add several signal handlers at once.
+     * The AddMatch calls for all new match rules are sent to the bus without waiting for each other's reply,
+     * and the handlers are only added once the bus accepted all of them. If any rule fails none of the
+     * handlers is added.
+     * 
+     * @param handlers
+     *            The handlers to add, by the rule of the signals to call them for.
+     * @throws DBusException
+     *             If listening for any of the signals on the bus failed.
+     */
+    public void addSigHandlers ( Map<DBusMatchRule, ? extends Collection<? extends DBusSigHandler<? extends DBusSignal>>> handlers )
+            throws DBusException {
+        Map<SignalTuple, String> added = new HashMap<>();
+        synchronized ( this.handledSignals ) {
+            for ( DBusMatchRule rule : handlers.keySet() ) {
+                SignalTuple key = new SignalTuple(rule.getInterface(), rule.getMember(), rule.getObject(), rule.getSource());
+                // the bus only needs to hear about a rule once
+                if ( !this.handledSignals.containsKey(key) )
+                    added.put(key, rule.toString());
+            }
         }
-        SignalTuple key = new SignalTuple(rule.getInterface(), rule.getMember(), rule.getObject(), rule.getSource());
+
+        if ( !added.isEmpty() )
+            checkMatch(callMatch("AddMatch", added.values()), added.values());
+
+        List<String> redundant = new Vector<>();
+        Map<DBusMatchRule, Collection<? extends DBusSigHandler<? extends DBusSignal>>> unmatched = new HashMap<>();
         synchronized ( this.handledSignals ) {
-            Vector<DBusSigHandler<? extends DBusSignal>> v = this.handledSignals.get(key);
-            if ( null == v ) {
-                v = new Vector<>();
-                v.add(handler);
-                this.handledSignals.put(key, v);
+            for ( Map.Entry<DBusMatchRule, ? extends Collection<? extends DBusSigHandler<? extends DBusSignal>>> e : handlers.entrySet() ) {
+                DBusMatchRule rule = e.getKey();
+                SignalTuple key = new SignalTuple(rule.getInterface(), rule.getMember(), rule.getObject(), rule.getSource());
+                Vector<DBusSigHandler<? extends DBusSignal>> v = this.handledSignals.get(key);
+                if ( null == v ) {
+                    // the last handler may have been removed concurrently, together with the rule we relied on
+                    if ( null == added.remove(key) )
+                        unmatched.put(rule, e.getValue());
+                    v = new Vector<>();
+                    this.handledSignals.put(key, v);
+                    this.matchRules.put(key, rule.toString());
+                }
+                else if ( null != added.remove(key) ) {
+                    // added concurrently by another thread, which sent its own AddMatch
+                    redundant.add(rule.toString());
+                }
+                v.addAll(e.getValue());
+            }
+        }
+        if ( !redundant.isEmpty() )
+            callMatch("RemoveMatch", redundant);
+
+        if ( !unmatched.isEmpty() ) {
+            List<String> rules = new Vector<>();
+            for ( DBusMatchRule rule : unmatched.keySet() )
+                rules.add(rule.toString());
+            try {
+                checkMatch(callMatch("AddMatch", rules), rules);
+            }
+            catch ( DBusException DBe ) {
+                // the bus does not know these rules, so only forget the handlers
+                synchronized ( this.handledSignals ) {
+                    for ( Map.Entry<DBusMatchRule, Collection<? extends DBusSigHandler<? extends DBusSignal>>> e : unmatched.entrySet() ) {
+                        DBusMatchRule rule = e.getKey();
+                        SignalTuple key = new SignalTuple(rule.getInterface(), rule.getMember(), rule.getObject(), rule.getSource());
+                        Vector<DBusSigHandler<? extends DBusSignal>> v = this.handledSignals.get(key);
+                        if ( null != v ) {
+                            for ( DBusSigHandler<? extends DBusSignal> h : e.getValue() )
+                                v.remove(h);
+                            if ( 0 == v.size() ) {
+                                this.handledSignals.remove(key);
+                                this.matchRules.remove(key);
+                            }
+                        }
+                    }
+                }
+                throw DBe;
             }
+        }
+    }
+
+
+    /**
+     * Check the result of AddMatch calls, removing the rules which succeeded again if any failed.
+     * 
+     * @throws DBusException
+     *             The first failure
+     */
+    private void checkMatch ( Map<String, DBusExecutionException> failed, Collection<String> rules ) throws DBusException {
+        if ( failed.isEmpty() )
+            return;
+        List<String> undo = new Vector<>(rules);
+        undo.removeAll(failed.keySet());
+        if ( !undo.isEmpty() )
+            callMatch("RemoveMatch", undo);
+        DBusExecutionException DBEe = failed.values().iterator().next();
+        throw new DBusException(DBEe.getMessage(), DBEe);
+    }
+
+
+    /**
+     * Call AddMatch or RemoveMatch on the bus for each rule, sending all calls before waiting for the first
+     * reply. Calls which cannot be sent because the connection is closed fail immediately.
+     * 
+     * @return the rules which failed with their error
+     */
+    private Map<String, DBusExecutionException> callMatch ( String method, Collection<String> rules ) throws DBusException {
+        Map<String, MethodCall> calls = new HashMap<>();
+        Map<String, DBusExecutionException> failed = new HashMap<>();
+        for ( String rule : rules ) {
+            MethodCall call = new MethodCall("org.freedesktop.DBus", "/org/freedesktop/DBus", "org.freedesktop.DBus", method, (byte) 0, "s", rule);
+            if ( queueOutgoing(call) )
+                calls.put(rule, call);
             else
-                v.add(handler);
+                failed.put(rule, new NotConnected("Disconnected"));
+        }
+
+        for ( Map.Entry<String, MethodCall> e : calls.entrySet() ) {
+            Message reply = e.getValue().getReply();
+            if ( null == reply )
+                failed.put(e.getKey(), new DBus.Error.NoReply("No reply within specified time"));
+            else if ( reply instanceof Error ) {
+                if ( "org.freedesktop.DBus.Local.Disconnected".equals(reply.getName()) )
+                    failed.put(e.getKey(), new NotConnected("Disconnected"));
+                else
+                    failed.put(e.getKey(), ( (Error) reply ).getException(this));
+            }
         }
+        return failed;
     }
 
 
@@ -992,7 +1369,8 @@ public class DBusConnection extends AbstractConnection implements AutoCloseable
                         log.debug("Failure while disconnecting", DBe);
                     }
 
-                    conn.remove(this.addr);
+                    if ( this == conn.get(this.addr) )
+                        conn.remove(this.addr);
                     super.disconnect();
                 }
             }
@@ -84,7 +84,7 @@ public class DBusMatchRule {
                 this.iface = c.getAnnotation(DBusInterfaceName.class).value();
             else
                 this.iface = AbstractConnection.dollar_pattern.matcher(c.getName()).replaceAll(".");
-            if ( !this.iface.matches(".*\\..*") )
+            if ( this.iface.indexOf('.') < 0 )
                 throw new DBusException("DBusInterfaces must be defined in a package.");
             this.member = null;
             this.type = null;
@@ -98,7 +98,7 @@ public class DBusMatchRule {
             else
                 this.iface = AbstractConnection.dollar_pattern.matcher(c.getEnclosingClass().getName()).replaceAll(".");
             // Don't export things which are invalid D-Bus interfaces
-            if ( !this.iface.matches(".*\\..*") )
+            if ( this.iface.indexOf('.') < 0 )
                 throw new DBusException("DBusInterfaces must be defined in a package.");
             if ( c.isAnnotationPresent(DBusMemberName.class) )
                 this.member = c.getAnnotation(DBusMemberName.class).value();
@@ -112,7 +112,7 @@ public class DBusMatchRule {
                 this.iface = c.getAnnotation(DBusInterfaceName.class).value();
             else
                 this.iface = AbstractConnection.dollar_pattern.matcher(c.getName()).replaceAll(".");
-            if ( !this.iface.matches(".*\\..*") )
+            if ( this.iface.indexOf('.') < 0 )
                 throw new DBusException("DBusInterfaces must be defined in a package.");
             this.member = null;
             this.type = "error";
@@ -122,7 +122,7 @@ public class DBusMatchRule {
                 this.iface = c.getClass().getAnnotation(DBusInterfaceName.class).value();
             else
                 this.iface = AbstractConnection.dollar_pattern.matcher(c.getClass().getName()).replaceAll(".");
-            if ( !this.iface.matches(".*\\..*") )
+            if ( this.iface.indexOf('.') < 0 )
                 throw new DBusException("DBusInterfaces must be defined in a package.");
             this.member = null;
             this.type = "error";
@@ -0,0 +1,33 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Export a public getter or setter of an exported object as a D-Bus property.
+ * The connection implements org.freedesktop.DBus.Properties for objects with such properties,
+ * unless they implement DBus.Properties themselves.
+ * The values returned by GetAll are cached, so a property changed other than through Set has to be
+ * reported with AbstractConnection.propertyChanged().
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface DBusProperty
+{
+   /** The property name, by default the method name without a get, is or set prefix. */
+   String name() default "";
+   /** The interface of the property, by default the first interface the object is exported with. */
+   String iface() default "";
+}
@@ -153,7 +153,7 @@ public class DBusSignal extends Message {
             }
             name = name.replaceAll("\\.([^\\.]*)$", "\\$$1");
         }
-        while ( null == c && name.matches(".*\\..*") );
+        while ( null == c && name.indexOf('.') >= 0 );
         if ( null == c )
             throw new DBusException("Could not create class from signal " + intname + '.' + signame);
         classCache.put(name, c);
@@ -234,7 +234,7 @@ public class DBusSignal extends Message {
     protected DBusSignal ( String objectpath, Object... args ) throws DBusException {
         super(Message.Endian.BIG, Message.MessageType.SIGNAL, (byte) 0);
 
-        if ( !objectpath.matches(AbstractConnection.OBJECT_REGEX) )
+        if ( !NameValidator.isObjectPath(objectpath) )
             throw new DBusException("Invalid object path: " + objectpath);
 
         Class<? extends DBusSignal> tc = getClass();
@@ -13,10 +13,10 @@ package org.freedesktop.dbus;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Proxy;
 import java.net.ServerSocket;
 import java.security.SecureRandom;
 import java.text.ParseException;
+import java.util.List;
 import java.util.Vector;
 
 import org.apache.log4j.Logger;
@@ -58,7 +58,9 @@ public class DirectConnection extends AbstractConnection {
         super(address, cl);
 
         try {
-            this.transport = new Transport(this.addr, AbstractConnection.TIMEOUT);
+            Transport t = new Transport();
+            t.connect(new BusAddress(this.addr), 0, PIPELINED_AUTH);
+            this.transport = t;
             this.connected = true;
         }
         catch ( IOException IOe ) {
@@ -126,45 +128,26 @@ public class DirectConnection extends AbstractConnection {
 
     DBusInterface dynamicProxy ( String path ) throws DBusException {
         try {
-            DBus.Introspectable intro = (DBus.Introspectable) getRemoteObject(path, DBus.Introspectable.class);
-            String data = intro.Introspect();
-            String[] tags = data.split("[<>]");
-            Vector<String> ifaces = new Vector<>();
-            for ( String tag : tags ) {
-                if ( tag.startsWith("interface") ) {
-                    ifaces.add(tag.replaceAll("^interface *name *= *['\"]([^'\"]*)['\"].*$", "$1"));
-                }
+            List<String> ifaces = this.introspectionCache.get(null, path);
+            if ( null == ifaces ) {
+                int generation = this.introspectionCache.generation();
+                DBus.Introspectable intro = (DBus.Introspectable) getRemoteObject(path, DBus.Introspectable.class);
+                ifaces = IntrospectionCache.parseInterfaces(intro.Introspect());
+                this.introspectionCache.put(null, path, ifaces, generation);
             }
             Vector<Class<? extends Object>> ifcs = new Vector<>();
             for ( String iface : ifaces ) {
-                int j = 0;
-                while ( j >= 0 ) {
-                    try {
-                        ifcs.add(this.loadClass(iface));
-                        break;
-                    }
-                    catch ( Exception e ) {
-                        log.debug("Failed to load proxy class", e);
-                    }
-                    j = iface.lastIndexOf(".");
-                    char[] cs = iface.toCharArray();
-                    if ( j >= 0 ) {
-                        cs[ j ] = '$';
-                        iface = String.valueOf(cs);
-                    }
-                }
+                Class<?> ifclass = this.introspectionCache.resolve(this, iface);
+                if ( null != ifclass )
+                    ifcs.add(ifclass);
+                else
+                    log.debug("Failed to load proxy class for " + iface);
             }
 
             if ( ifcs.size() == 0 )
                 throw new DBusException(String.format("Could not find an interface to cast to in [%s]", ifaces));
 
-            RemoteObject ro = new RemoteObject(null, path, null, false);
-            DBusInterface newi = (DBusInterface) Proxy.newProxyInstance(
-                ifcs.get(0).getClassLoader(),
-                ifcs.toArray(new Class[0]),
-                new RemoteInvocationHandler(this, ro));
-            this.importedObjects.put(newi, ro);
-            return newi;
+            return getProxy(new RemoteObject(null, path, null, false), ifcs.get(0).getClassLoader(), ifcs.toArray(new Class<?>[0]));
         }
         catch ( Exception e ) {
             throw new DBusException(String.format("Failed to create proxy object for %s; reason: %s.", path, e.getMessage()), e);
@@ -173,10 +156,7 @@ public class DirectConnection extends AbstractConnection {
 
 
     DBusInterface getExportedObject ( String path ) throws DBusException {
-        ExportedObject o = null;
-        synchronized ( this.exportedObjects ) {
-            o = this.exportedObjects.get(path);
-        }
+        ExportedObject o = this.exportTable.get(path);
         if ( null != o && null == o.object.get() ) {
             unExportObject(path);
             o = null;
@@ -213,7 +193,7 @@ public class DirectConnection extends AbstractConnection {
         if ( null == objectpath )
             throw new DBusException("Invalid object path: null");
 
-        if ( !objectpath.matches(OBJECT_REGEX) || objectpath.length() > MAX_NAME_LENGTH )
+        if ( !NameValidator.isObjectPath(objectpath) || objectpath.length() > MAX_NAME_LENGTH )
             throw new DBusException("Invalid object path: " + objectpath);
 
         return dynamicProxy(objectpath);
@@ -245,7 +225,7 @@ public class DirectConnection extends AbstractConnection {
         if ( null == type )
             throw new ClassCastException("Not A DBus Interface");
 
-        if ( !objectpath.matches(OBJECT_REGEX) || objectpath.length() > MAX_NAME_LENGTH )
+        if ( !NameValidator.isObjectPath(objectpath) || objectpath.length() > MAX_NAME_LENGTH )
             throw new DBusException("Invalid object path: " + objectpath);
 
         if ( !DBusInterface.class.isAssignableFrom(type) )
@@ -256,12 +236,7 @@ public class DirectConnection extends AbstractConnection {
         if ( type.getName().equals(type.getSimpleName()) )
             throw new DBusException("DBusInterfaces cannot be declared outside a package");
 
-        RemoteObject ro = new RemoteObject(null, objectpath, type, false);
-        DBusInterface i = (DBusInterface) Proxy.newProxyInstance(type.getClassLoader(), new Class[] {
-            type
-        }, new RemoteInvocationHandler(this, ro));
-        this.importedObjects.put(i, ro);
-        return i;
+        return getProxy(new RemoteObject(null, objectpath, type, false));
     }
 
 
@@ -126,7 +126,7 @@ public class Error extends Message {
             }
             tmpName = tmpName.replaceAll("\\.([^\\.]*)$", "\\$$1");
         }
-        while ( null == c && tmpName.matches(".*\\..*") );
+        while ( null == c && tmpName.indexOf('.') >= 0 );
         return c;
     }
 
@@ -21,13 +21,18 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.freedesktop.dbus.exceptions.DBusException;
 import org.freedesktop.dbus.exceptions.DBusExecutionException;
 import org.freedesktop.dbus.types.Tuple;
+import org.freedesktop.dbus.types.Variant;
 
 
 class ExportedObject {
@@ -58,7 +63,8 @@ class ExportedObject {
     }
 
 
-    private Map<MethodTuple, Method> getExportedMethods ( Class<?> c ) throws DBusException {
+    private static Map<MethodTuple, Method> getExportedMethods ( Class<?> c, StringBuilder introspectiondata, List<String> interfaces )
+            throws DBusException {
         if ( DBusInterface.class.equals(c) )
             return new HashMap<>();
         Map<MethodTuple, Method> m = new HashMap<>();
@@ -67,8 +73,10 @@ class ExportedObject {
                 // add this class's public methods
                 if ( null != c.getAnnotation(DBusInterfaceName.class) ) {
                     String name = c.getAnnotation(DBusInterfaceName.class).value();
-                    this.introspectiondata += " <interface name=\"" + name + "\">\n";
+                    introspectiondata.append(" <interface name=\"" + name + "\">\n");
                     DBusSignal.addInterfaceMap(c.getName(), name);
+                    if ( !interfaces.contains(name) )
+                        interfaces.add(name);
                 }
                 else {
                     // don't let people export things which don't have a
@@ -78,10 +86,12 @@ class ExportedObject {
                     if ( c.getName().length() > AbstractConnection.MAX_NAME_LENGTH )
                         throw new DBusException("Introspected interface name exceeds 255 characters. Cannot export objects of type " + c.getName());
 
-                    this.introspectiondata += " <interface name=\"" + AbstractConnection.dollar_pattern.matcher(c.getName()).replaceAll(".")
-                            + "\">\n";
+                    String name = AbstractConnection.dollar_pattern.matcher(c.getName()).replaceAll(".");
+                    introspectiondata.append(" <interface name=\"" + name + "\">\n");
+                    if ( !interfaces.contains(name) )
+                        interfaces.add(name);
                 }
-                this.introspectiondata += getAnnotations(c);
+                introspectiondata.append(getAnnotations(c));
                 for ( Method meth : c.getDeclaredMethods() )
                     if ( Modifier.isPublic(meth.getModifiers()) ) {
                         String ms = "";
@@ -92,15 +102,15 @@ class ExportedObject {
                             name = meth.getName();
                         if ( name.length() > AbstractConnection.MAX_NAME_LENGTH )
                             throw new DBusException("Introspected method name exceeds 255 characters. Cannot export objects with method " + name);
-                        this.introspectiondata += "  <method name=\"" + name + "\" >\n";
-                        this.introspectiondata += getAnnotations(meth);
+                        introspectiondata.append("  <method name=\"" + name + "\" >\n");
+                        introspectiondata.append(getAnnotations(meth));
                         for ( Class<?> ex : meth.getExceptionTypes() )
                             if ( DBusExecutionException.class.isAssignableFrom(ex) )
-                                this.introspectiondata += "   <annotation name=\"org.freedesktop.DBus.Method.Error\" value=\""
-                                        + AbstractConnection.dollar_pattern.matcher(ex.getName()).replaceAll(".") + "\" />\n";
+                                introspectiondata.append("   <annotation name=\"org.freedesktop.DBus.Method.Error\" value=\""
+                                        + AbstractConnection.dollar_pattern.matcher(ex.getName()).replaceAll(".") + "\" />\n");
                         for ( Type pt : meth.getGenericParameterTypes() )
                             for ( String s : Marshalling.getDBusType(pt) ) {
-                                this.introspectiondata += "   <arg type=\"" + s + "\" direction=\"in\"/>\n";
+                                introspectiondata.append("   <arg type=\"" + s + "\" direction=\"in\"/>\n");
                                 ms += s;
                             }
                         if ( !Void.TYPE.equals(meth.getGenericReturnType()) ) {
@@ -111,16 +121,16 @@ class ExportedObject {
                                 for ( Type t : ts )
                                     if ( t != null )
                                         for ( String s : Marshalling.getDBusType(t) )
-                                            this.introspectiondata += "   <arg type=\"" + s + "\" direction=\"out\"/>\n";
+                                            introspectiondata.append("   <arg type=\"" + s + "\" direction=\"out\"/>\n");
                             }
                             else if ( Object[].class.equals(meth.getGenericReturnType()) ) {
                                 throw new DBusException("Return type of Object[] cannot be introspected properly");
                             }
                             else
                                 for ( String s : Marshalling.getDBusType(meth.getGenericReturnType()) )
-                                    this.introspectiondata += "   <arg type=\"" + s + "\" direction=\"out\"/>\n";
+                                    introspectiondata.append("   <arg type=\"" + s + "\" direction=\"out\"/>\n");
                         }
-                        this.introspectiondata += "  </method>\n";
+                        introspectiondata.append("  </method>\n");
                         m.put(new MethodTuple(name, ms), meth);
                     }
                 for ( Class<?> sig : c.getDeclaredClasses() )
@@ -135,40 +145,207 @@ class ExportedObject {
                         if ( name.length() > AbstractConnection.MAX_NAME_LENGTH )
                             throw new DBusException("Introspected signal name exceeds 255 characters. Cannot export objects with signals of type "
                                     + name);
-                        this.introspectiondata += "  <signal name=\"" + name + "\">\n";
+                        introspectiondata.append("  <signal name=\"" + name + "\">\n");
                         Constructor<?> con = sig.getConstructors()[ 0 ];
                         Type[] ts = con.getGenericParameterTypes();
                         for ( int j = 1; j < ts.length; j++ )
                             for ( String s : Marshalling.getDBusType(ts[ j ]) )
-                                this.introspectiondata += "   <arg type=\"" + s + "\" direction=\"out\" />\n";
-                        this.introspectiondata += getAnnotations(sig);
-                        this.introspectiondata += "  </signal>\n";
+                                introspectiondata.append("   <arg type=\"" + s + "\" direction=\"out\" />\n");
+                        introspectiondata.append(getAnnotations(sig));
+                        introspectiondata.append("  </signal>\n");
 
                     }
-                this.introspectiondata += " </interface>\n";
+                introspectiondata.append(" </interface>\n");
             }
             else {
                 // recurse
-                m.putAll(getExportedMethods(i));
+                m.putAll(getExportedMethods(i, introspectiondata, interfaces));
             }
         return m;
     }
 
+    /**
+     * What is exported of a class, shared by all exported objects of that class
+     */
+    private static final class ClassInfo {
+
+        final Map<MethodTuple, Method> methods;
+        final String introspectiondata;
+        final List<String> interfaces;
+        final ExportedProperties properties;
+        final DBusException error;
+
+
+        ClassInfo ( Map<MethodTuple, Method> methods, String introspectiondata, List<String> interfaces, ExportedProperties properties ) {
+            this.methods = methods;
+            this.introspectiondata = introspectiondata;
+            this.interfaces = interfaces;
+            this.properties = properties;
+            this.error = null;
+        }
+
+
+        ClassInfo ( DBusException error ) {
+            this.methods = null;
+            this.introspectiondata = null;
+            this.interfaces = null;
+            this.properties = null;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Kept with the class itself, so it does not keep classes of other class loaders from being unloaded
+     */
+    private static final ClassValue<ClassInfo> classInfo = new ClassValue<ClassInfo>() {
+
+        @Override
+        protected ClassInfo computeValue ( Class<?> c ) {
+            StringBuilder introspectiondata = new StringBuilder();
+            List<String> interfaces = new ArrayList<>();
+            Map<MethodTuple, Method> methods;
+            ExportedProperties properties = null;
+            try {
+                methods = getExportedMethods(c, introspectiondata, interfaces);
+                if ( !DBus.Properties.class.isAssignableFrom(c) )
+                    properties = ExportedProperties.forClass(c, interfaces);
+                if ( null != properties ) {
+                    addProperties(properties, introspectiondata, interfaces);
+                    // served by the connection
+                    methods.putAll(getExportedMethods(DBus.Properties.class, introspectiondata, interfaces));
+                }
+            }
+            catch ( DBusException DBe ) {
+                return new ClassInfo(DBe);
+            }
+            introspectiondata.append(" <interface name=\"org.freedesktop.DBus.Introspectable\">\n" + "  <method name=\"Introspect\">\n"
+                    + "   <arg type=\"s\" direction=\"out\"/>\n" + "  </method>\n" + " </interface>\n");
+            introspectiondata.append(" <interface name=\"org.freedesktop.DBus.Peer\">\n" + "  <method name=\"Ping\">\n" + "  </method>\n"
+                    + " </interface>\n");
+            interfaces.add("org.freedesktop.DBus.Introspectable");
+            interfaces.add("org.freedesktop.DBus.Peer");
+            return new ClassInfo(
+                Collections.unmodifiableMap(methods),
+                introspectiondata.toString(),
+                Collections.unmodifiableList(interfaces),
+                properties);
+        }
+    };
+
+
+    /**
+     * Add the properties to the introspection data of their interfaces, and the interfaces which only have
+     * properties
+     */
+    private static void addProperties ( ExportedProperties properties, StringBuilder introspectiondata, List<String> interfaces ) {
+        for ( String iface : properties.getInterfaces() ) {
+            String data = properties.getIntrospectionData(iface);
+            int start = introspectiondata.indexOf(" <interface name=\"" + iface + "\">\n");
+            if ( start < 0 ) {
+                introspectiondata.append(" <interface name=\"" + iface + "\">\n" + data + " </interface>\n");
+                interfaces.add(iface);
+            }
+            else
+                introspectiondata.insert(introspectiondata.indexOf(" </interface>\n", start), data);
+        }
+    }
+
     Map<MethodTuple, Method> methods;
     Reference<DBusInterface> object;
     String introspectiondata;
+    /** names of the interfaces the object is exported with */
+    List<String> interfaces;
+    /** properties the connection serves for the object, null if there are none */
+    ExportedProperties properties;
+    /** values of the properties by interface, as last read, guarded by itself */
+    private final Map<String, Map<String, Variant<?>>> propertyValues;
+    /** incremented by every invalidation, guarded by propertyValues */
+    private int propertyVersion;
 
 
     public ExportedObject ( DBusInterface object, boolean weakreferences ) throws DBusException {
+        Class<?> c = object.getClass();
+        ClassInfo info = classInfo.get(c);
+        if ( null != info.error ) {
+            // try again next time, the error may depend on classes which are not loaded yet
+            classInfo.remove(c);
+            throw info.error;
+        }
         if ( weakreferences )
             this.object = new WeakReference<>(object);
         else
             this.object = new StrongReference<>(object);
-        this.introspectiondata = "";
-        this.methods = getExportedMethods(object.getClass());
-        this.introspectiondata += " <interface name=\"org.freedesktop.DBus.Introspectable\">\n" + "  <method name=\"Introspect\">\n"
-                + "   <arg type=\"s\" direction=\"out\"/>\n" + "  </method>\n" + " </interface>\n";
-        this.introspectiondata += " <interface name=\"org.freedesktop.DBus.Peer\">\n" + "  <method name=\"Ping\">\n" + "  </method>\n"
-                + " </interface>\n";
+        this.methods = info.methods;
+        this.introspectiondata = info.introspectiondata;
+        this.interfaces = info.interfaces;
+        this.properties = info.properties;
+        if ( null != this.properties )
+            this.propertyValues = new HashMap<>(1);
+        else
+            this.propertyValues = null;
+    }
+
+
+    /**
+     * @param p
+     * @return the value of a property, null if it is null
+     */
+    Variant<?> getProperty ( ExportedProperties.Property p ) {
+        Object o = this.object.get();
+        if ( null == o )
+            throw new DBus.Error.UnknownObject("The object has been garbage collected");
+        Object value;
+        try {
+            value = p.getter.invoke(o);
+        }
+        catch ( InvocationTargetException ITe ) {
+            if ( ITe.getCause() instanceof DBusExecutionException )
+                throw (DBusExecutionException) ITe.getCause();
+            throw new DBusExecutionException("Failed to get property " + p.name + ": " + ITe.getCause());
+        }
+        catch ( IllegalAccessException | IllegalArgumentException e ) {
+            throw new DBusExecutionException("Failed to get property " + p.name + ": " + e);
+        }
+        return null == value ? null : new Variant<>(value, p.type);
+    }
+
+
+    /**
+     * Values read while the properties were invalidated are returned but not kept.
+     * 
+     * @param iface
+     * @return the values of the readable properties of the interface, read once until they are invalidated
+     */
+    Map<String, Variant<?>> getProperties ( String iface ) {
+        Map<String, Variant<?>> values;
+        int version;
+        synchronized ( this.propertyValues ) {
+            values = this.propertyValues.get(iface);
+            if ( null != values )
+                return values;
+            version = this.propertyVersion;
+        }
+        // the getters are called without holding the lock
+        values = new LinkedHashMap<>();
+        for ( ExportedProperties.Property p : this.properties.getAll(iface) )
+            if ( null != p.getter ) {
+                Variant<?> v = getProperty(p);
+                if ( null != v )
+                    values.put(p.name, v);
+            }
+        values = Collections.unmodifiableMap(values);
+        synchronized ( this.propertyValues ) {
+            if ( version == this.propertyVersion )
+                this.propertyValues.put(iface, values);
+        }
+        return values;
+    }
+
+
+    void invalidateProperties ( String iface ) {
+        synchronized ( this.propertyValues ) {
+            this.propertyVersion++;
+            this.propertyValues.remove(iface);
+        }
     }
 }
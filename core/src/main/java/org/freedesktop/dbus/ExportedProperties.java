@@ -0,0 +1,216 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus;
+
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+
+
+/**
+ * The properties of a class, from its methods annotated with {@link DBusProperty}, by interface and name.
+ */
+final class ExportedProperties {
+
+    static final class Property {
+
+        final String iface;
+        final String name;
+        final Type type;
+        final String sig;
+        final Method getter;
+        final Method setter;
+
+
+        Property ( String iface, String name, Type type, String sig, Method getter, Method setter ) {
+            this.iface = iface;
+            this.name = name;
+            this.type = type;
+            this.sig = sig;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+
+        String getAccess () {
+            if ( null == this.setter )
+                return "read";
+            if ( null == this.getter )
+                return "write";
+            return "readwrite";
+        }
+    }
+
+    /** interface -> name -> property */
+    private final Map<String, Map<String, Property>> properties;
+
+
+    private ExportedProperties ( Map<String, Map<String, Property>> properties ) {
+        this.properties = properties;
+    }
+
+
+    /**
+     * @param c
+     * @param interfaces
+     *            interfaces the class is exported with, the default interface of its properties is the first one
+     * @return the properties of the class, null if it has none
+     * @throws DBusException
+     *             if an annotated method is neither a getter nor a setter or the getter and setter of a property
+     *             do not agree on its type
+     */
+    static ExportedProperties forClass ( Class<?> c, List<String> interfaces ) throws DBusException {
+        Map<String, Map<String, Method[]>> accessors = new LinkedHashMap<>();
+        for ( Method m : c.getMethods() ) {
+            DBusProperty p = m.getAnnotation(DBusProperty.class);
+            if ( null == p )
+                continue;
+            int i;
+            if ( 0 == m.getParameterTypes().length && !Void.TYPE.equals(m.getReturnType()) )
+                i = 0;
+            else if ( 1 == m.getParameterTypes().length && Void.TYPE.equals(m.getReturnType()) )
+                i = 1;
+            else
+                throw new DBusException("Property method " + m.getName() + " of " + c.getName() + " is neither a getter nor a setter");
+            if ( Modifier.isStatic(m.getModifiers()) )
+                throw new DBusException("Property method " + m.getName() + " of " + c.getName() + " is static");
+            if ( !Modifier.isPublic(c.getModifiers()) )
+                // public methods of non public classes, such as anonymous ones
+                m.setAccessible(true);
+
+            String iface = p.iface();
+            if ( "".equals(iface) ) {
+                if ( interfaces.isEmpty() )
+                    throw new DBusException("Property method " + m.getName() + " of " + c.getName() + " has no interface");
+                iface = interfaces.get(0);
+            }
+            String name = p.name();
+            if ( "".equals(name) )
+                name = getPropertyName(m.getName());
+            if ( name.length() > AbstractConnection.MAX_NAME_LENGTH )
+                throw new DBusException("Introspected property name exceeds 255 characters. Cannot export objects with property " + name);
+
+            Map<String, Method[]> names = accessors.get(iface);
+            if ( null == names ) {
+                names = new LinkedHashMap<>();
+                accessors.put(iface, names);
+            }
+            Method[] ms = names.get(name);
+            if ( null == ms ) {
+                ms = new Method[2];
+                names.put(name, ms);
+            }
+            ms[ i ] = m;
+        }
+        if ( accessors.isEmpty() )
+            return null;
+
+        Map<String, Map<String, Property>> properties = new LinkedHashMap<>();
+        for ( Map.Entry<String, Map<String, Method[]>> e : accessors.entrySet() ) {
+            Map<String, Property> names = new LinkedHashMap<>();
+            for ( Map.Entry<String, Method[]> a : e.getValue().entrySet() ) {
+                Method getter = a.getValue()[ 0 ];
+                Method setter = a.getValue()[ 1 ];
+                Type type = null != getter ? getter.getGenericReturnType() : setter.getGenericParameterTypes()[ 0 ];
+                String sig = Marshalling.getDBusType(type)[ 0 ];
+                if ( null != getter && null != setter && !sig.equals(Marshalling.getDBusType(setter.getGenericParameterTypes()[ 0 ])[ 0 ]) )
+                    throw new DBusException("Getter and setter of property " + a.getKey() + " of " + c.getName() + " have different types");
+                names.put(a.getKey(), new Property(e.getKey(), a.getKey(), type, sig, getter, setter));
+            }
+            properties.put(e.getKey(), Collections.unmodifiableMap(names));
+        }
+        return new ExportedProperties(Collections.unmodifiableMap(properties));
+    }
+
+
+    private static String getPropertyName ( String method ) {
+        for ( String prefix : new String[] {
+            "get", "set", "is"
+        } )
+            if ( method.length() > prefix.length() && method.startsWith(prefix) && Character.isUpperCase(method.charAt(prefix.length())) )
+                return method.substring(prefix.length());
+        return method;
+    }
+
+
+    /**
+     * @return the interfaces with properties
+     */
+    Collection<String> getInterfaces () {
+        return this.properties.keySet();
+    }
+
+
+    /**
+     * @param iface
+     *            the interface, null or empty for any
+     * @param name
+     * @return the property, null if there is none
+     */
+    Property get ( String iface, String name ) {
+        if ( null != iface && !"".equals(iface) ) {
+            Map<String, Property> names = this.properties.get(iface);
+            return null == names ? null : names.get(name);
+        }
+        for ( Map<String, Property> names : this.properties.values() ) {
+            Property p = names.get(name);
+            if ( null != p )
+                return p;
+        }
+        return null;
+    }
+
+
+    /**
+     * @param iface
+     * @return the properties of the interface, empty if it has none
+     */
+    Collection<Property> getAll ( String iface ) {
+        Map<String, Property> names = this.properties.get(iface);
+        return null == names ? Collections.<Property> emptyList() : names.values();
+    }
+
+
+    /**
+     * @param name
+     * @return the properties of that name in all interfaces
+     */
+    List<Property> find ( String name ) {
+        List<Property> l = new ArrayList<>(1);
+        for ( Map<String, Property> names : this.properties.values() ) {
+            Property p = names.get(name);
+            if ( null != p )
+                l.add(p);
+        }
+        return l;
+    }
+
+
+    /**
+     * @param iface
+     * @return the introspection data of the properties of the interface
+     */
+    String getIntrospectionData ( String iface ) {
+        StringBuilder sb = new StringBuilder();
+        for ( Property p : getAll(iface) )
+            sb.append("  <property name=\"" + p.name + "\" type=\"" + p.sig + "\" access=\"" + p.getAccess() + "\" />\n");
+        return sb.toString();
+    }
+}
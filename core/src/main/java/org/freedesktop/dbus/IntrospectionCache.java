@@ -0,0 +1,242 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Interfaces remote objects implement, as found by introspecting them, and the classes for interface names.
+ *
+ * Introspection data is kept per sender and path for a limited time, set in ms by the DBUS_JAVA_INTROSPECTION_TTL
+ * environment variable (0 disables it). A well-known name which changed its owner may be served the data of
+ * the previous owner until it expires, unique names are never reused. Reconnecting drops all data.
+ * Interface names no class was found for are remembered as well, for the same time.
+ */
+final class IntrospectionCache {
+
+    static final long DEFAULT_TTL = 60000;
+    static final long TTL;
+
+    /** Number of additions after which expired entries are swept */
+    private static final int SWEEP_INTERVAL = 256;
+
+    static {
+        long ttl = DEFAULT_TTL;
+        String s = System.getenv("DBUS_JAVA_INTROSPECTION_TTL");
+        if ( null != s ) {
+            try {
+                ttl = Math.max(0, Long.parseLong(s.trim()));
+            }
+            catch ( NumberFormatException NFe ) {
+                AbstractConnection.log.warn("Ignoring invalid DBUS_JAVA_INTROSPECTION_TTL " + s);
+            }
+        }
+        TTL = ttl;
+    }
+
+    private static final class Entry {
+
+        final List<String> interfaces;
+        final long expires;
+
+
+        Entry ( List<String> interfaces, long expires ) {
+            this.interfaces = interfaces;
+            this.expires = expires;
+        }
+    }
+
+    private static final class Resolution {
+
+        final ClassLoader loader;
+        final Class<?> type;
+        final long expires;
+
+
+        Resolution ( ClassLoader loader, Class<?> type, long expires ) {
+            this.loader = loader;
+            this.type = type;
+            this.expires = expires;
+        }
+    }
+
+    /** sender ("" for none) -> path -> interfaces */
+    private final ConcurrentMap<String, ConcurrentMap<String, Entry>> data = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Resolution> classes = new ConcurrentHashMap<>();
+    private final AtomicInteger additions = new AtomicInteger();
+    private final AtomicInteger generation = new AtomicInteger();
+
+
+    /**
+     * @param source
+     *            the sender, null on peer to peer connections
+     * @param path
+     * @return the names of the interfaces the object implements, or null if they are not known
+     */
+    List<String> get ( String source, String path ) {
+        ConcurrentMap<String, Entry> paths = this.data.get(null == source ? "" : source);
+        if ( null == paths )
+            return null;
+        Entry e = paths.get(path);
+        if ( null == e )
+            return null;
+        if ( e.expires - System.currentTimeMillis() <= 0 ) {
+            paths.remove(path, e);
+            return null;
+        }
+        return e.interfaces;
+    }
+
+
+    /**
+     * @return a value that changes whenever data is invalidated, to be passed to put
+     */
+    int generation () {
+        return this.generation.get();
+    }
+
+
+    /**
+     * Add introspection data unless data was invalidated since it was asked for
+     *
+     * @param source
+     * @param path
+     * @param interfaces
+     * @param generation
+     *            value of {@link #generation()} before introspecting
+     */
+    void put ( String source, String path, List<String> interfaces, int generation ) {
+        if ( 0 == TTL || generation != this.generation.get() )
+            return;
+        String key = null == source ? "" : source;
+        ConcurrentMap<String, Entry> paths = this.data.get(key);
+        if ( null == paths ) {
+            paths = new ConcurrentHashMap<>();
+            ConcurrentMap<String, Entry> old = this.data.putIfAbsent(key, paths);
+            if ( null != old )
+                paths = old;
+        }
+        paths.put(path, new Entry(Collections.unmodifiableList(interfaces), System.currentTimeMillis() + TTL));
+        if ( 0 == this.additions.incrementAndGet() % SWEEP_INTERVAL )
+            sweep();
+    }
+
+
+    void clear () {
+        this.generation.incrementAndGet();
+        this.data.clear();
+    }
+
+
+    /**
+     * Find the class for an interface name, trying nested classes for the last elements of the name if there is no
+     * top level class of that name.
+     *
+     * @param conn
+     *            connection whose class loader is used
+     * @param iface
+     * @return the class, or null if there is none
+     */
+    Class<?> resolve ( AbstractConnection conn, String iface ) {
+        ClassLoader loader = conn.getUserClassLoader();
+        long now = System.currentTimeMillis();
+        Resolution r = this.classes.get(iface);
+        if ( null != r && r.loader == loader && ( null != r.type || r.expires - now > 0 ) )
+            return r.type;
+
+        Class<?> type = null;
+        char[] cs = iface.toCharArray();
+        int j = cs.length;
+        while ( true ) {
+            try {
+                type = conn.loadClass(String.valueOf(cs));
+                break;
+            }
+            catch ( ClassNotFoundException | LinkageError e ) {
+                if ( AbstractConnection.log.isTraceEnabled() ) {
+                    AbstractConnection.log.trace("No class " + String.valueOf(cs), e);
+                }
+            }
+            j = iface.lastIndexOf('.', j - 1);
+            if ( j < 0 )
+                break;
+            cs[ j ] = '$';
+        }
+        this.classes.put(iface, new Resolution(loader, type, now + TTL));
+        return type;
+    }
+
+
+    /**
+     * @param xml
+     *            introspection data
+     * @return the names of the interfaces in it, in order
+     */
+    static List<String> parseInterfaces ( String xml ) {
+        List<String> ifaces = new ArrayList<>();
+        int i = 0;
+        while ( ( i = xml.indexOf("<interface", i) ) >= 0 ) {
+            i += 10;
+            int end = xml.indexOf('>', i);
+            if ( end < 0 )
+                break;
+            if ( i == end || !Character.isWhitespace(xml.charAt(i)) )
+                continue;
+            int n = skipSpace(xml, i, end);
+            if ( !xml.startsWith("name", n) )
+                continue;
+            n = skipSpace(xml, n + 4, end);
+            if ( n >= end || '=' != xml.charAt(n) )
+                continue;
+            n = skipSpace(xml, n + 1, end);
+            if ( n >= end || ( '"' != xml.charAt(n) && '\'' != xml.charAt(n) ) )
+                continue;
+            int close = xml.indexOf(xml.charAt(n), n + 1);
+            if ( close < 0 )
+                break;
+            ifaces.add(xml.substring(n + 1, close));
+            i = close;
+        }
+        return ifaces;
+    }
+
+
+    private static int skipSpace ( String s, int i, int end ) {
+        while ( i < end && Character.isWhitespace(s.charAt(i)) )
+            i++;
+        return i;
+    }
+
+
+    private void sweep () {
+        long now = System.currentTimeMillis();
+        for ( ConcurrentMap<String, Entry> paths : this.data.values() ) {
+            Iterator<Entry> it = paths.values().iterator();
+            while ( it.hasNext() )
+                if ( it.next().expires - now <= 0 )
+                    it.remove();
+        }
+        Iterator<Resolution> it = this.classes.values().iterator();
+        while ( it.hasNext() ) {
+            Resolution r = it.next();
+            if ( null == r.type && r.expires - now <= 0 )
+                it.remove();
+        }
+    }
+}
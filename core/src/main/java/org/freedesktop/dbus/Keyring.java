@@ -0,0 +1,253 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus;
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.log4j.Logger;
+
+
+/**
+ * A DBUS_COOKIE_SHA1 keyring in ~/.dbus-keyrings
+ *
+ * The cookies are cached in memory and only read again when the file changed on disk or a cookie is
+ * missing. Writers lock the keyring by creating the .lock file next to it, like libdbus, and the server
+ * side reuses a recent cookie instead of adding one for every authentication.
+ */
+final class Keyring {
+
+    private static final Logger log = Logger.getLogger(Keyring.class);
+
+    private static final ConcurrentMap<String, Keyring> keyrings = new ConcurrentHashMap<>();
+    private static final SecureRandom random = new SecureRandom();
+    /** ms between attempts to take the lock */
+    private static final long LOCK_RETRY = 10;
+
+    static final class Cookie {
+
+        final String id;
+        final long timestamp;
+        final String cookie;
+
+
+        Cookie ( String id, long timestamp, String cookie ) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.cookie = cookie;
+        }
+    }
+
+    private final File dir;
+    private final File file;
+    private final File lockfile;
+    private final File temp;
+    private volatile Map<String, Cookie> cookies = Collections.emptyMap();
+    private long modified = -1;
+    private long length = -1;
+
+
+    private Keyring ( String context ) {
+        this.dir = new File(System.getProperty("user.home"), ".dbus-keyrings");
+        this.file = new File(this.dir, context);
+        this.lockfile = new File(this.dir, context + ".lock");
+        this.temp = new File(this.dir, context + ".temp");
+    }
+
+
+    static Keyring get ( String context ) {
+        Keyring k = keyrings.get(context);
+        if ( null == k ) {
+            k = new Keyring(context);
+            Keyring old = keyrings.putIfAbsent(context, k);
+            if ( null != old )
+                k = old;
+        }
+        return k;
+    }
+
+
+    /**
+     * Client side lookup of the cookie the server challenged us with
+     *
+     * @param id
+     * @return the cookie, null if there is no valid cookie with that id
+     * @throws IOException
+     */
+    String find ( String id ) throws IOException {
+        long now = System.currentTimeMillis() / 1000;
+        Cookie c = load(false).get(id);
+        if ( null == c ) {
+            // the file may have changed within the timestamp granularity of the file system
+            c = load(true).get(id);
+        }
+        if ( null == c || !isValid(c, now) )
+            return null;
+        return c.cookie;
+    }
+
+
+    /**
+     * Server side: get a cookie to challenge a client with, adding one to the keyring if none is recent
+     * enough.
+     *
+     * @return the cookie
+     * @throws IOException
+     */
+    synchronized Cookie getServerCookie () throws IOException {
+        long now = System.currentTimeMillis() / 1000;
+        Cookie c = findRecent(load(false), now);
+        if ( null != c )
+            return c;
+
+        if ( !this.dir.exists() )
+            this.dir.mkdirs();
+
+        lock();
+        try {
+            // another process may have added one while we waited
+            Map<String, Cookie> current = load(true);
+            c = findRecent(current, now);
+            if ( null != c )
+                return c;
+
+            long id = System.currentTimeMillis();
+            while ( current.containsKey(String.valueOf(id)) )
+                id++;
+            byte[] buf = new byte[24];
+            random.nextBytes(buf);
+            c = new Cookie(String.valueOf(id), now, Hex.encodeHexString(buf));
+
+            Map<String, Cookie> updated = new LinkedHashMap<>();
+            for ( Cookie o : current.values() ) {
+                // expire stale cookies
+                if ( isValid(o, now) )
+                    updated.put(o.id, o);
+            }
+            updated.put(c.id, c);
+
+            try ( PrintWriter w = new PrintWriter(new FileOutputStream(this.temp)) ) {
+                for ( Cookie o : updated.values() )
+                    w.println(o.id + " " + o.timestamp + " " + o.cookie);
+            }
+
+            // atomically move to old file
+            if ( !this.temp.renameTo(this.file) ) {
+                this.file.delete();
+                this.temp.renameTo(this.file);
+            }
+
+            if ( log.isDebugEnabled() ) {
+                log.debug("Added cookie " + c.id + " to " + this.file);
+            }
+            this.cookies = Collections.unmodifiableMap(updated);
+            this.modified = this.file.lastModified();
+            this.length = this.file.length();
+            return c;
+        }
+        finally {
+            if ( !this.lockfile.delete() )
+                log.warn("Failed to remove " + this.lockfile);
+        }
+    }
+
+
+    /**
+     * Take the lock of the keyring by creating its .lock file, which fails while another writer holds it.
+     * A lock held longer than LOCK_TIMEOUT is taken to be stale and broken.
+     */
+    private void lock () throws IOException {
+        long start = System.currentTimeMillis();
+        while ( !this.lockfile.createNewFile() ) {
+            if ( System.currentTimeMillis() - start >= Transport.SASL.LOCK_TIMEOUT ) {
+                log.warn("Breaking stale lock " + this.lockfile);
+                this.lockfile.delete();
+                if ( !this.lockfile.createNewFile() )
+                    throw new IOException("Failed to lock " + this.file);
+                return;
+            }
+            try {
+                Thread.sleep(LOCK_RETRY);
+            }
+            catch ( InterruptedException Ie ) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the lock on " + this.file);
+            }
+        }
+    }
+
+
+    private static boolean isValid ( Cookie c, long now ) {
+        return ! ( c.timestamp < 0 || ( now + Transport.SASL.MAX_TIME_TRAVEL_SECONDS ) < c.timestamp || ( now - Transport.SASL.EXPIRE_KEYS_TIMEOUT_SECONDS ) > c.timestamp );
+    }
+
+
+    private static Cookie findRecent ( Map<String, Cookie> cookies, long now ) {
+        Cookie best = null;
+        for ( Cookie c : cookies.values() ) {
+            if ( ( now - c.timestamp ) < Transport.SASL.NEW_KEY_TIMEOUT_SECONDS && isValid(c, now) && ( null == best || c.timestamp > best.timestamp ) )
+                best = c;
+        }
+        return best;
+    }
+
+
+    /**
+     * @param force
+     *            read the file even if it looks unchanged
+     * @return the cookies, read again if the file changed since we last read it
+     */
+    private synchronized Map<String, Cookie> load ( boolean force ) throws IOException {
+        long mod = this.file.lastModified();
+        long len = this.file.length();
+        if ( !force && mod == this.modified && len == this.length )
+            return this.cookies;
+
+        Map<String, Cookie> read = new LinkedHashMap<>();
+        try ( BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(this.file))) ) {
+            String s = null;
+            while ( null != ( s = r.readLine() ) ) {
+                String[] line = s.split(" ");
+                if ( line.length < 3 )
+                    continue;
+                try {
+                    read.put(line[ 0 ], new Cookie(line[ 0 ], Long.parseLong(line[ 1 ]), line[ 2 ]));
+                }
+                catch ( NumberFormatException NFe ) {
+                    log.debug("Ignoring malformed cookie in " + this.file, NFe);
+                }
+            }
+        }
+        catch ( FileNotFoundException FNFe ) {
+            log.debug("No keyring at " + this.file);
+        }
+
+        this.cookies = Collections.unmodifiableMap(read);
+        this.modified = mod;
+        this.length = len;
+        return this.cookies;
+    }
+}
@@ -0,0 +1,350 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus;
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+
+/**
+ * In-process transport for memory: and loopback: bus addresses, for example memory:name=test
+ *
+ * Both ends of a connection live in the same JVM. Messages are handed to the peer through a queue, there
+ * is no socket I/O, no authentication and no stream framing involved. A listener is registered under its
+ * name and accepts connections much like a server socket.
+ *
+ * A memory: connection passes the marshalled wire data, so the peer gets its own copy of each message.
+ * A loopback: connection passes a copy of each Message object which shares the marshalled data, the
+ * receiver does not parse the headers again and only extracts the parameters from the marshalled body.
+ */
+public class MemoryTransport {
+
+    static final Logger log = Logger.getLogger(MemoryTransport.class);
+
+    private static final byte[] EOF = new byte[0];
+    private static final ConcurrentMap<String, MemoryTransport> listeners = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, MemoryTransport> loopbacks = new ConcurrentHashMap<>();
+
+    /**
+     * One end of an in-memory connection
+     */
+    public static class Endpoint {
+
+        public final MessageReader min;
+        public final MessageWriter mout;
+
+
+        Endpoint ( Reader min, Writer mout ) {
+            this.min = min;
+            this.mout = mout;
+        }
+
+
+        /**
+         * @param timeout
+         *            milliseconds after which readMessage returns null if nothing was received, 0 to wait
+         *            forever
+         */
+        public void setTimeout ( int timeout ) {
+            ( (Reader) this.min ).timeout = timeout;
+        }
+
+
+        public void close () throws IOException {
+            this.min.close();
+            this.mout.close();
+        }
+    }
+
+    static class Reader extends MessageReader {
+
+        final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+        volatile int timeout;
+        volatile boolean closed;
+
+
+        @Override
+        public Message readMessage () throws IOException, DBusException {
+            Object o;
+            try {
+                if ( 0 == this.timeout )
+                    o = this.queue.take();
+                else
+                    o = this.queue.poll(this.timeout, TimeUnit.MILLISECONDS);
+            }
+            catch ( InterruptedException Ie ) {
+                throw new InterruptedIOException("Interrupted while waiting for a message");
+            }
+            if ( null == o )
+                return null;
+            if ( EOF == o ) {
+                this.queue.offer(EOF);
+                throw new EOFException("Underlying transport returned EOF");
+            }
+            if ( o instanceof Message ) {
+                log.info("=> " + o);
+                return (Message) o;
+            }
+
+            byte[] wire = (byte[]) o;
+
+            byte endian = wire[ 0 ];
+            int headerlen = (int) Message.demarshallint(wire, 12, endian, 4);
+            if ( 0 != headerlen % 8 )
+                headerlen += 8 - ( headerlen % 8 );
+            int bodylen = (int) Message.demarshallint(wire, 4, endian, 4);
+
+            byte[] buf = new byte[12];
+            byte[] header = new byte[headerlen + 8];
+            byte[] body = new byte[bodylen];
+            System.arraycopy(wire, 0, buf, 0, 12);
+            System.arraycopy(wire, 12, header, 0, 4);
+            System.arraycopy(wire, 16, header, 8, headerlen);
+            System.arraycopy(wire, 16 + headerlen, body, 0, bodylen);
+
+            Message m = createMessage(wire[ 1 ], buf, header, body);
+            log.info("=> " + m);
+            return m;
+        }
+
+
+        /**
+         * @return non-zero if a message can be read without blocking
+         */
+        @Override
+        public int available () {
+            return this.queue.isEmpty() ? 0 : 1;
+        }
+
+
+        @Override
+        public boolean isMessageAvailable () {
+            return !this.queue.isEmpty();
+        }
+
+
+        @Override
+        public void close () {
+            log.info("Closing Message Reader");
+            this.closed = true;
+            this.queue.offer(EOF);
+        }
+    }
+
+    static class Writer extends MessageWriter {
+
+        private final Reader peer;
+        private final boolean loopback;
+        private volatile boolean closed;
+
+
+        Writer ( Reader peer, boolean loopback ) {
+            this.peer = peer;
+            this.loopback = loopback;
+        }
+
+
+        @Override
+        public void writeMessage ( Message m ) throws IOException {
+            bufferMessage(m);
+        }
+
+
+        @Override
+        public void bufferMessage ( Message m ) throws IOException {
+            log.info("<= " + m);
+
+            if ( null == m )
+                return;
+            if ( null == m.getWireData() ) {
+                log.warn("Message " + m + " wire-data was null!");
+                return;
+            }
+            if ( this.closed || this.peer.closed )
+                throw new IOException("Connection closed");
+            if ( this.loopback ) {
+                this.peer.queue.offer(m.copyForPeer());
+                return;
+            }
+
+            int len = 0;
+            for ( byte[] buf : m.getWireData() ) {
+                if ( null == buf )
+                    break;
+                len += buf.length;
+            }
+            byte[] wire = new byte[len];
+            int ofs = 0;
+            for ( byte[] buf : m.getWireData() ) {
+                if ( null == buf )
+                    break;
+                System.arraycopy(buf, 0, wire, ofs, buf.length);
+                ofs += buf.length;
+            }
+            this.peer.queue.offer(wire);
+        }
+
+
+        @Override
+        public void flush () {}
+
+
+        @Override
+        public void close () {
+            log.debug("Closing Message Writer");
+            if ( !this.closed ) {
+                this.closed = true;
+                this.peer.queue.offer(EOF);
+            }
+        }
+    }
+
+    private final String name;
+    private final boolean loopback;
+    private final BlockingQueue<Endpoint> pending = new LinkedBlockingQueue<>();
+    private volatile boolean closed;
+
+
+    private MemoryTransport ( String name, boolean loopback ) {
+        this.name = name;
+        this.loopback = loopback;
+    }
+
+
+    private static ConcurrentMap<String, MemoryTransport> getListeners ( boolean loopback ) {
+        return loopback ? loopbacks : listeners;
+    }
+
+
+    private static String getType ( boolean loopback ) {
+        return loopback ? "loopback" : "memory";
+    }
+
+
+    /**
+     * Start accepting connections to memory:name=<name>
+     *
+     * @param name
+     * @return the listener
+     * @throws IOException
+     *             if the name is already in use
+     */
+    public static MemoryTransport listen ( String name ) throws IOException {
+        return listen(name, false);
+    }
+
+
+    /**
+     * Start accepting connections to memory:name=<name> or loopback:name=<name>
+     *
+     * @param name
+     * @param loopback
+     *            pass messages without copying them
+     * @return the listener
+     * @throws IOException
+     *             if the name is already in use
+     */
+    public static MemoryTransport listen ( String name, boolean loopback ) throws IOException {
+        MemoryTransport l = new MemoryTransport(name, loopback);
+        if ( null != getListeners(loopback).putIfAbsent(name, l) )
+            throw new IOException("Address already in use: " + getType(loopback) + ":name=" + name);
+        return l;
+    }
+
+
+    /**
+     * Connect to a listener in this JVM
+     *
+     * @param name
+     * @return the client end of the connection
+     * @throws IOException
+     *             if nothing is listening on the name
+     */
+    public static Endpoint connect ( String name ) throws IOException {
+        return connect(name, false);
+    }
+
+
+    /**
+     * Connect to a listener in this JVM
+     *
+     * @param name
+     * @param loopback
+     *            connect to loopback:name=<name> rather than memory:name=<name>
+     * @return the client end of the connection
+     * @throws IOException
+     *             if nothing is listening on the name
+     */
+    public static Endpoint connect ( String name, boolean loopback ) throws IOException {
+        MemoryTransport l = getListeners(loopback).get(name);
+        if ( null == l )
+            throw new IOException("Connection refused: " + getType(loopback) + ":name=" + name);
+        Reader cin = new Reader();
+        Reader sin = new Reader();
+        Endpoint client = new Endpoint(cin, new Writer(sin, loopback));
+        Endpoint server = new Endpoint(sin, new Writer(cin, loopback));
+        l.pending.offer(server);
+        // a listener closing right after accepting us is fine, only refuse if nobody took the connection
+        if ( l.closed && l.pending.remove(server) ) {
+            client.close();
+            throw new IOException("Connection refused: " + getType(loopback) + ":name=" + name);
+        }
+        return client;
+    }
+
+
+    /**
+     * Wait for the next connection
+     *
+     * @return the server end of the connection
+     * @throws IOException
+     *             if the listener was closed
+     */
+    public Endpoint accept () throws IOException {
+        Endpoint e;
+        try {
+            e = this.pending.take();
+        }
+        catch ( InterruptedException Ie ) {
+            throw new InterruptedIOException("Interrupted while accepting");
+        }
+        if ( this.closed ) {
+            this.pending.offer(e);
+            throw new IOException("Listener closed: " + getType(this.loopback) + ":name=" + this.name);
+        }
+        return e;
+    }
+
+
+    /**
+     * Stop accepting connections, established connections are not affected.
+     */
+    public void close () {
+        this.closed = true;
+        getListeners(this.loopback).remove(this.name, this);
+        this.pending.offer(new Endpoint(new Reader(), new Writer(new Reader(), this.loopback)));
+    }
+
+
+    public String getName () {
+        return this.name;
+    }
+}
@@ -24,6 +24,7 @@ import org.apache.commons.codec.binary.Hex;
 import org.apache.log4j.Logger;
 import org.freedesktop.dbus.exceptions.DBusException;
 import org.freedesktop.dbus.exceptions.MarshallingException;
+import org.freedesktop.dbus.exceptions.MessageTypeException;
 import org.freedesktop.dbus.exceptions.UnknownTypeCodeException;
 import org.freedesktop.dbus.types.DBusMap;
 import org.freedesktop.dbus.types.UInt16;
@@ -1357,6 +1358,80 @@ public class Message {
     }
 
 
+    /**
+     * Copy a message marshalled in this JVM for delivery to a peer in this JVM without parsing it again.
+     * The copy is a new message of the same type, so the receiver never shares state with the sender. It
+     * keeps the headers, but extracts the parameters from the marshalled body on demand like a message read
+     * from the wire, as the values passed when creating a message need not have the types the receiver
+     * expects.
+     *
+     * @return the copy
+     * @throws MessageTypeException
+     *             if this is not a message type the receiver could read
+     */
+    Message copyForPeer () throws MessageTypeException {
+        Message m = createBlank(this.type);
+        byte[] head = copyWireData(0, 16);
+        int headerlen = (int) demarshallint(head, 12, 4);
+        if ( 0 != headerlen % 8 )
+            headerlen += 8 - ( headerlen % 8 );
+        m.big = this.big;
+        m.type = this.type;
+        m.flags = this.flags;
+        m.protover = this.protover;
+        m.serial = this.serial;
+        m.bodylen = this.bodylen;
+        m.bytecounter = this.bytecounter;
+        // the marshalled chunks do not change once complete
+        m.wiredata = this.wiredata.clone();
+        m.bufferuse = this.bufferuse;
+        m.headers.putAll(this.headers);
+        m.body = copyWireData(16 + headerlen, (int) demarshallint(head, 4, 4));
+        return m;
+    }
+
+
+    /**
+     * @param type
+     * @return an empty message of the type, to be populated
+     * @throws MessageTypeException
+     *             if the type is unknown
+     */
+    static Message createBlank ( byte type ) throws MessageTypeException {
+        switch ( type ) {
+        case Message.MessageType.METHOD_CALL:
+            return new MethodCall();
+        case Message.MessageType.METHOD_RETURN:
+            return new MethodReturn();
+        case Message.MessageType.SIGNAL:
+            return new DBusSignal();
+        case Message.MessageType.ERROR:
+            return new Error();
+        default:
+            throw new MessageTypeException(String.format("Message type %s unsupported", type));
+        }
+    }
+
+
+    private byte[] copyWireData ( int ofs, int len ) {
+        byte[] buf = new byte[len];
+        int pos = 0;
+        int copied = 0;
+        for ( byte[] chunk : this.wiredata ) {
+            if ( null == chunk || copied == len )
+                break;
+            int start = Math.max(ofs + copied - pos, 0);
+            if ( start < chunk.length ) {
+                int n = Math.min(chunk.length - start, len - copied);
+                System.arraycopy(chunk, start, buf, copied, n);
+                copied += n;
+            }
+            pos += chunk.length;
+        }
+        return buf;
+    }
+
+
     /**
      * Warning, do not use this method unless you really know what you are doing.
      */
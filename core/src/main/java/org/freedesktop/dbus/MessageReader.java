@@ -21,7 +21,6 @@ import org.apache.commons.codec.binary.Hex;
 import org.apache.log4j.Logger;
 import org.freedesktop.dbus.exceptions.DBusException;
 import org.freedesktop.dbus.exceptions.MessageProtocolVersionException;
-import org.freedesktop.dbus.exceptions.MessageTypeException;
 
 
 public class MessageReader {
@@ -41,6 +40,12 @@ public class MessageReader {
     }
 
 
+    /**
+     * For readers which are not backed by a stream.
+     */
+    protected MessageReader () {}
+
+
     public Message readMessage () throws IOException, DBusException {
         int rv;
         /* Read the 12 byte fixed header, retrying as neccessary */
@@ -163,23 +168,6 @@ public class MessageReader {
             return null;
         }
 
-        Message m;
-        switch ( type ) {
-        case Message.MessageType.METHOD_CALL:
-            m = new MethodCall();
-            break;
-        case Message.MessageType.METHOD_RETURN:
-            m = new MethodReturn();
-            break;
-        case Message.MessageType.SIGNAL:
-            m = new DBusSignal();
-            break;
-        case Message.MessageType.ERROR:
-            m = new Error();
-            break;
-        default:
-            throw new MessageTypeException(String.format("Message type %s unsupported", type));
-        }
         if ( log.isTraceEnabled() ) {
             Hex h = new Hex();
             log.trace(h.encode(this.buf));
@@ -187,8 +175,9 @@ public class MessageReader {
             log.trace(h.encode(this.header));
             log.trace(h.encode(this.body));
         }
+        Message m;
         try {
-            m.populate(this.buf, this.header, this.body);
+            m = createMessage(type, this.buf, this.header, this.body);
         }
         catch ( DBusException DBe ) {
             this.buf = null;
@@ -215,6 +204,75 @@ public class MessageReader {
     }
 
 
+    /**
+     * Create a received message.
+     * 
+     * @param type
+     *            the message type
+     * @param buf
+     *            the 12 byte fixed header
+     * @param header
+     *            the header fields, starting with their length
+     * @param body
+     *            the message body
+     * @return the populated message
+     * @throws IOException
+     *             if the message type is unknown
+     * @throws DBusException
+     */
+    static Message createMessage ( byte type, byte[] buf, byte[] header, byte[] body ) throws IOException, DBusException {
+        Message m = Message.createBlank(type);
+        m.populate(buf, header, body);
+        return m;
+    }
+
+
+    /**
+     * @return the number of bytes that can be read without blocking
+     * @throws IOException
+     */
+    public int available () throws IOException {
+        return this.in.available();
+    }
+
+
+    /**
+     * Check whether a whole message has been received, without blocking.
+     * Buffered bytes alone do not mean that, readMessage() blocks on a message which has only been
+     * received in part.
+     * 
+     * @return whether readMessage() can return the next message without blocking
+     * @throws IOException
+     */
+    public boolean isMessageAvailable () throws IOException {
+        // a message read in part is only completed by blocking reads
+        if ( null != this.buf )
+            return false;
+        int available = this.in.available();
+        if ( available < 16 )
+            return false;
+        byte[] fixed = new byte[16];
+        this.in.mark(fixed.length);
+        int n = 0;
+        try {
+            int rv;
+            while ( n < fixed.length && ( rv = this.in.read(fixed, n, fixed.length - n) ) > 0 )
+                n += rv;
+        }
+        finally {
+            this.in.reset();
+        }
+        if ( n < fixed.length )
+            return false;
+        byte endian = fixed[ 0 ];
+        long headerlen = Message.demarshallint(fixed, 12, endian, 4);
+        if ( 0 != headerlen % 8 )
+            headerlen += 8 - ( headerlen % 8 );
+        long bodylen = Message.demarshallint(fixed, 4, endian, 4);
+        return this.in.available() >= 16 + headerlen + bodylen;
+    }
+
+
     public void close () throws IOException {
         log.info("Closing Message Reader");
         this.in.close();
@@ -36,7 +36,28 @@ public class MessageWriter {
     }
 
 
+    /**
+     * For writers which are not backed by a stream.
+     */
+    protected MessageWriter () {}
+
+
     public void writeMessage ( Message m ) throws IOException {
+        bufferMessage(m);
+        this.out.flush();
+    }
+
+
+    /**
+     * Write a message without flushing the underlying stream.
+     * 
+     * Allows writing a batch of messages with a single flush.
+     * 
+     * @param m
+     * @throws IOException
+     * @see #flush()
+     */
+    public void bufferMessage ( Message m ) throws IOException {
         log.info("<= " + m);
 
         if ( null == m )
@@ -55,6 +76,10 @@ public class MessageWriter {
                 break;
             this.out.write(buf);
         }
+    }
+
+
+    public void flush () throws IOException {
         this.out.flush();
     }
 
@@ -128,6 +128,11 @@ public class MethodCall extends Message {
         REPLY_WAIT_TIMEOUT = timeout;
     }
 
+
+    static long getDefaultTimeout () {
+        return REPLY_WAIT_TIMEOUT;
+    }
+
     Message reply = null;
 
 
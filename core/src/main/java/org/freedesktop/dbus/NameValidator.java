@@ -0,0 +1,109 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus;
+
+
+/**
+ * Checks the syntax of bus names and object paths.
+ *
+ * Each check is a single pass over the characters of the name, without compiling a pattern or allocating.
+ * None of them check the length of the name against {@link AbstractConnection#MAX_NAME_LENGTH}.
+ */
+final class NameValidator {
+
+    private NameValidator () {}
+
+
+    /**
+     * A well known bus name: elements of [-_a-zA-Z0-9] not starting with a digit, separated by dots
+     *
+     * @param name
+     * @return whether the name is a well known bus name
+     */
+    static boolean isBusName ( String name ) {
+        int len = name.length();
+        boolean start = true;
+        for ( int i = 0; i < len; i++ ) {
+            char c = name.charAt(i);
+            if ( '.' == c ) {
+                if ( start )
+                    return false;
+                start = true;
+            }
+            else if ( isNameChar(c) && ! ( start && isDigit(c) ) )
+                start = false;
+            else
+                return false;
+        }
+        return !start;
+    }
+
+
+    /**
+     * A unique connection name: a colon followed by two numbers separated by a dot, either may be empty
+     *
+     * @param name
+     * @return whether the name is a unique connection name
+     */
+    static boolean isConnectionId ( String name ) {
+        int len = name.length();
+        if ( 0 == len || ':' != name.charAt(0) )
+            return false;
+        boolean dot = false;
+        for ( int i = 1; i < len; i++ ) {
+            char c = name.charAt(i);
+            if ( '.' == c && !dot )
+                dot = true;
+            else if ( !isDigit(c) )
+                return false;
+        }
+        return dot;
+    }
+
+
+    /**
+     * An object path: a slash, or elements of [-_a-zA-Z0-9] each preceded by a slash
+     *
+     * @param path
+     * @return whether the path is an object path
+     */
+    static boolean isObjectPath ( String path ) {
+        int len = path.length();
+        if ( 0 == len || '/' != path.charAt(0) )
+            return false;
+        if ( 1 == len )
+            return true;
+        boolean start = true;
+        for ( int i = 1; i < len; i++ ) {
+            char c = path.charAt(i);
+            if ( '/' == c ) {
+                if ( start )
+                    return false;
+                start = true;
+            }
+            else if ( isNameChar(c) )
+                start = false;
+            else
+                return false;
+        }
+        return !start;
+    }
+
+
+    private static boolean isDigit ( char c ) {
+        return c >= '0' && c <= '9';
+    }
+
+
+    private static boolean isNameChar ( char c ) {
+        return ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' ) || isDigit(c) || '_' == c || '-' == c;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus;
+
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The paths exported objects are exported on, by object identity.
+ *
+ * Objects are only weakly referenced, so an object exported with weak references can still be collected.
+ * Its entry is dropped once that happened. Not thread safe, the connection guards it with the lock on
+ * its exported objects.
+ */
+final class ObjectPathIndex {
+
+    private static final class Key extends WeakReference<Object> {
+
+        private final int hash;
+
+
+        Key ( Object o, ReferenceQueue<Object> queue ) {
+            super(o, queue);
+            this.hash = System.identityHashCode(o);
+        }
+
+
+        @Override
+        public boolean equals ( Object o ) {
+            if ( this == o )
+                return true;
+            if ( ! ( o instanceof Key ) )
+                return false;
+            Object referent = get();
+            return null != referent && referent == ( (Key) o ).get();
+        }
+
+
+        @Override
+        public int hashCode () {
+            return this.hash;
+        }
+    }
+
+    private final Map<Key, List<String>> paths = new HashMap<>();
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+
+    void add ( Object o, String path ) {
+        expunge();
+        Key k = new Key(o, this.queue);
+        List<String> l = this.paths.get(k);
+        if ( null == l ) {
+            l = new ArrayList<>(1);
+            this.paths.put(k, l);
+        }
+        l.add(path);
+    }
+
+
+    void remove ( Object o, String path ) {
+        expunge();
+        if ( null == o )
+            return;
+        Key k = new Key(o, null);
+        List<String> l = this.paths.get(k);
+        if ( null != l ) {
+            l.remove(path);
+            if ( l.isEmpty() )
+                this.paths.remove(k);
+        }
+    }
+
+
+    /**
+     * @param o
+     * @return a path the object is exported on, null if it is not exported
+     */
+    String get ( Object o ) {
+        expunge();
+        List<String> l = this.paths.get(new Key(o, null));
+        return null == l ? null : l.get(0);
+    }
+
+
+    /**
+     * @param o
+     * @return all paths the object is exported on, in the order it was exported on them
+     */
+    List<String> getAll ( Object o ) {
+        expunge();
+        List<String> l = this.paths.get(new Key(o, null));
+        return null == l ? Collections.<String> emptyList() : new ArrayList<>(l);
+    }
+
+
+    private void expunge () {
+        Reference<? extends Object> r;
+        while ( null != ( r = this.queue.poll() ) )
+            this.paths.remove(r);
+    }
+}
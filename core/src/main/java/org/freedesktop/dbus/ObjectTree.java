@@ -11,6 +11,10 @@
 package org.freedesktop.dbus;
 
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
@@ -18,6 +22,9 @@ import org.apache.log4j.Logger;
 
 /**
  * Keeps track of the exported objects for introspection data
+ *
+ * Children are found by name through a hash map, and the introspection data of each node is kept once
+ * built until an object is added or removed on the node or one of its children.
  */
 class ObjectTree {
 
@@ -28,8 +35,10 @@ class ObjectTree {
         String name;
         ExportedObject object;
         String data;
-        TreeNode right;
-        TreeNode down;
+        TreeNode parent;
+        Map<String, TreeNode> children;
+        /** introspection data of this node, null until requested after the last change */
+        String introspection;
 
 
         public TreeNode ( String name ) {
@@ -54,131 +63,149 @@ class ObjectTree {
     public static final Pattern slashpattern = Pattern.compile("/");
 
 
-    private TreeNode recursiveFind ( TreeNode current, String path ) {
-        if ( "/".equals(path) )
-            return current;
-        String[] elements = path.split("/", 2);
-        // this is us or a parent node
-        if ( path.startsWith(current.name) ) {
-            // this is us
-            if ( path.equals(current.name) ) {
-                return current;
+    /**
+     * @param create
+     *            add missing nodes on the way
+     * @return the node for the path, null if there is none
+     */
+    private TreeNode find ( String path, boolean create ) {
+        TreeNode current = this.root;
+        int start = 1;
+        while ( start < path.length() ) {
+            int end = path.indexOf('/', start);
+            if ( end < 0 )
+                end = path.length();
+            String name = path.substring(start, end);
+            TreeNode next = null == current.children ? null : current.children.get(name);
+            if ( null == next ) {
+                if ( !create )
+                    return null;
+                next = new TreeNode(name);
+                next.parent = current;
+                if ( null == current.children )
+                    current.children = new HashMap<>();
+                current.children.put(name, next);
+                // the parent lists its children
+                current.introspection = null;
             }
-            // recurse down
-
-            if ( current.down == null ) {
-                return null;
-            }
-            return recursiveFind(current.down, elements[ 1 ]);
-        }
-        else if ( current.right == null ) {
-            return null;
-        }
-        else if ( 0 > current.right.name.compareTo(elements[ 0 ]) ) {
-            return null;
-        }
-        // recurse right
-        else {
-            return recursiveFind(current.right, path);
+            current = next;
+            start = end + 1;
         }
+        return current;
     }
 
 
-    private TreeNode recursiveAdd ( TreeNode current, String path, ExportedObject object, String data ) {
-        String[] elements = slashpattern.split(path, 2);
-        // this is us or a parent node
-        if ( path.startsWith(current.name) ) {
-            // this is us
-            if ( 1 == elements.length || "".equals(elements[ 1 ]) ) {
-                current.object = object;
-                current.data = data;
-            }
-            // recurse down
-            else {
-                if ( current.down == null ) {
-                    String[] el = elements[ 1 ].split("/", 2);
-                    current.down = new TreeNode(el[ 0 ]);
-                }
-                current.down = recursiveAdd(current.down, elements[ 1 ], object, data);
-            }
-        }
-        // need to create a new sub-tree on the end
-        else if ( current.right == null ) {
-            current.right = new TreeNode(elements[ 0 ]);
-            current.right = recursiveAdd(current.right, path, object, data);
-        }
-        // need to insert here
-        else if ( 0 > current.right.name.compareTo(elements[ 0 ]) ) {
-            TreeNode t = new TreeNode(elements[ 0 ]);
-            t.right = current.right;
-            current.right = t;
-            current.right = recursiveAdd(current.right, path, object, data);
-        }
-        // recurse right
-        else {
-            current.right = recursiveAdd(current.right, path, object, data);
+    public synchronized void add ( String path, ExportedObject object, String data ) {
+        if ( log.isDebugEnabled() ) {
+            log.debug("Adding " + path + " to object tree");
         }
-        return current;
+        put(path, object, data);
     }
 
 
-    public void add ( String path, ExportedObject object, String data ) {
+    /**
+     * Add several objects at once, with their introspection data
+     *
+     * @param objects
+     *            exported objects by path
+     */
+    public synchronized void addAll ( Map<String, ExportedObject> objects ) {
         if ( log.isDebugEnabled() ) {
-            log.debug("Adding " + path + " to object tree");
+            log.debug("Adding " + objects.size() + " objects to object tree");
         }
-        this.root = recursiveAdd(this.root, path, object, data);
+        for ( Map.Entry<String, ExportedObject> e : objects.entrySet() )
+            put(e.getKey(), e.getValue(), e.getValue().introspectiondata);
     }
 
 
-    public void remove ( String path ) {
+    public synchronized void remove ( String path ) {
         if ( log.isDebugEnabled() ) {
             log.debug("Removing " + path + " from object tree");
         }
-        TreeNode t = recursiveFind(this.root, path);
+        clear(path);
+    }
+
+
+    public synchronized void removeAll ( Collection<String> paths ) {
+        if ( log.isDebugEnabled() ) {
+            log.debug("Removing " + paths.size() + " objects from object tree");
+        }
+        for ( String path : paths )
+            clear(path);
+    }
+
+
+    private void put ( String path, ExportedObject object, String data ) {
+        TreeNode t = find(path, true);
+        t.object = object;
+        t.data = data;
+        t.introspection = null;
+    }
+
+
+    private void clear ( String path ) {
+        TreeNode t = find(path, false);
+        if ( null == t )
+            return;
         t.object = null;
         t.data = null;
+        t.introspection = null;
+        // drop nodes which neither have an object nor lead to one
+        while ( null != t.parent && null == t.object && ( null == t.children || t.children.isEmpty() ) ) {
+            t.parent.children.remove(t.name);
+            t.parent.introspection = null;
+            t = t.parent;
+        }
     }
 
 
-    public String Introspect ( String path ) {
-        TreeNode t = recursiveFind(this.root, path);
+    public synchronized String Introspect ( String path ) {
+        TreeNode t = find(path, false);
         if ( null == t )
             return null;
+        if ( null != t.introspection )
+            return t.introspection;
+
         StringBuilder sb = new StringBuilder();
         sb.append("<node name=\"");
         sb.append(path);
         sb.append("\">\n");
         if ( null != t.data )
             sb.append(t.data);
-        t = t.down;
-        while ( null != t ) {
-            sb.append("<node name=\"");
-            sb.append(t.name);
-            sb.append("\"/>\n");
-            t = t.right;
+        if ( null != t.children ) {
+            String[] names = t.children.keySet().toArray(new String[0]);
+            Arrays.sort(names);
+            for ( String name : names ) {
+                sb.append("<node name=\"");
+                sb.append(name);
+                sb.append("\"/>\n");
+            }
         }
         sb.append("</node>");
-        return sb.toString();
+        t.introspection = sb.toString();
+        return t.introspection;
     }
 
 
     private String recursivePrint ( TreeNode current ) {
-        String s = "";
-        if ( null != current ) {
-            s += current.name;
-            if ( null != current.object )
-                s += "*";
-            if ( null != current.down )
-                s += "/{" + recursivePrint(current.down) + "}";
-            if ( null != current.right )
-                s += ", " + recursivePrint(current.right);
+        String s = current.name;
+        if ( null != current.object )
+            s += "*";
+        if ( null != current.children && !current.children.isEmpty() ) {
+            String sep = "";
+            s += "/{";
+            for ( TreeNode child : current.children.values() ) {
+                s += sep + recursivePrint(child);
+                sep = ", ";
+            }
+            s += "}";
         }
         return s;
     }
 
 
     @Override
-    public String toString () {
+    public synchronized String toString () {
         return recursivePrint(this.root);
     }
 }
@@ -0,0 +1,50 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus;
+
+
+/**
+ * Stands in for a local object by its path where the API wants a DBusInterface, for objects which are no
+ * longer or not necessarily exported. Marshalled as the path.
+ */
+final class PathReference implements DBusInterface {
+
+    final String path;
+
+
+    PathReference ( String path ) {
+        this.path = path;
+    }
+
+
+    @Override
+    public boolean isRemote () {
+        return false;
+    }
+
+
+    @Override
+    public boolean equals ( Object o ) {
+        return ( o instanceof PathReference ) && this.path.equals( ( (PathReference) o ).path);
+    }
+
+
+    @Override
+    public int hashCode () {
+        return this.path.hashCode();
+    }
+
+
+    @Override
+    public String toString () {
+        return this.path;
+    }
+}
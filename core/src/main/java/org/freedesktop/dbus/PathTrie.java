@@ -0,0 +1,258 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Radix trie over object paths, holding an object and a fallback for each path.
+ *
+ * Lookups walk the characters of the path once without locking or allocating and find both the object
+ * exported on the path and the fallback registered on its longest prefix. Updates are serialized and
+ * never change a node or child array a reader may be looking at, they build new ones and publish them
+ * through volatile fields instead.
+ *
+ * @param <V>
+ */
+final class PathTrie <V> {
+
+    private static final class Node {
+
+        final String label;
+        volatile Node[] children = EMPTY;
+        volatile Object value;
+        volatile Object fallback;
+
+
+        Node ( String label ) {
+            this.label = label;
+        }
+
+
+        Node copy ( String l ) {
+            Node n = new Node(l);
+            n.children = this.children;
+            n.value = this.value;
+            n.fallback = this.fallback;
+            return n;
+        }
+
+
+        boolean isEmpty () {
+            return null == this.value && null == this.fallback;
+        }
+    }
+
+    private static final Node[] EMPTY = new Node[0];
+
+    private final Node root = new Node("");
+    private volatile Object nullValue;
+
+
+    /**
+     * @param path
+     * @return the object on exactly that path, or null
+     */
+    V get ( String path ) {
+        if ( null == path )
+            return cast(this.nullValue);
+        return find(path, true, false);
+    }
+
+
+    /**
+     * @param path
+     * @return the fallback registered on the longest prefix of the path, or null
+     */
+    V getFallback ( String path ) {
+        return find(path, false, true);
+    }
+
+
+    /**
+     * @param path
+     * @return the object on exactly that path, or if there is none the fallback on its longest prefix
+     */
+    V lookup ( String path ) {
+        if ( null == path )
+            return cast(this.nullValue);
+        return find(path, true, true);
+    }
+
+
+    synchronized void put ( String path, V value ) {
+        if ( null == path )
+            this.nullValue = value;
+        else
+            insert(path).value = value;
+    }
+
+
+    synchronized void putFallback ( String path, V fallback ) {
+        insert(path).fallback = fallback;
+    }
+
+
+    synchronized void remove ( String path ) {
+        if ( null == path )
+            this.nullValue = null;
+        else
+            delete(path, false);
+    }
+
+
+    synchronized void removeFallback ( String path ) {
+        delete(path, true);
+    }
+
+
+    @SuppressWarnings ( "unchecked" )
+    private static <V> V cast ( Object o ) {
+        return (V) o;
+    }
+
+
+    private V find ( String path, boolean exact, boolean fallback ) {
+        Object best = null;
+        Node n = this.root;
+        int pos = 0;
+        int len = path.length();
+        while ( true ) {
+            if ( fallback && null != n.fallback && ( pos == len || '/' == path.charAt(pos) || ( pos > 0 && '/' == path.charAt(pos - 1) ) ) )
+                best = n.fallback;
+            if ( pos == len ) {
+                if ( exact && null != n.value )
+                    return cast(n.value);
+                return cast(best);
+            }
+            Node[] c = n.children;
+            int i = search(c, path.charAt(pos));
+            if ( i < 0 )
+                return cast(best);
+            Node child = c[ i ];
+            if ( !path.regionMatches(pos, child.label, 0, child.label.length()) )
+                return cast(best);
+            pos += child.label.length();
+            n = child;
+        }
+    }
+
+
+    /**
+     * @return the node for the path, created if there is none
+     */
+    private Node insert ( String path ) {
+        Node n = this.root;
+        int pos = 0;
+        while ( pos < path.length() ) {
+            Node[] c = n.children;
+            int i = search(c, path.charAt(pos));
+            if ( i < 0 ) {
+                Node leaf = new Node(path.substring(pos));
+                i = -i - 1;
+                Node[] nc = new Node[c.length + 1];
+                System.arraycopy(c, 0, nc, 0, i);
+                nc[ i ] = leaf;
+                System.arraycopy(c, i, nc, i + 1, c.length - i);
+                n.children = nc;
+                return leaf;
+            }
+            Node child = c[ i ];
+            int common = 1;
+            int max = Math.min(child.label.length(), path.length() - pos);
+            while ( common < max && child.label.charAt(common) == path.charAt(pos + common) )
+                common++;
+            if ( common < child.label.length() ) {
+                // split the edge, the new node is complete before it gets published
+                Node mid = new Node(child.label.substring(0, common));
+                mid.children = new Node[] {
+                    child.copy(child.label.substring(common))
+                };
+                replace(n, i, mid);
+                child = mid;
+            }
+            n = child;
+            pos += common;
+        }
+        return n;
+    }
+
+
+    private void delete ( String path, boolean fallback ) {
+        List<Node> parents = new ArrayList<>();
+        Node n = this.root;
+        int pos = 0;
+        while ( pos < path.length() ) {
+            Node[] c = n.children;
+            int i = search(c, path.charAt(pos));
+            if ( i < 0 || !path.regionMatches(pos, c[ i ].label, 0, c[ i ].label.length()) )
+                return;
+            parents.add(n);
+            n = c[ i ];
+            pos += n.label.length();
+        }
+        if ( fallback )
+            n.fallback = null;
+        else
+            n.value = null;
+
+        // drop nodes left empty and merge those left with a single child into it
+        for ( int j = parents.size() - 1; j >= 0 && n.isEmpty(); j-- ) {
+            Node parent = parents.get(j);
+            Node[] c = parent.children;
+            int i = search(c, n.label.charAt(0));
+            if ( 0 == n.children.length ) {
+                Node[] nc = new Node[c.length - 1];
+                System.arraycopy(c, 0, nc, 0, i);
+                System.arraycopy(c, i + 1, nc, i, c.length - i - 1);
+                parent.children = nc;
+            }
+            else if ( 1 == n.children.length ) {
+                Node only = n.children[ 0 ];
+                replace(parent, i, only.copy(n.label + only.label));
+                break;
+            }
+            else
+                break;
+            n = parent;
+        }
+    }
+
+
+    private static void replace ( Node parent, int i, Node child ) {
+        Node[] nc = parent.children.clone();
+        nc[ i ] = child;
+        parent.children = nc;
+    }
+
+
+    /**
+     * Binary search of the children, which are sorted by the first character of their label
+     */
+    private static int search ( Node[] c, char ch ) {
+        int lo = 0;
+        int hi = c.length - 1;
+        while ( lo <= hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            char m = c[ mid ].label.charAt(0);
+            if ( m < ch )
+                lo = mid + 1;
+            else if ( m > ch )
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return - ( lo + 1 );
+    }
+}
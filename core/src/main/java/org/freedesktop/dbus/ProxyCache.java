@@ -0,0 +1,125 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus;
+
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Proxies for remote objects of one connection, by bus name, object path, interfaces and autostart setting.
+ *
+ * The proxies are only weakly referenced, so asking for the same remote object again returns the proxy
+ * still in use instead of creating another, and proxies nobody uses any more are dropped.
+ */
+final class ProxyCache {
+
+    private static final class Key {
+
+        private final String busname;
+        private final String objectpath;
+        private final Set<Class<?>> ifaces;
+        private final boolean autostart;
+
+
+        Key ( RemoteObject ro, Class<?>[] ifaces ) {
+            this.busname = ro.busname;
+            this.objectpath = ro.objectpath;
+            this.ifaces = new HashSet<>(Arrays.asList(ifaces));
+            this.autostart = ro.autostart;
+        }
+
+
+        @Override
+        public boolean equals ( Object o ) {
+            if ( ! ( o instanceof Key ) )
+                return false;
+            Key k = (Key) o;
+            return ( null == this.busname ? null == k.busname : this.busname.equals(k.busname) ) && this.objectpath.equals(k.objectpath)
+                    && this.ifaces.equals(k.ifaces) && this.autostart == k.autostart;
+        }
+
+
+        @Override
+        public int hashCode () {
+            return ( null == this.busname ? 0 : this.busname.hashCode() ) * 31 + this.objectpath.hashCode() * 17 + this.ifaces.hashCode()
+                    + ( this.autostart ? 1 : 0 );
+        }
+    }
+
+    private static final class Ref extends WeakReference<DBusInterface> {
+
+        final Key key;
+
+
+        Ref ( Key key, DBusInterface proxy, ReferenceQueue<DBusInterface> queue ) {
+            super(proxy, queue);
+            this.key = key;
+        }
+    }
+
+    private final ConcurrentMap<Key, Ref> proxies = new ConcurrentHashMap<>();
+    private final ReferenceQueue<DBusInterface> queue = new ReferenceQueue<>();
+
+
+    /**
+     * @param ro
+     * @param ifaces
+     *            the interfaces the proxy implements
+     * @return the proxy for the remote object, or null if there is none in use
+     */
+    DBusInterface get ( RemoteObject ro, Class<?>[] ifaces ) {
+        expunge();
+        Ref r = this.proxies.get(new Key(ro, ifaces));
+        return null == r ? null : r.get();
+    }
+
+
+    /**
+     * Add a proxy unless another thread added one for the same remote object first
+     *
+     * @param ro
+     * @param ifaces
+     *            the interfaces the proxy implements
+     * @param proxy
+     * @return the proxy in the cache
+     */
+    DBusInterface put ( RemoteObject ro, Class<?>[] ifaces, DBusInterface proxy ) {
+        Key k = new Key(ro, ifaces);
+        Ref r = new Ref(k, proxy, this.queue);
+        while ( true ) {
+            Ref old = this.proxies.putIfAbsent(k, r);
+            if ( null == old )
+                return proxy;
+            DBusInterface i = old.get();
+            if ( null != i )
+                return i;
+            if ( this.proxies.replace(k, old, r) )
+                return proxy;
+        }
+    }
+
+
+    private void expunge () {
+        Reference<? extends DBusInterface> r;
+        while ( null != ( r = this.queue.poll() ) ) {
+            Ref ref = (Ref) r;
+            this.proxies.remove(ref.key, ref);
+        }
+    }
+}
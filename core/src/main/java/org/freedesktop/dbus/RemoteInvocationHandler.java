@@ -32,6 +32,8 @@ public class RemoteInvocationHandler implements InvocationHandler {
     public static final int CALL_TYPE_SYNC = 0;
     public static final int CALL_TYPE_ASYNC = 1;
     public static final int CALL_TYPE_CALLBACK = 2;
+    /** How often an idempotent call is sent again after the connection was restored */
+    static final int IDEMPOTENT_RETRIES = 3;
 
 
     public static Object convertRV ( String sig, Object[] r, Method m, AbstractConnection conn ) throws DBusException {
@@ -86,6 +88,12 @@ public class RemoteInvocationHandler implements InvocationHandler {
 
     public static Object executeRemoteMethod ( RemoteObject ro, Method m, AbstractConnection conn, int syncmethod, CallbackHandler<Object> callback,
             Object... a ) throws DBusExecutionException {
+        return executeRemoteMethod(ro, m, conn, syncmethod, callback, IDEMPOTENT_RETRIES, a);
+    }
+
+
+    private static Object executeRemoteMethod ( RemoteObject ro, Method m, AbstractConnection conn, int syncmethod,
+            CallbackHandler<Object> callback, int retries, Object[] a ) throws DBusExecutionException {
 
         Object[] args = a;
         Type[] ts = m.getGenericParameterTypes();
@@ -174,8 +182,16 @@ public class RemoteInvocationHandler implements InvocationHandler {
         if ( null == reply )
             throw new DBus.Error.NoReply("No reply within specified time");
 
-        if ( reply instanceof Error )
+        if ( reply instanceof Error ) {
+            // calls made while the connection is down fail with NotConnected rather than Disconnected
+            if ( retries > 0
+                    && ( "org.freedesktop.DBus.Local.Disconnected".equals(reply.getName()) || NotConnected.class.getName().equals(reply.getName()) )
+                    && m.isAnnotationPresent(DBus.Method.Idempotent.class) && conn.awaitReconnect(MethodCall.getDefaultTimeout()) ) {
+                log.info("Sending " + call + " again after reconnecting");
+                return executeRemoteMethod(ro, m, conn, syncmethod, callback, retries - 1, a);
+            }
             ( (Error) reply ).throwException(conn);
+        }
 
         try {
             return convertRV(reply.getSig(), reply.getParameters(), m, conn);
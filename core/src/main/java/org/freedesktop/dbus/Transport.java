@@ -11,26 +11,24 @@
 package org.freedesktop.dbus;
 
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.Collator;
 import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Random;
-import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.codec.binary.Hex;
 import org.apache.log4j.Logger;
@@ -44,6 +42,33 @@ public class Transport {
 
     static final Logger log = Logger.getLogger(Transport.class);
 
+    private static final ConcurrentMap<String, TransportProvider> providers = new ConcurrentHashMap<>();
+
+    static {
+        TransportProvider sockets = new SocketProvider();
+        TransportProvider memory = new MemoryProvider();
+        providers.put("unix", sockets);
+        providers.put("tcp", sockets);
+        providers.put("memory", memory);
+        providers.put("loopback", memory);
+    }
+
+    private static class SocketProvider implements TransportProvider {
+
+        @Override
+        public void connect ( Transport transport, BusAddress address, int timeout, boolean pipelined, Message... initial ) throws IOException {
+            transport.connectSocket(address, timeout, pipelined, initial);
+        }
+    }
+
+    private static class MemoryProvider implements TransportProvider {
+
+        @Override
+        public void connect ( Transport transport, BusAddress address, int timeout, boolean pipelined, Message... initial ) throws IOException {
+            transport.connectMemory(address, timeout, initial);
+        }
+    }
+
     public static class SASL {
 
         public static class Command {
@@ -104,6 +129,9 @@ public class Transport {
                     this.command = COMMAND_ERROR;
                     this.data = ss[ 1 ];
                 }
+                else if ( 0 == col.compare(ss[ 0 ], "NEGOTIATE_UNIX_FD") ) {
+                    this.command = COMMAND_NEGOTIATE_UNIX_FD;
+                }
                 else {
                     throw new IOException("Invalid Command " + ss[ 0 ]);
                 }
@@ -157,78 +185,6 @@ public class Transport {
         public static final String COOKIE_CONTEXT = "org_freedesktop_java";
 
 
-        private static String findCookie ( String context, String ID ) throws IOException {
-            String homedir = System.getProperty("user.home");
-            File f = new File(homedir + "/.dbus-keyrings/" + context);
-            try ( BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(f))) ) {
-                String s = null;
-                String c = null;
-                long now = System.currentTimeMillis() / 1000;
-                while ( null != ( s = r.readLine() ) ) {
-                    String[] line = s.split(" ");
-                    long timestamp = Long.parseLong(line[ 1 ]);
-                    if ( line[ 0 ].equals(ID)
-                            && ( ! ( timestamp < 0 || ( now + MAX_TIME_TRAVEL_SECONDS ) < timestamp || ( now - EXPIRE_KEYS_TIMEOUT_SECONDS ) > timestamp ) ) ) {
-                        c = line[ 2 ];
-                        break;
-                    }
-                }
-                return c;
-            }
-
-        }
-
-
-        private static void addCookie ( String context, String ID, long timestamp, String c ) throws IOException {
-            String homedir = System.getProperty("user.home");
-            File keydir = new File(homedir + "/.dbus-keyrings/");
-            File cookiefile = new File(homedir + "/.dbus-keyrings/" + context);
-            File lock = new File(homedir + "/.dbus-keyrings/" + context + ".lock");
-            File temp = new File(homedir + "/.dbus-keyrings/" + context + ".temp");
-
-            // ensure directory exists
-            if ( !keydir.exists() )
-                keydir.mkdirs();
-
-            // acquire lock
-            long start = System.currentTimeMillis();
-            while ( !lock.createNewFile() && LOCK_TIMEOUT > ( System.currentTimeMillis() - start ) );
-
-            // read old file
-            Vector<String> lines = new Vector<>();
-            if ( cookiefile.exists() ) {
-                try ( BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(cookiefile))) ) {
-                    String s = null;
-                    while ( null != ( s = r.readLine() ) ) {
-                        String[] line = s.split(" ");
-                        long time = Long.parseLong(line[ 1 ]);
-                        // expire stale cookies
-                        if ( ( timestamp - time ) < COOKIE_TIMEOUT )
-                            lines.add(s);
-                    }
-                }
-            }
-
-            // add cookie
-            lines.add(ID + " " + timestamp + " " + c);
-
-            // write temp file
-            try ( PrintWriter w = new PrintWriter(new FileOutputStream(temp)) ) {
-                for ( String l : lines )
-                    w.println(l);
-            }
-
-            // atomically move to old file
-            if ( !temp.renameTo(cookiefile) ) {
-                cookiefile.delete();
-                temp.renameTo(cookiefile);
-            }
-
-            // remove lock
-            lock.delete();
-        }
-
-
         /**
          * Takes the string, encodes it as hex and then turns it into a string again.
          * No, I don't know why either.
@@ -304,6 +260,7 @@ public class Transport {
         public static final int COMMAND_BEGIN = 5;
         public static final int COMMAND_CANCEL = 6;
         public static final int COMMAND_ERROR = 7;
+        public static final int COMMAND_NEGOTIATE_UNIX_FD = 8;
 
         public static final int INITIAL_STATE = 0;
         public static final int WAIT_DATA = 1;
@@ -320,6 +277,40 @@ public class Transport {
         public static final int REJECT = 4;
 
 
+        private final boolean pipelined;
+        private boolean unconfirmed;
+
+
+        public SASL () {
+            this(false);
+        }
+
+
+        /**
+         * @param pipelined
+         *            whether the client should send its commands without waiting for each reply. With EXTERNAL
+         *            auth everything up to BEGIN is sent at once and the replies are checked by confirm.
+         */
+        public SASL ( boolean pipelined ) {
+            this.pipelined = pipelined;
+        }
+
+
+        /**
+         * Read the replies to a pipelined EXTERNAL auth, does nothing if auth was not pipelined.
+         * 
+         * @return whether the server accepted us
+         */
+        public boolean confirm ( InputStream in ) throws IOException {
+            if ( !this.unconfirmed )
+                return true;
+            this.unconfirmed = false;
+
+            Command c = receive(in);
+            return COMMAND_OK == c.getCommand();
+        }
+
+
         public Command receive ( InputStream s ) throws IOException {
             StringBuffer sb = new StringBuffer();
             top:
@@ -419,10 +410,7 @@ public class Transport {
                 Message.marshallintBig(System.currentTimeMillis(), buf, 0, 8);
                 String clientchallenge = stupidlyEncode(md.digest(buf));
                 md.reset();
-                long start = System.currentTimeMillis();
-                String challengeCookie = null;
-                while ( null == challengeCookie && ( System.currentTimeMillis() - start ) < LOCK_TIMEOUT )
-                    challengeCookie = findCookie(context, ID);
+                String challengeCookie = Keyring.get(context).find(ID);
                 if ( null == challengeCookie ) {
                     if ( log.isDebugEnabled() ) {
                         log.debug("Did not find a cookie in context " + context + " with ID " + ID);
@@ -470,15 +458,15 @@ public class Transport {
                     return ERROR;
                 case AUTH_SHA:
                     String context = COOKIE_CONTEXT;
-                    long id = System.currentTimeMillis();
+                    String id = "";
                     byte[] buf = new byte[8];
-                    Message.marshallintBig(id, buf, 0, 8);
-                    this.challenge = stupidlyEncode(md.digest(buf));
                     Random r = new Random();
                     r.nextBytes(buf);
-                    this.cookie = stupidlyEncode(md.digest(buf));
+                    this.challenge = stupidlyEncode(md.digest(buf));
                     try {
-                        addCookie(context, "" + id, id / 1000, this.cookie);
+                        Keyring.Cookie k = Keyring.get(context).getServerCookie();
+                        id = k.id;
+                        this.cookie = k.cookie;
                     }
                     catch ( IOException IOe ) {
                         log.warn("IOException during cookie auth", IOe);
@@ -593,8 +581,25 @@ public class Transport {
                             log.debug("Sending credentials");
                             us.sendCredentials((byte) 0);
                         }
-                        send(out, COMMAND_AUTH);
-                        state = WAIT_DATA;
+                        if ( this.pipelined && 0 != ( types & AUTH_EXTERNAL ) ) {
+                            // the server can only accept or reject EXTERNAL, so do not wait for it
+                            log.debug("Pipelining EXTERNAL with " + Uid);
+                            send(out, COMMAND_AUTH, "EXTERNAL", Uid);
+                            send(out, COMMAND_BEGIN);
+                            this.unconfirmed = true;
+                            state = AUTHENTICATED;
+                        }
+                        else if ( this.pipelined && 0 != ( types & AUTH_SHA ) ) {
+                            // skip asking for the mechanisms, a rejection falls back as usual
+                            log.debug("Trying DBUS_COOKIE_SHA1 with " + Uid);
+                            send(out, COMMAND_AUTH, "DBUS_COOKIE_SHA1", Uid);
+                            current = AUTH_SHA;
+                            state = WAIT_DATA;
+                        }
+                        else {
+                            send(out, COMMAND_AUTH);
+                            state = WAIT_DATA;
+                        }
                         break;
                     case WAIT_DATA:
                         c = receive(in);
@@ -811,6 +816,10 @@ public class Transport {
                         case COMMAND_BEGIN:
                             state = AUTHENTICATED;
                             break;
+                        case COMMAND_NEGOTIATE_UNIX_FD:
+                            // decline, so that clients asking for it carry on without
+                            send(out, COMMAND_ERROR, "Unix file descriptor passing not supported");
+                            break;
                         default:
                             send(out, COMMAND_ERROR, "Got invalid command");
                             break;
@@ -831,6 +840,7 @@ public class Transport {
 
     public MessageReader min;
     public MessageWriter mout;
+    private Socket sock;
 
 
     public Transport () {}
@@ -876,11 +886,64 @@ public class Transport {
 
     @SuppressWarnings ( "resource" )
     public void connect ( BusAddress address, int timeout ) throws IOException {
+        connect(address, timeout, false);
+    }
+
+
+    /**
+     * Connect and authenticate.
+     * 
+     * @param address
+     * @param timeout
+     *            socket read timeout in ms, 0 to block
+     * @param pipelined
+     *            send the auth commands without waiting for each reply where possible
+     * @param initial
+     *            messages to send right after authenticating, with pipelined auth they go out before the server
+     *            has accepted us.
+     * @throws IOException
+     */
+    public void connect ( BusAddress address, int timeout, boolean pipelined, Message... initial ) throws IOException {
         log.info("Connecting to " + address);
+        TransportProvider p = providers.get(address.getType());
+        if ( null == p )
+            throw new IOException("unknown address type " + address.getType());
+        p.connect(this, address, timeout, pipelined, initial);
+    }
+
+
+    /**
+     * Register the provider opening connections for an address type, replacing any provider registered
+     * before. The unix, tcp, memory and loopback types are provided by default.
+     *
+     * @param type
+     *            the address type, for example "unix"
+     * @param provider
+     * @return the provider registered before, or null
+     */
+    public static TransportProvider registerProvider ( String type, TransportProvider provider ) {
+        return providers.put(type, provider);
+    }
+
+
+    /**
+     * @param type
+     * @return the provider for the address type, or null if there is none
+     */
+    public static TransportProvider getProvider ( String type ) {
+        return providers.get(type);
+    }
+
+
+    /**
+     * Connect and authenticate over a unix or tcp socket
+     */
+    private void connectSocket ( BusAddress address, int timeout, boolean pipelined, Message... initial ) throws IOException {
         OutputStream out = null;
         InputStream in = null;
         AFUNIXSocket us = null;
         Socket s = null;
+        SocketChannel ch = null;
         int mode = 0;
         int types = 0;
         if ( "unix".equals(address.getType()) ) {
@@ -902,6 +965,13 @@ public class Transport {
                 uss.setPassCred(true);
                 s = uss.accept();
             }
+            else if ( !abstractSock && 0 == timeout && UnixChannelSupport.isPreferred() ) {
+                // no native library needed, but credentials cannot be passed
+                mode = SASL.MODE_CLIENT;
+                ch = UnixChannelSupport.connect(sockFile);
+                in = UnixChannelSupport.getInputStream(ch);
+                out = UnixChannelSupport.getOutputStream(ch);
+            }
             else {
                 mode = SASL.MODE_CLIENT;
                 us = AFUNIXSocket.newInstance();
@@ -917,33 +987,72 @@ public class Transport {
             if ( null != address.getParameter("listen") ) {
                 mode = SASL.MODE_SERVER;
                 ServerSocket ss = new ServerSocket();
+                // the receive window has to be set before the connection is established
+                if ( null != address.getParameter("rcvbuf") )
+                    ss.setReceiveBufferSize(Integer.parseInt(address.getParameter("rcvbuf")));
                 ss.bind(new InetSocketAddress(address.getParameter("host"), Integer.parseInt(address.getParameter("port"))));
                 s = ss.accept();
+                setSocketOptions(s, address);
             }
             else {
                 mode = SASL.MODE_CLIENT;
                 s = new Socket();
-                s.connect(new InetSocketAddress(address.getParameter("host"), Integer.parseInt(address.getParameter("port"))));
+                setSocketOptions(s, address);
+                int connecttimeout = 0;
+                if ( null != address.getParameter("connecttimeout") )
+                    connecttimeout = Integer.parseInt(address.getParameter("connecttimeout"));
+                s.connect(new InetSocketAddress(address.getParameter("host"), Integer.parseInt(address.getParameter("port"))), connecttimeout);
             }
         }
         else {
             throw new IOException("unknown address type " + address.getType());
         }
 
-        in = s.getInputStream();
-        out = s.getOutputStream();
+        if ( null != s ) {
+            in = s.getInputStream();
+            out = s.getOutputStream();
+        }
 
-        if ( ! ( new SASL() ).auth(mode, types, address.getParameter("guid"), out, in, us) ) {
+        // a pipelined EXTERNAL auth sends everything up to the initial messages in one go
+        boolean ahead = pipelined && SASL.MODE_CLIENT == mode && 0 != ( types & SASL.AUTH_EXTERNAL );
+        OutputStream aout = ahead ? new BufferedOutputStream(out) : out;
+
+        SASL sasl = new SASL(pipelined);
+        if ( !sasl.auth(mode, types, address.getParameter("guid"), aout, in, us) ) {
             out.close();
             in.close();
-            s.close();
+            if ( null != s )
+                s.close();
             throw new IOException("Failed to auth");
         }
 
+        if ( initial.length > 0 && !ahead )
+            aout = new BufferedOutputStream(out);
+        for ( Message m : initial ) {
+            for ( byte[] buf : m.getWireData() ) {
+                if ( null == buf )
+                    break;
+                aout.write(buf);
+            }
+        }
+        aout.flush();
+
+        if ( !sasl.confirm(in) ) {
+            if ( null != s )
+                s.close();
+            else
+                ch.close();
+            log.info("Pipelined auth was rejected, authenticating step by step");
+            connectSocket(address, timeout, false, initial);
+            return;
+        }
+
         if ( log.isTraceEnabled() ) {
             log.trace("Setting timeout to " + timeout + " on Socket");
         }
-        s.setSoTimeout(timeout);
+        if ( null != s )
+            s.setSoTimeout(timeout);
+        this.sock = s;
 
         this.mout = new MessageWriter(out);
         this.min = new MessageReader(in);
@@ -952,8 +1061,69 @@ public class Transport {
     }
 
 
+    /**
+     * Apply the socket options given in a tcp address:
+     * nodelay (default true), keepalive, sndbuf and rcvbuf (in bytes).
+     * 
+     * @param s
+     * @param address
+     * @throws IOException
+     */
+    public static void setSocketOptions ( Socket s, BusAddress address ) throws IOException {
+        String nodelay = address.getParameter("nodelay");
+        s.setTcpNoDelay(null == nodelay || Boolean.parseBoolean(nodelay));
+        if ( null != address.getParameter("keepalive") )
+            s.setKeepAlive(Boolean.parseBoolean(address.getParameter("keepalive")));
+        if ( null != address.getParameter("sndbuf") )
+            s.setSendBufferSize(Integer.parseInt(address.getParameter("sndbuf")));
+        if ( null != address.getParameter("rcvbuf") )
+            s.setReceiveBufferSize(Integer.parseInt(address.getParameter("rcvbuf")));
+    }
+
+
+    /**
+     * Connect to (or with listen=true wait for a connection from) a peer in this JVM
+     */
+    private void connectMemory ( BusAddress address, int timeout, Message... initial ) throws IOException {
+        String name = address.getParameter("name");
+        if ( null == name )
+            throw new IOException(address.getType() + " address requires a name");
+        boolean loopback = "loopback".equals(address.getType());
+
+        MemoryTransport.Endpoint e;
+        if ( null != address.getParameter("listen") ) {
+            MemoryTransport l = MemoryTransport.listen(name, loopback);
+            try {
+                e = l.accept();
+            }
+            finally {
+                l.close();
+            }
+        }
+        else
+            e = MemoryTransport.connect(name, loopback);
+
+        e.setTimeout(timeout);
+        for ( Message m : initial )
+            e.mout.writeMessage(m);
+        this.mout = e.mout;
+        this.min = e.min;
+
+        log.info("Connection open");
+    }
+
+
     public void disconnect () throws IOException {
         log.info("Disconnecting Transport");
+        // wake up a reader blocked on the socket, closing alone does not interrupt a read on every platform
+        if ( null != this.sock && !this.sock.isInputShutdown() ) {
+            try {
+                this.sock.shutdownInput();
+            }
+            catch ( IOException IOe ) {
+                log.debug("Failed to shut down socket input", IOe);
+            }
+        }
         this.min.close();
         this.mout.close();
     }
@@ -0,0 +1,41 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus;
+
+
+import java.io.IOException;
+
+
+/**
+ * Opens connections for one type of bus address, such as unix: or tcp:.
+ *
+ * Providers are registered with {@link Transport#registerProvider(String, TransportProvider)} under the
+ * address type they handle.
+ */
+public interface TransportProvider {
+
+    /**
+     * Connect (or with listen=true in the address wait for a connection), authenticate and set the min
+     * and mout of the transport.
+     *
+     * @param transport
+     *            the transport to open
+     * @param address
+     * @param timeout
+     *            read timeout in ms, 0 to block
+     * @param pipelined
+     *            send the auth commands without waiting for each reply where possible, may be ignored
+     * @param initial
+     *            messages to send right after authenticating
+     * @throws IOException
+     */
+    public void connect ( Transport transport, BusAddress address, int timeout, boolean pipelined, Message... initial ) throws IOException;
+}
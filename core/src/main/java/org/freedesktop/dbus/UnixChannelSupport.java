@@ -0,0 +1,188 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Unix socket connections through java.nio SocketChannels, available from Java 16 on.
+ *
+ * The JDK classes are looked up reflectively so that this still runs on older Java versions, where
+ * junixsocket is used instead. Unlike junixsocket this needs no native library, but it supports neither
+ * abstract socket addresses nor passing credentials or file descriptors.
+ */
+final class UnixChannelSupport {
+
+    private static final Logger log = Logger.getLogger(UnixChannelSupport.class);
+
+    private static final Method addressOf;
+    private static final Method open;
+    private static final ProtocolFamily unix;
+
+    static {
+        Method of = null;
+        Method o = null;
+        ProtocolFamily f = null;
+        try {
+            of = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+            o = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+            f = StandardProtocolFamily.valueOf("UNIX");
+        }
+        catch (
+            ClassNotFoundException |
+            NoSuchMethodException |
+            IllegalArgumentException e ) {
+            log.debug("Unix socket channels are not supported by this Java version");
+            of = null;
+            o = null;
+        }
+        addressOf = of;
+        open = o;
+        unix = f;
+    }
+
+    private static class ChannelInputStream extends InputStream {
+
+        private final SocketChannel channel;
+
+
+        ChannelInputStream ( SocketChannel channel ) {
+            this.channel = channel;
+        }
+
+
+        @Override
+        public int read () throws IOException {
+            byte[] b = new byte[1];
+            return -1 == read(b, 0, 1) ? -1 : b[ 0 ] & 0xFF;
+        }
+
+
+        @Override
+        public int read ( byte[] b, int off, int len ) throws IOException {
+            if ( 0 == len )
+                return 0;
+            return this.channel.read(ByteBuffer.wrap(b, off, len));
+        }
+
+
+        @Override
+        public void close () throws IOException {
+            this.channel.close();
+        }
+    }
+
+    private static class ChannelOutputStream extends OutputStream {
+
+        private final SocketChannel channel;
+
+
+        ChannelOutputStream ( SocketChannel channel ) {
+            this.channel = channel;
+        }
+
+
+        @Override
+        public void write ( int b ) throws IOException {
+            write(new byte[] {
+                (byte) b
+            }, 0, 1);
+        }
+
+
+        @Override
+        public void write ( byte[] b, int off, int len ) throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+            while ( buf.hasRemaining() )
+                this.channel.write(buf);
+        }
+
+
+        @Override
+        public void close () throws IOException {
+            this.channel.close();
+        }
+    }
+
+
+    private UnixChannelSupport () {}
+
+
+    static boolean isSupported () {
+        return null != addressOf;
+    }
+
+
+    /**
+     * @return whether to use socket channels rather than junixsocket, which can be forced by setting
+     *         DBUS_JAVA_JUNIXSOCKET in the environment
+     */
+    static boolean isPreferred () {
+        return isSupported() && null == System.getenv("DBUS_JAVA_JUNIXSOCKET");
+    }
+
+
+    static SocketChannel connect ( File path ) throws IOException {
+        SocketChannel channel;
+        try {
+            channel = (SocketChannel) open.invoke(null, unix);
+        }
+        catch ( InvocationTargetException ITe ) {
+            if ( ITe.getCause() instanceof IOException )
+                throw (IOException) ITe.getCause();
+            throw new IOException("Failed to open unix socket", ITe.getCause());
+        }
+        catch ( IllegalAccessException IAe ) {
+            throw new IOException("Failed to open unix socket", IAe);
+        }
+
+        try {
+            channel.connect((SocketAddress) addressOf.invoke(null, path.getPath()));
+        }
+        catch ( InvocationTargetException | IllegalAccessException e ) {
+            channel.close();
+            throw new IOException("Invalid unix socket address " + path, e);
+        }
+        catch ( IOException IOe ) {
+            channel.close();
+            throw IOe;
+        }
+        return channel;
+    }
+
+
+    /**
+     * Streams which read and write the channel directly, other than Channels.newInputStream they do not
+     * block writes while a read is waiting.
+     */
+    static InputStream getInputStream ( SocketChannel channel ) {
+        return new ChannelInputStream(channel);
+    }
+
+
+    static OutputStream getOutputStream ( SocketChannel channel ) {
+        return new ChannelOutputStream(channel);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.freedesktop.dbus.Keyring.Cookie;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class TestKeyring {
+
+    private String home;
+    private File dir;
+
+
+    @Before
+    public void setUp () throws Exception {
+        // Keyring resolves ~/.dbus-keyrings when it is first asked for a context
+        this.home = System.getProperty("user.home");
+        File tmp = Files.createTempDirectory("keyring").toFile();
+        System.setProperty("user.home", tmp.getPath());
+        this.dir = new File(tmp, ".dbus-keyrings");
+        this.dir.mkdirs();
+    }
+
+
+    @After
+    public void tearDown () {
+        System.setProperty("user.home", this.home);
+        File[] files = this.dir.listFiles();
+        if ( null != files )
+            for ( File f : files )
+                f.delete();
+        this.dir.delete();
+        this.dir.getParentFile().delete();
+    }
+
+
+    private void write ( String context, String... lines ) throws Exception {
+        File f = new File(this.dir, context);
+        try ( PrintWriter w = new PrintWriter(new FileOutputStream(f)) ) {
+            for ( String l : lines )
+                w.println(l);
+        }
+    }
+
+
+    private static List<String> lines ( File f ) throws Exception {
+        List<String> rv = new ArrayList<>();
+        for ( String l : Files.readAllLines(f.toPath(), StandardCharsets.US_ASCII) )
+            if ( !l.isEmpty() )
+                rv.add(l);
+        return rv;
+    }
+
+
+    @Test
+    public void reloadTest () throws Exception {
+        long now = System.currentTimeMillis() / 1000;
+        write("reload", "1 " + now + " abcd");
+        Keyring k = Keyring.get("reload");
+        assertEquals("abcd", k.find("1"));
+        assertNull(k.find("2"));
+
+        // a changed file is read again, even within the timestamp granularity
+        write("reload", "1 " + now + " abcdef");
+        assertEquals("abcdef", k.find("1"));
+
+        // a missing id forces a read
+        write("reload", "1 " + now + " abcdef", "2 " + now + " 0123");
+        assertEquals("0123", k.find("2"));
+
+        // expired cookies are not handed out
+        write("reload", "3 " + ( now - Transport.SASL.EXPIRE_KEYS_TIMEOUT_SECONDS - 10 ) + " dead");
+        assertNull(k.find("3"));
+        assertNull(k.find("1"));
+    }
+
+
+    @Test
+    public void serverCookieTest () throws Exception {
+        final Keyring k = Keyring.get("server");
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService ex = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Cookie>> results = new ArrayList<>();
+            for ( int i = 0; i < 32; i++ ) {
+                results.add(ex.submit(new Callable<Cookie>() {
+
+                    @Override
+                    public Cookie call () throws Exception {
+                        start.await();
+                        return k.getServerCookie();
+                    }
+                }));
+            }
+            start.countDown();
+
+            // one cookie is added and then reused by everyone
+            String id = results.get(0).get(10, TimeUnit.SECONDS).id;
+            for ( Future<Cookie> f : results )
+                assertEquals(id, f.get(10, TimeUnit.SECONDS).id);
+        }
+        finally {
+            ex.shutdown();
+        }
+        List<String> lines = lines(new File(this.dir, "server"));
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).startsWith(k.getServerCookie().id + " "));
+        assertFalse(new File(this.dir, "server.lock").exists());
+
+        // and the client side finds it when challenged with its id
+        assertNotNull(k.find(k.getServerCookie().id));
+    }
+
+
+    @Test
+    public void staleLockTest () throws Exception {
+        long now = System.currentTimeMillis() / 1000;
+        write("stale", "1 " + ( now - Transport.SASL.EXPIRE_KEYS_TIMEOUT_SECONDS - 10 ) + " dead");
+        File lock = new File(this.dir, "stale.lock");
+        assertTrue(lock.createNewFile());
+
+        // the lock of a writer which went away is broken after LOCK_TIMEOUT
+        long start = System.currentTimeMillis();
+        Cookie c = Keyring.get("stale").getServerCookie();
+        long waited = System.currentTimeMillis() - start;
+        assertTrue("waited " + waited, waited >= Transport.SASL.LOCK_TIMEOUT);
+        assertTrue("waited " + waited, waited < 10 * Transport.SASL.LOCK_TIMEOUT);
+        assertFalse(lock.exists());
+
+        // the expired cookie was pruned
+        List<String> lines = lines(new File(this.dir, "stale"));
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).startsWith(c.id + " "));
+    }
+}
@@ -0,0 +1,232 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.types.Struct;
+import org.junit.After;
+import org.junit.Test;
+
+
+public class TestLoopback {
+
+    public static final class Point extends Struct {
+
+        @Position ( 0 )
+        public final int x;
+        @Position ( 1 )
+        public final int y;
+
+
+        public Point ( int x, int y ) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    public interface Shapes extends DBusInterface {
+
+        public Point move ( Path target, Point p, List<Integer> offsets );
+
+        public class Moved extends DBusSignal {
+
+            public final Path target;
+            public final Point point;
+
+
+            public Moved ( String path, Path target, Point point ) throws DBusException {
+                super(path, target, point);
+                this.target = target;
+                this.point = point;
+            }
+        }
+    }
+
+    static class ShapesImpl implements Shapes {
+
+        volatile Path target;
+
+
+        @Override
+        public boolean isRemote () {
+            return false;
+        }
+
+
+        @Override
+        public Point move ( Path t, Point p, List<Integer> offsets ) {
+            this.target = t;
+            return new Point(p.x + offsets.get(0), p.y + offsets.get(1));
+        }
+    }
+
+    private static final AtomicInteger names = new AtomicInteger();
+
+    private DirectConnection server;
+    private DirectConnection client;
+
+
+    @After
+    public void tearDown () {
+        if ( null != this.client )
+            this.client.disconnect();
+        if ( null != this.server )
+            this.server.disconnect();
+    }
+
+
+    /**
+     * Connect a pair of direct connections, the listening one waits for the other in the background
+     */
+    private void connect ( final String type ) throws Exception {
+        final String address = type + ":name=test-loopback-" + names.incrementAndGet();
+        ExecutorService ex = Executors.newSingleThreadExecutor();
+        try {
+            Future<DirectConnection> listening = ex.submit(new Callable<DirectConnection>() {
+
+                @Override
+                public DirectConnection call () throws DBusException {
+                    return new DirectConnection(address + ",listen=true");
+                }
+            });
+            for ( int i = 0; i < 100 && null == this.client; i++ ) {
+                try {
+                    this.client = new DirectConnection(address);
+                }
+                catch ( DBusException DBe ) {
+                    // not listening yet
+                    Thread.sleep(10);
+                }
+            }
+            this.server = listening.get(10, TimeUnit.SECONDS);
+        }
+        finally {
+            ex.shutdown();
+        }
+    }
+
+
+    private void assertExchange () throws Exception {
+        ShapesImpl impl = new ShapesImpl();
+        this.server.exportObject("/shapes", impl);
+        final BlockingQueue<Shapes.Moved> moved = new LinkedBlockingQueue<>();
+        this.client.addSigHandler(Shapes.Moved.class, new DBusSigHandler<Shapes.Moved>() {
+
+            @Override
+            public void handle ( Shapes.Moved s ) {
+                moved.add(s);
+            }
+        });
+
+        Shapes shapes = (Shapes) this.client.getRemoteObject("/shapes", Shapes.class);
+        Point p = shapes.move(new Path("/a/b"), new Point(1, 2), Arrays.asList(3, 4));
+        assertEquals(4, p.x);
+        assertEquals(6, p.y);
+        assertEquals(new Path("/a/b"), impl.target);
+
+        this.server.sendSignal(new Shapes.Moved("/shapes", new Path("/c"), new Point(5, 6)));
+        Shapes.Moved s = moved.poll(10, TimeUnit.SECONDS);
+        assertEquals("/shapes", s.getPath());
+        assertEquals(new Path("/c"), s.target);
+        assertEquals(5, s.point.x);
+        assertEquals(6, s.point.y);
+    }
+
+
+    @Test
+    public void loopbackTest () throws Exception {
+        connect("loopback");
+        assertExchange();
+    }
+
+
+    @Test
+    public void memoryTest () throws Exception {
+        connect("memory");
+        assertExchange();
+    }
+
+
+    @Test
+    public void copyTest () throws Exception {
+        MethodCall m = new MethodCall(null, "/x", "org.freedesktop.dbus.test", "Call", (byte) 0, "oai", "/a/b", new int[] {
+            1, 2
+        });
+        Message copy = m.copyForPeer();
+        assertNotSame(m, copy);
+        assertTrue(copy instanceof MethodCall);
+        assertEquals(m.getSerial(), copy.getSerial());
+        assertEquals("/x", copy.getPath());
+        assertEquals("oai", copy.getSig());
+
+        // the copy extracts the parameters from the marshalled body, the original keeps its own
+        Object[] args = copy.getParameters();
+        assertTrue(args[ 0 ] instanceof ObjectPath);
+        assertEquals("/a/b", args[ 0 ].toString());
+        assertEquals("/a/b", m.getParameters()[ 0 ]);
+        assertArrayEquals(new int[] {
+            1, 2
+        }, (int[]) m.getParameters()[ 1 ]);
+
+        // and changing the copy leaves the original alone
+        copy.setSource(":1.2");
+        assertEquals(":1.2", copy.getSource());
+        assertNull(m.getSource());
+    }
+
+
+    @Test
+    public void providerTest () throws Exception {
+        final AtomicInteger listened = new AtomicInteger();
+        final AtomicInteger connected = new AtomicInteger();
+        final TransportProvider memory = Transport.getProvider("memory");
+        assertNull(Transport.registerProvider("counted", new TransportProvider() {
+
+            @Override
+            public void connect ( Transport transport, BusAddress address, int timeout, boolean pipelined, Message... initial )
+                    throws IOException {
+                ( null == address.getParameter("listen") ? connected : listened ).incrementAndGet();
+                memory.connect(transport, address, timeout, pipelined, initial);
+            }
+        }));
+        connect("counted");
+        // the client may have tried before the server was listening
+        assertEquals(1, listened.get());
+        assertTrue(connected.get() >= 1);
+        assertExchange();
+
+        try {
+            new DirectConnection("nosuchtype:name=x");
+            fail("Connected to an address type without a provider");
+        }
+        catch ( DBusException DBe ) {}
+    }
+}
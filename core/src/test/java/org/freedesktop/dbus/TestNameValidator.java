@@ -0,0 +1,90 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+
+public class TestNameValidator {
+
+    /** the patterns NameValidator replaced */
+    private static final Pattern BUSNAME_REGEX = Pattern.compile("^[-_a-zA-Z][-_a-zA-Z0-9]*(\\.[-_a-zA-Z][-_a-zA-Z0-9]*)*$");
+    private static final Pattern CONNID_REGEX = Pattern.compile("^:[0-9]*\\.[0-9]*$");
+    private static final Pattern OBJECT_REGEX = Pattern.compile("^/([-_a-zA-Z0-9]+(/[-_a-zA-Z0-9]+)*)?$");
+
+    private static final String ALPHABET = "ab9_-./:Z \u00e9";
+
+
+    @Test
+    public void busNameTest () {
+        assertTrue(NameValidator.isBusName("org.freedesktop.DBus"));
+        assertTrue(NameValidator.isBusName("a"));
+        assertTrue(NameValidator.isBusName("_a.-b"));
+        assertFalse(NameValidator.isBusName(""));
+        assertFalse(NameValidator.isBusName("org..freedesktop"));
+        assertFalse(NameValidator.isBusName("org.freedesktop."));
+        assertFalse(NameValidator.isBusName(".org"));
+        assertFalse(NameValidator.isBusName("org.9freedesktop"));
+        assertFalse(NameValidator.isBusName(":1.2"));
+    }
+
+
+    @Test
+    public void connectionIdTest () {
+        assertTrue(NameValidator.isConnectionId(":1.2"));
+        assertTrue(NameValidator.isConnectionId(":."));
+        assertTrue(NameValidator.isConnectionId(":12."));
+        assertFalse(NameValidator.isConnectionId(""));
+        assertFalse(NameValidator.isConnectionId(":"));
+        assertFalse(NameValidator.isConnectionId(":1"));
+        assertFalse(NameValidator.isConnectionId(":1.2.3"));
+        assertFalse(NameValidator.isConnectionId("1.2"));
+        assertFalse(NameValidator.isConnectionId(":a.2"));
+    }
+
+
+    @Test
+    public void objectPathTest () {
+        assertTrue(NameValidator.isObjectPath("/"));
+        assertTrue(NameValidator.isObjectPath("/org/freedesktop/DBus"));
+        assertTrue(NameValidator.isObjectPath("/9/_-"));
+        assertFalse(NameValidator.isObjectPath(""));
+        assertFalse(NameValidator.isObjectPath("org"));
+        assertFalse(NameValidator.isObjectPath("//"));
+        assertFalse(NameValidator.isObjectPath("/org/"));
+        assertFalse(NameValidator.isObjectPath("/org//freedesktop"));
+        assertFalse(NameValidator.isObjectPath("/org.freedesktop"));
+    }
+
+
+    @Test
+    public void compareWithRegexTest () {
+        Random r = new Random(1);
+        for ( int n = 0; n < 200000; n++ ) {
+            int len = r.nextInt(8);
+            StringBuilder sb = new StringBuilder();
+            for ( int i = 0; i < len; i++ )
+                sb.append(ALPHABET.charAt(r.nextInt(ALPHABET.length())));
+            String s = sb.toString();
+            assertEquals("bus name \"" + s + "\"", BUSNAME_REGEX.matcher(s).matches(), NameValidator.isBusName(s));
+            assertEquals("connection id \"" + s + "\"", CONNID_REGEX.matcher(s).matches(), NameValidator.isConnectionId(s));
+            assertEquals("object path \"" + s + "\"", OBJECT_REGEX.matcher(s).matches(), NameValidator.isObjectPath(s));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class TestObjectTree {
+
+    static class Pinger implements DBus.Peer {
+
+        @Override
+        public boolean isRemote () {
+            return false;
+        }
+
+
+        @Override
+        public void Ping () {}
+    }
+
+    private ExportedObject object;
+
+
+    @Before
+    public void setUp () throws Exception {
+        this.object = new ExportedObject(new Pinger(), false);
+    }
+
+
+    @Test
+    public void introspectTest () {
+        ObjectTree tree = new ObjectTree();
+        tree.add("/a/b", this.object, this.object.introspectiondata);
+        tree.add("/a/c", this.object, this.object.introspectiondata);
+
+        String a = tree.Introspect("/a");
+        assertEquals("<node name=\"/a\">\n<node name=\"b\"/>\n<node name=\"c\"/>\n</node>", a);
+        String b = tree.Introspect("/a/b");
+        assertTrue(b.startsWith("<node name=\"/a/b\">\n" + this.object.introspectiondata));
+        assertNull(tree.Introspect("/a/d"));
+
+        // unchanged nodes are not built again
+        assertSame(a, tree.Introspect("/a"));
+        assertSame(b, tree.Introspect("/a/b"));
+    }
+
+
+    @Test
+    public void addInvalidatesTest () {
+        ObjectTree tree = new ObjectTree();
+        tree.add("/a/b", this.object, this.object.introspectiondata);
+        String root = tree.Introspect("/");
+        String a = tree.Introspect("/a");
+        tree.Introspect("/a/b");
+
+        // a new child of /a/b invalidates /a/b only
+        tree.add("/a/b/c", this.object, this.object.introspectiondata);
+        assertSame(root, tree.Introspect("/"));
+        assertSame(a, tree.Introspect("/a"));
+        assertTrue(tree.Introspect("/a/b").contains("<node name=\"c\"/>"));
+
+        // an object on an existing node invalidates that node
+        tree.add("/a", this.object, this.object.introspectiondata);
+        assertTrue(tree.Introspect("/a").contains(this.object.introspectiondata));
+
+        // a new branch invalidates the node it starts on
+        tree.add("/d/e", this.object, this.object.introspectiondata);
+        assertTrue(tree.Introspect("/").contains("<node name=\"d\"/>"));
+    }
+
+
+    @Test
+    public void removeInvalidatesTest () {
+        ObjectTree tree = new ObjectTree();
+        tree.add("/a/b/c", this.object, this.object.introspectiondata);
+        tree.add("/a/d", this.object, this.object.introspectiondata);
+        tree.Introspect("/");
+        tree.Introspect("/a");
+        tree.Introspect("/a/b");
+
+        // the empty node /a/b is dropped together with /a/b/c
+        tree.remove("/a/b/c");
+        assertNull(tree.Introspect("/a/b"));
+        assertNull(tree.Introspect("/a/b/c"));
+        assertFalse(tree.Introspect("/a").contains("<node name=\"b\"/>"));
+        assertTrue(tree.Introspect("/a").contains("<node name=\"d\"/>"));
+
+        tree.remove("/a/d");
+        assertNull(tree.Introspect("/a"));
+        assertEquals("<node name=\"/\">\n</node>", tree.Introspect("/"));
+
+        // removing a path which is not in the tree changes nothing
+        tree.remove("/x/y");
+        assertEquals("<node name=\"/\">\n</node>", tree.Introspect("/"));
+    }
+
+
+    @Test
+    public void bulkTest () {
+        ObjectTree tree = new ObjectTree();
+        Map<String, ExportedObject> objects = new LinkedHashMap<>();
+        objects.put("/a/b", this.object);
+        objects.put("/a/c", this.object);
+        objects.put("/e", this.object);
+        tree.addAll(objects);
+        String a = tree.Introspect("/a");
+        assertTrue(a.contains("<node name=\"b\"/>"));
+        assertTrue(a.contains("<node name=\"c\"/>"));
+        assertTrue(tree.Introspect("/e").contains(this.object.introspectiondata));
+
+        tree.removeAll(Arrays.asList("/a/b", "/e"));
+        assertEquals("<node name=\"/a\">\n<node name=\"c\"/>\n</node>", tree.Introspect("/a"));
+        assertEquals("<node name=\"/\">\n<node name=\"a\"/>\n</node>", tree.Introspect("/"));
+    }
+}
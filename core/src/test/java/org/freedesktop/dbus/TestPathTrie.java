@@ -0,0 +1,182 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class TestPathTrie {
+
+    private static final String[] ELEMENTS = {
+        "a", "ab", "abc", "b", "x", "o"
+    };
+
+
+    @Test
+    public void splitTest () {
+        PathTrie<String> t = new PathTrie<>();
+        t.put("/abc/def", "1");
+        // splits the single edge at every possible position
+        t.put("/abc/dx", "2");
+        t.put("/abc", "3");
+        t.put("/ab", "4");
+        t.put("/", "5");
+        assertEquals("1", t.get("/abc/def"));
+        assertEquals("2", t.get("/abc/dx"));
+        assertEquals("3", t.get("/abc"));
+        assertEquals("4", t.get("/ab"));
+        assertEquals("5", t.get("/"));
+        assertNull(t.get("/abc/d"));
+        assertNull(t.get("/a"));
+        assertNull(t.get("/abc/defg"));
+        assertNull(t.get(""));
+    }
+
+
+    @Test
+    public void mergeTest () {
+        PathTrie<String> t = new PathTrie<>();
+        t.put("/abc/def", "1");
+        t.put("/abc/dx", "2");
+        t.put("/abc", "3");
+        t.remove("/abc");
+        t.remove("/abc/dx");
+        // the nodes left with a single child are merged back into it
+        assertEquals("1", t.get("/abc/def"));
+        assertNull(t.get("/abc"));
+        assertNull(t.get("/abc/dx"));
+        t.put("/abc/dx", "4");
+        assertEquals("4", t.get("/abc/dx"));
+        assertEquals("1", t.get("/abc/def"));
+        t.remove("/abc/def");
+        t.remove("/abc/dx");
+        assertNull(t.get("/abc/def"));
+        assertNull(t.get("/abc/dx"));
+        // removing what is not there changes nothing
+        t.put("/abc", "5");
+        t.remove("/ab");
+        t.remove("/abcd");
+        t.removeFallback("/abc");
+        assertEquals("5", t.get("/abc"));
+    }
+
+
+    @Test
+    public void fallbackBoundaryTest () {
+        PathTrie<String> t = new PathTrie<>();
+        t.putFallback("/a", "fa");
+        assertEquals("fa", t.getFallback("/a"));
+        assertEquals("fa", t.getFallback("/a/b"));
+        // a fallback only covers whole path elements
+        assertNull(t.getFallback("/ab"));
+        assertNull(t.getFallback("/"));
+
+        t.putFallback("/", "root");
+        assertEquals("root", t.getFallback("/ab"));
+        assertEquals("root", t.getFallback("/"));
+        assertEquals("fa", t.getFallback("/a/ab"));
+
+        t.putFallback("/a/b", "fab");
+        assertEquals("fab", t.getFallback("/a/b/c"));
+        assertEquals("fa", t.getFallback("/a/bc"));
+
+        // the exact object wins over the fallback
+        t.put("/a/b/c", "obj");
+        assertEquals("obj", t.lookup("/a/b/c"));
+        assertEquals("fab", t.lookup("/a/b/d"));
+        assertEquals("fab", t.getFallback("/a/b/c"));
+
+        t.removeFallback("/a/b");
+        assertEquals("fa", t.lookup("/a/b/d"));
+        assertEquals("obj", t.get("/a/b/c"));
+        t.removeFallback("/a");
+        assertEquals("root", t.lookup("/a/b/d"));
+    }
+
+
+    @Test
+    public void nullPathTest () {
+        PathTrie<String> t = new PathTrie<>();
+        assertNull(t.get(null));
+        t.put(null, "n");
+        assertEquals("n", t.get(null));
+        assertEquals("n", t.lookup(null));
+        assertNull(t.get("/"));
+        t.remove(null);
+        assertNull(t.get(null));
+    }
+
+
+    @Test
+    public void compareWithMapTest () {
+        Random r = new Random(1);
+        for ( int round = 0; round < 100; round++ ) {
+            PathTrie<String> t = new PathTrie<>();
+            Map<String, String> exact = new HashMap<>();
+            Map<String, String> fallbacks = new HashMap<>();
+            for ( int op = 0; op < 300; op++ ) {
+                String p = randomPath(r, 4);
+                switch ( r.nextInt(4) ) {
+                case 0:
+                    exact.put(p, "e" + op);
+                    t.put(p, "e" + op);
+                    break;
+                case 1:
+                    fallbacks.put(p, "f" + op);
+                    t.putFallback(p, "f" + op);
+                    break;
+                case 2:
+                    exact.remove(p);
+                    t.remove(p);
+                    break;
+                default:
+                    fallbacks.remove(p);
+                    t.removeFallback(p);
+                }
+
+                for ( int q = 0; q < 20; q++ ) {
+                    String x = randomPath(r, 5);
+                    String fallback = null;
+                    int longest = -1;
+                    for ( Map.Entry<String, String> e : fallbacks.entrySet() ) {
+                        String f = e.getKey();
+                        if ( ( "/".equals(f) || x.equals(f) || x.startsWith(f + "/") ) && f.length() > longest ) {
+                            longest = f.length();
+                            fallback = e.getValue();
+                        }
+                    }
+                    assertEquals(x, exact.get(x), t.get(x));
+                    assertEquals(x, fallback, t.getFallback(x));
+                    assertEquals(x, null != exact.get(x) ? exact.get(x) : fallback, t.lookup(x));
+                }
+            }
+        }
+    }
+
+
+    private static String randomPath ( Random r, int maxDepth ) {
+        int depth = r.nextInt(maxDepth);
+        if ( 0 == depth )
+            return "/";
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < depth; i++ )
+            sb.append('/').append(ELEMENTS[ r.nextInt(ELEMENTS.length) ]);
+        return sb.toString();
+    }
+}
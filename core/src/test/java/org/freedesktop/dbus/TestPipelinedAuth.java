@@ -0,0 +1,168 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+ */
+package org.freedesktop.dbus;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.freedesktop.dbus.Transport.SASL;
+import org.junit.Test;
+
+
+public class TestPipelinedAuth {
+
+    private static InputStream replies ( String replies ) throws Exception {
+        return new ByteArrayInputStream(replies.getBytes("ASCII"));
+    }
+
+
+    @Test
+    public void externalTest () throws Exception {
+        // everything up to BEGIN goes out before any reply is read
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = replies("OK 1234\r\n");
+        SASL sasl = new SASL(true);
+        assertTrue(sasl.auth(SASL.MODE_CLIENT, SASL.AUTH_EXTERNAL, null, out, in, null));
+        assertEquals(9, in.available());
+        String sent = out.toString("ASCII");
+        assertTrue(sent, sent.startsWith("\0AUTH EXTERNAL "));
+        assertTrue(sent, sent.endsWith("\r\nBEGIN\r\n"));
+
+        assertTrue(sasl.confirm(in));
+        assertEquals(0, in.available());
+        // the replies are only read once
+        assertTrue(sasl.confirm(in));
+    }
+
+
+    @Test
+    public void externalRejectedTest () throws Exception {
+        SASL sasl = new SASL(true);
+        assertTrue(sasl.auth(SASL.MODE_CLIENT, SASL.AUTH_EXTERNAL, null, new ByteArrayOutputStream(), replies(""), null));
+        assertFalse(sasl.confirm(replies("REJECTED DBUS_COOKIE_SHA1\r\n")));
+    }
+
+
+    @Test
+    public void stepByStepTest () throws Exception {
+        // without pipelining the client asks for the mechanisms first and nothing is left to confirm
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = replies("REJECTED ANONYMOUS\r\nOK 1234\r\n");
+        SASL sasl = new SASL(false);
+        assertTrue(sasl.auth(SASL.MODE_CLIENT, SASL.AUTH_EXTERNAL, null, out, in, null));
+        assertEquals("\0AUTH\r\nAUTH ANONYMOUS\r\nBEGIN\r\n", out.toString("ASCII"));
+        assertTrue(sasl.confirm(replies("")));
+    }
+
+
+    @Test
+    public void cookieFallbackTest () throws Exception {
+        // the cookie mechanism is tried without asking first, a rejection falls back to what the server offers
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = replies("REJECTED ANONYMOUS\r\nOK 1234\r\n");
+        SASL sasl = new SASL(true);
+        assertTrue(sasl.auth(SASL.MODE_CLIENT, SASL.AUTH_SHA, null, out, in, null));
+        String sent = out.toString("ASCII");
+        assertTrue(sent, sent.startsWith("\0AUTH DBUS_COOKIE_SHA1 "));
+        assertTrue(sent, sent.endsWith("\r\nAUTH ANONYMOUS\r\nBEGIN\r\n"));
+        assertEquals(0, in.available());
+    }
+
+
+    @Test
+    public void cookieTest () throws Exception {
+        final ServerSocket ss = new ServerSocket(0);
+        ExecutorService ex = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> server = ex.submit(new Callable<Boolean>() {
+
+                @Override
+                public Boolean call () throws Exception {
+                    try ( Socket s = ss.accept() ) {
+                        return new SASL().auth(SASL.MODE_SERVER, SASL.AUTH_SHA, Transport.genGUID(), s.getOutputStream(), s.getInputStream(), null);
+                    }
+                }
+            });
+            try ( Socket c = new Socket("localhost", ss.getLocalPort()) ) {
+                SASL sasl = new SASL(true);
+                assertTrue(sasl.auth(SASL.MODE_CLIENT, SASL.AUTH_SHA, null, c.getOutputStream(), c.getInputStream(), null));
+                assertTrue(sasl.confirm(c.getInputStream()));
+            }
+            assertTrue(server.get(10, TimeUnit.SECONDS));
+        }
+        finally {
+            ex.shutdown();
+            ss.close();
+        }
+    }
+
+
+    @Test
+    public void initialMessageTest () throws Exception {
+        // the initial messages follow BEGIN directly and the server reads them as the first messages
+        final String address = DirectConnection.createDynamicTCPSession();
+        ExecutorService ex = Executors.newSingleThreadExecutor();
+        try {
+            Future<Message> server = ex.submit(new Callable<Message>() {
+
+                @Override
+                public Message call () throws Exception {
+                    Transport t = new Transport(address + ",listen=true");
+                    try {
+                        return t.min.readMessage();
+                    }
+                    finally {
+                        t.disconnect();
+                    }
+                }
+            });
+
+            Transport t = new Transport();
+            for ( int i = 0; i < 100; i++ ) {
+                try {
+                    t.connect(new BusAddress(address), 0, true,
+                            new MethodCall("org.freedesktop.DBus", "/org/freedesktop/DBus", "org.freedesktop.DBus", "Hello", (byte) 0, null));
+                    break;
+                }
+                catch ( ConnectException Ce ) {
+                    // the server is not listening yet
+                    Thread.sleep(50);
+                }
+            }
+            try {
+                Message m = server.get(10, TimeUnit.SECONDS);
+                assertEquals("Hello", m.getName());
+                assertNull(m.getSig());
+            }
+            finally {
+                t.disconnect();
+            }
+        }
+        finally {
+            ex.shutdown();
+        }
+    }
+}